@@ -0,0 +1,75 @@
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class Main {
+
+    private static Runnable makeGreeter() {
+        return () -> System.out.println("Hello");
+    }
+
+    private Runnable makeInstanceGreeter() {
+        return () -> System.out.println("Hello from an instance method");
+    }
+
+    private static int applyTwice(Function<Integer, Integer> f, int x) {
+        return f.apply(f.apply(x));
+    }
+
+    private static Supplier<String> makeCounter(String prefix) {
+        var counter = new int[]{0};
+        return () -> {
+            counter[0] += 1;
+            if (counter[0] > 2) {
+                return prefix + " many";
+            }
+            return prefix + " " + counter[0];
+        };
+    }
+
+    public static void main(String[] args) {
+        // non-capturing lambdas are allocated once
+        var greeter1 = makeGreeter();
+        var greeter2 = makeGreeter();
+        greeter1.run();
+        System.out.println(greeter1 == greeter2);
+        var instanceGreeter = new Main().makeInstanceGreeter();
+        instanceGreeter.run();
+        System.out.println(instanceGreeter == new Main().makeInstanceGreeter());
+
+        System.out.println(applyTwice(x -> x * 3, 7));
+
+        var counter = makeCounter("count");
+        for (int i = 0; i < 4; i++) {
+            System.out.println(counter.get());
+        }
+
+        var words = List.of("lambda", "stream", "map", "filter", "reduce");
+        var lengths = words.stream()
+                .filter(w -> w.length() > 3)
+                .map(String::toUpperCase)
+                .map(w -> w + ":" + w.length())
+                .collect(Collectors.toList());
+        System.out.println(lengths);
+
+        IntBinaryOperator max = (a, b) -> a > b ? a : b;
+        System.out.println(IntStream.range(0, 10).map(i -> (i * 7) % 10).reduce(max).getAsInt());
+
+        Function<Integer, Function<Integer, Integer>> adder = x -> y -> x + y;
+        System.out.println(adder.apply(40).apply(2));
+
+        try {
+            words.forEach(w -> {
+                if (w.startsWith("f")) {
+                    throw new IllegalStateException("unexpected word: " + w);
+                }
+            });
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Main {
+
+    public static void main(String[] args) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        var longString = sb.toString();
+        System.out.println(longString.length());
+
+        var list = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            list.add(i * i);
+        }
+        System.out.println(list.size());
+
+        var nested = new ArrayList<Object>();
+        List<Object> curr = nested;
+        for (int i = 0; i < 10; i++) {
+            var next = new ArrayList<Object>();
+            curr.add(i);
+            curr.add(next);
+            curr = next;
+        }
+        System.out.println(nested.get(0));
+
+        var map = new HashMap<String, List<Integer>>();
+        map.put("squares", list);
+        map.put("short", List.of(1, 2, 3));
+        map.put(longString, List.of());
+        System.out.println(map.get("short"));
+
+        var array = new Object[50];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = i;
+        }
+        printAll(array);
+        printAll("x", "y");
+    }
+
+    private static void printAll(Object... objects) {
+        System.out.println(objects.length + " objects");
+    }
+
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class Main {
+
+    private static final int N_THREADS = 4;
+    private static final int N_ITER = 25;
+
+    public static void main(String[] args) throws InterruptedException {
+        var workers = new ArrayList<Worker>();
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < N_THREADS; i++) {
+            var worker = new Worker(i);
+            workers.add(worker);
+            threads.add(new Thread(worker));
+        }
+        for (var thread : threads) {
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+        for (var worker : workers) {
+            System.out.println("worker " + worker.idx + ": " + worker.result);
+        }
+        System.out.println("total: " + sum(workers));
+    }
+
+    private static long sum(List<Worker> workers) {
+        long total = 0;
+        for (var worker : workers) {
+            total += worker.result;
+        }
+        return total;
+    }
+
+    private static final class Worker implements Runnable {
+        private final int idx;
+        private long result = 0;
+
+        Worker(int idx) {
+            this.idx = idx;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < N_ITER; i++) {
+                result += collatzLength(idx * N_ITER + i + 1);
+            }
+        }
+
+        private static int collatzLength(long n) {
+            var length = 0;
+            while (n != 1) {
+                n = (n % 2 == 0) ? n / 2 : 3 * n + 1;
+                length++;
+            }
+            return length;
+        }
+    }
+
+}
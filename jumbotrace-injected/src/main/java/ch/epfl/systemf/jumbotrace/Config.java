@@ -12,8 +12,123 @@ public final class Config {
     public static final long NO_PARENT_EVENT_CODE = -1;
 
     /**
-     * Files to which the traces should be written
+     * Files to which the traces should be written (the n-th segment of the log is written to LOG_FILE.n)
      */
     public static final String LOG_FILE = "./jumbotrace-log.bin";
 
+    //<editor-fold desc="Log segments">
+    // Can be overridden at runtime using the system properties below (e.g. -Djumbotrace.segmentSize=1048576)
+
+    /**
+     * Size of a segment of the log, in bytes (larger segments are only created for records that would not fit)
+     */
+    public static final String SEGMENT_SIZE_PROPERTY = "jumbotrace.segmentSize";
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 24;
+
+    /**
+     * Maximal number of segments kept on disk: when it is exceeded, the oldest segments are deleted (0 for no limit)
+     */
+    public static final String MAX_SEGMENTS_PROPERTY = "jumbotrace.maxSegments";
+    public static final int DEFAULT_MAX_SEGMENTS = 0;
+
+    /**
+     * Maximal total size of the segments kept on disk, in bytes: when it is exceeded, the oldest segments are deleted
+     * (0 for no limit). The segment being written is never deleted
+     */
+    public static final String MAX_LOG_SIZE_PROPERTY = "jumbotrace.maxLogSize";
+    public static final long DEFAULT_MAX_LOG_SIZE = 0;
+    //</editor-fold>
+
+    //<editor-fold desc="Rendering budgets">
+    // Limits on the descriptions of the values saved in the trace (see Rendering), also overridable by system properties
+
+    /**
+     * Maximal number of characters of a string
+     */
+    public static final String MAX_STRING_LENGTH_PROPERTY = "jumbotrace.maxStringLength";
+    public static final int DEFAULT_MAX_STRING_LENGTH = 256;
+
+    /**
+     * Maximal number of elements of an array, collection or map
+     */
+    public static final String MAX_ELEMENTS_PROPERTY = "jumbotrace.maxElements";
+    public static final int DEFAULT_MAX_ELEMENTS = 32;
+
+    /**
+     * Maximal nesting depth of collections and maps
+     */
+    public static final String MAX_DEPTH_PROPERTY = "jumbotrace.maxDepth";
+    public static final int DEFAULT_MAX_DEPTH = 4;
+    //</editor-fold>
+
+    /**
+     * Maximal number of objects for which an id is remembered at the same time (see ObjectIds)
+     */
+    public static final String MAX_TRACKED_OBJECTS_PROPERTY = "jumbotrace.maxTrackedObjects";
+    public static final int DEFAULT_MAX_TRACKED_OBJECTS = 1 << 22;
+
+    /**
+     * If this property is set to true, the description of an object (i.e. the result of its toString) is only saved the
+     * first time it appears in a chunk of the trace, and again after each traced write to one of its fields and after
+     * each call on it returns. Other occurrences of the object only save its id. This saves calls to toString, but
+     * descriptions may be stale when they depend on other objects or on writes that are not traced (collections and
+     * maps of java.util are always described)
+     */
+    public static final String DESCRIBE_OBJECTS_ONCE_PROPERTY = "jumbotrace.describeObjectsOnce";
+
+    //<editor-fold desc="Throttling">
+    // Summarization of the sites that are hit very often (e.g. in tight loops), also overridable by system properties
+
+    /**
+     * Number of hits of a site by a thread after which the site is throttled (0 to never throttle sites). Only the sites
+     * of reads, constants, operators and conditions are throttled, as no other event refers to them
+     */
+    public static final String THROTTLE_THRESHOLD_PROPERTY = "jumbotrace.throttleThreshold";
+    public static final long DEFAULT_THROTTLE_THRESHOLD = 0;
+
+    /**
+     * A throttled site only logs one event out of this number of hits
+     */
+    public static final String THROTTLE_PERIOD_PROPERTY = "jumbotrace.throttlePeriod";
+    public static final long DEFAULT_THROTTLE_PERIOD = 100;
+    //</editor-fold>
+
+    //<editor-fold desc="Switches">
+    // Read once when the tracer is initialized. Only effective in programs instrumented with the guards=on option of
+    // the plugin, where they make the logging code of the families that are switched off almost free
+
+    /**
+     * If this property is set to false, no event is logged by the guarded sites
+     */
+    public static final String TRACING_ENABLED_PROPERTY = "jumbotrace.enabled";
+
+    /**
+     * Comma-separated list of the event families (named as in the options of the plugin, e.g. reads,operators) whose
+     * events are not logged by the guarded sites
+     */
+    public static final String DISABLED_FAMILIES_PROPERTY = "jumbotrace.disable";
+    //</editor-fold>
+
+    //<editor-fold desc="Method versions">
+    // Only effective in programs instrumented with the dual=on option of the plugin
+
+    /**
+     * Comma-separated list of the patterns of the methods that are traced when the program starts (e.g.
+     * com.acme.Parser.*,Main.main), using the syntax of the include and exclude options of the plugin. The other methods
+     * run their uninstrumented version, until tracing is switched on for them (see ___JumboTrace___.setMethodsTraced)
+     */
+    public static final String TRACED_METHODS_PROPERTY = "jumbotrace.tracedMethods";
+    //</editor-fold>
+
+    //<editor-fold desc="Site profile">
+
+    /**
+     * If this property is set, the number of events logged at each site is written to the file it names when the
+     * program exits, as a profile for the hits option of the plugin. Each line describes a site, as tab-separated fields:
+     * number of hits, kind, file, start line, start column, end line, end column. Hits are only counted if they are
+     * logged, so the profiled run should not be throttled
+     */
+    public static final String PROFILE_FILE_PROPERTY = "jumbotrace.profileFile";
+    //</editor-fold>
+
 }
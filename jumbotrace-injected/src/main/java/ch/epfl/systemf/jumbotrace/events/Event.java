@@ -1,16 +1,19 @@
 package ch.epfl.systemf.jumbotrace.events;
 
-import java.io.Serializable;
-
 /**
  * An event as part of a trace
  */
-public sealed interface Event extends Serializable permits StatementEvent, NonStatementEvent {
+public sealed interface Event permits StatementEvent, NonStatementEvent {
 
     long id();
 
     long parentId();
 
+    /**
+     * @return the id of the thread that issued the event (as given by Thread.getId)
+     */
+    long threadId();
+
     String descr();
 
 }
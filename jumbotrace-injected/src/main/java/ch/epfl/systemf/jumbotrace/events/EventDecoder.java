@@ -0,0 +1,550 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import ch.epfl.systemf.jumbotrace.Config;
+import ch.epfl.systemf.jumbotrace.events.NonStatementEvent.*;
+import ch.epfl.systemf.jumbotrace.events.StatementEvent.*;
+import ch.epfl.systemf.jumbotrace.events.Value.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static ch.epfl.systemf.jumbotrace.events.TraceFormat.*;
+
+/**
+ * Reads events written by an EventEncoder
+ * <p>
+ * The input stream must contain the records of the log, without the segment headers (see SegmentedLogReader).
+ * <p>
+ * The events of the different threads are returned in the order in which their chunks appear in the file. They are
+ * given new ids, that are unique across threads and increasing in this order (for a single-threaded program, these
+ * are the ids given by the tracer, unless paths of methods have been expanded, see readBranchPath). When events are
+ * missing (e.g. because the first segments of the log have been deleted), references to them (parents of events,
+ * enters corresponding to exits) are replaced by Config.NO_PARENT_EVENT_CODE
+ */
+public final class EventDecoder implements Closeable {
+
+    private final InputStream fileIn;
+    // the stream the primitives read from: either fileIn or the chunk being decoded
+    private InputStream in;
+    // the thread of the chunk being decoded
+    private ThreadStream thread;
+
+    private final List<Site> sites = new ArrayList<>();
+    private final Map<Long, ThreadStream> threads = new HashMap<>();
+    private final Deque<Event> pending = new ArrayDeque<>();
+    // last description of each object, to decode the references to objects that are described once
+    private final Map<Long, Value> objectDescriptions = new HashMap<>();
+    private final List<SiteHits> siteHits = new ArrayList<>();
+    private long lastEventId = 0;
+
+    public EventDecoder(InputStream in) {
+        this.fileIn = in;
+        this.in = in;
+    }
+
+    /**
+     * @return the next event, or null if the end of the stream has been reached
+     */
+    public @Nullable Event read() throws IOException {
+        while (pending.isEmpty()) {
+            var tag = in.read();
+            switch (tag) {
+                case -1 -> {
+                    return null;
+                }
+                case SITE_TABLE -> readSiteTable();
+                case THREAD_CHUNK -> readThreadChunk();
+                case SITE_HITS -> readSiteHits();
+                default -> throw new IOException("unknown record tag: " + tag);
+            }
+        }
+        return pending.removeFirst();
+    }
+
+    private void readThreadChunk() throws IOException {
+        var threadId = readVarLong();
+        var length = (int) readVarLong();
+        var chunk = in.readNBytes(length);
+        if (chunk.length < length) {
+            throw new EOFException();
+        }
+        thread = threads.computeIfAbsent(threadId, ThreadStream::new);
+        in = new ByteArrayInputStream(chunk);
+        try {
+            thread.startChunk(readVarLong());
+            for (var tag = in.read(); tag != -1; tag = in.read()) {
+                readEvent(tag);
+            }
+        } finally {
+            in = fileIn;
+        }
+    }
+
+    /**
+     * Reads an event record, and appends the events that it contains to the pending events
+     */
+    private void readEvent(int tag) throws IOException {
+        var localId = ++thread.lastLocalId;
+        var id = ++lastEventId;
+        thread.globalIds.add(id);
+        var parentId = readParentId(localId);
+        switch (tag) {
+            case INITIALIZATION -> pending.addLast(new InitializationEvent(id, parentId, thread.threadId, readInlineString()));
+            case SITE_EVENT -> {
+                var siteId = (int) readVarLong();
+                if (sites.get(siteId).kind().equals("branchPath")) {
+                    readBranchPath(id, parentId, siteId);
+                } else {
+                    pending.addLast(readSiteEvent(id, parentId, sites.get(siteId)));
+                }
+            }
+            default -> throw new IOException("unknown event tag: " + tag);
+        }
+    }
+
+    /**
+     * Expands the path of a method (see ___JumboTrace___.branchPath) into the events of its conditions. The first event
+     * takes the id of the record, and the next ones are given new ids, that do not correspond to any event of the thread
+     * (no other event refers to them)
+     */
+    private void readBranchPath(long id, long parentId, int pathSiteId) throws IOException {
+        var base = 2 * readVarLong();
+        var path = readVarLong();
+        // the outcomes are the digits of the path, after its leading 1, the last outcome being the lowest digit
+        var digits = new ArrayList<Long>();
+        while (path > 1) {
+            digits.add(path % base);
+            path /= base;
+        }
+        if (path != 1 || digits.isEmpty()) {
+            throw new IOException("malformed branch path at site " + pathSiteId);
+        }
+        // the attributes of the site of the path are the name of the method and the offsets of the sites of its branches
+        var pathSite = sites.get(pathSiteId);
+        for (int i = digits.size() - 1; i >= 0; i--) {
+            var branch = (int) (digits.get(i) / 2);
+            if (branch + 1 >= pathSite.attrs().size()) {
+                throw new IOException("malformed branch path at site " + pathSiteId);
+            }
+            var outcome = new BooleanValue(digits.get(i) % 2 == 1);
+            var eventId = (i == digits.size() - 1) ? id : ++lastEventId;
+            var branchSite = sites.get(pathSiteId + pathSite.intAttr(branch + 1));
+            pending.addLast(makeConditionEvent(eventId, parentId, branchSite, outcome));
+        }
+    }
+
+    private Event makeConditionEvent(long id, long parentId, Site s, Value outcome) throws IOException {
+        var threadId = thread.threadId;
+        return switch (s.kind()) {
+            case "loopCond" -> new LoopCond(id, parentId, threadId, outcome, s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "ifCond" -> new IfCond(id, parentId, threadId, outcome,
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "ternaryCondition" -> new TernaryCondition(id, parentId, threadId, outcome,
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            default -> throw new IOException("not the site of a condition: " + s.kind());
+        };
+    }
+
+    /**
+     * Number of hits of a site that has been throttled by a thread
+     *
+     * @param nLogged the number of events of the site that have been logged, out of hits
+     */
+    public record SiteHits(long threadId, Site site, long hits, long nLogged) {
+    }
+
+    /**
+     * @return the sites throttled by the threads whose summary has been read so far (see TraceFormat.SITE_HITS), in the
+     * order in which they have been read
+     */
+    public List<SiteHits> siteHits() {
+        return Collections.unmodifiableList(siteHits);
+    }
+
+    private void readSiteHits() throws IOException {
+        var threadId = readVarLong();
+        var threshold = readVarLong();
+        var period = readVarLong();
+        var nSites = readVarLong();
+        for (long i = 0; i < nSites; i++) {
+            var site = sites.get((int) readVarLong());
+            var hits = readVarLong();
+            siteHits.add(new SiteHits(threadId, site, hits, threshold + (hits - threshold) / period));
+        }
+    }
+
+    private void readSiteTable() throws IOException {
+        var firstSiteId = readVarLong();
+        var table = readInlineString();
+        if (firstSiteId > sites.size()) {
+            throw new IOException("unexpected sites table start: " + firstSiteId + " (" + sites.size() + " sites read so far)");
+        }
+        // tables are repeated at the beginning of each segment
+        if (firstSiteId == sites.size()) {
+            sites.addAll(Site.parseTable(table));
+        }
+    }
+
+    private long readParentId(long localId) throws IOException {
+        var parentDelta = readVarLong();
+        return (parentDelta == NO_PARENT_DELTA) ? Config.NO_PARENT_EVENT_CODE : thread.globalId(localId - parentDelta);
+    }
+
+    /**
+     * Builds the event from the static information of its site and the dynamic data written by the logging method
+     */
+    private Event readSiteEvent(long id, long parentId, Site s) throws IOException {
+        var threadId = thread.threadId;
+        return switch (s.kind()) {
+            case "staticMethodCall" -> new StaticMethodCall(id, parentId, threadId, s.attr(0), s.attr(1), s.attr(2),
+                    readValues(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "nonStaticMethodCall" -> new NonStaticMethodCall(id, parentId, threadId, s.attr(0), s.attr(1), s.attr(2),
+                    readValue(), readValues(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "methodEnter" -> new MethodEnter(id, parentId, threadId, s.attr(0), s.attr(1), s.attr(2),
+                    readNonInstrumentedEnters(),
+                    s.filename(), s.startLine(), s.startCol());
+            case "lambdaEnter" -> new LambdaEnter(id, parentId, threadId, s.attr(0), s.attr(1), s.attr(2), s.attr(3),
+                    readNonInstrumentedEnters(),
+                    s.filename(), s.startLine(), s.startCol());
+            case "methodExit" -> new MethodExit(id, parentId, threadId, thread.globalId(thread.lastLocalId - readVarLong()), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol());
+            case "methodRet" -> new MethodReturnVal(id, parentId, threadId, s.attr(0), s.attr(1), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "methodRetVoid" -> new MethodReturnVoid(id, parentId, threadId, s.attr(0), s.attr(1),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "returnStat" -> new ReturnStat(id, parentId, threadId, s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "implicitReturn" -> new ImplicitReturn(id, parentId, threadId, s.attr(0),
+                    s.filename(), s.startLine(), s.startCol());
+            case "breakStat" -> new BreakStat(id, parentId, threadId, s.attr(0), s.intAttr(1), s.intAttr(2),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "continueStat" -> new ContinueStat(id, parentId, threadId, s.attr(0), s.intAttr(1), s.intAttr(2),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "yieldStat" -> new YieldStat(id, parentId, threadId, readValue(), s.attr(0), s.intAttr(1), s.intAttr(2),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "switchConstruct" -> s.booleanAttr(0) ?
+                    new SwitchExpr(id, parentId, threadId, readValue(),
+                            s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol()) :
+                    new SwitchStat(id, parentId, threadId, readValue(),
+                            s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "loopEnter" -> new LoopEnter(id, parentId, threadId, s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "loopExit" -> new LoopExit(id, parentId, threadId, s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "loopCond", "ifCond", "ternaryCondition" -> makeConditionEvent(id, parentId, s, readValue());
+            case "foreachLoopNextIter" -> new ForEachLoopNextIter(id, parentId, threadId, readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "variableDeclared" -> new VarDeclStat(id, parentId, threadId, s.attr(0), s.attr(1),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "initializedFieldDeclared" -> new InitializedFieldDeclStat(id, parentId, threadId, s.attr(0), s.attr(1), s.attr(2),
+                    readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "localVarAssignment" -> new LocalVarAssignment(id, parentId, threadId, s.attr(0), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "localVarAssignOp" -> new LocalVarAssignOp(id, parentId, threadId, s.attr(0), readValue(), readValue(),
+                    s.attr(1), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "localVarIncDecOp" -> {
+                var incDec = readIncDecOp(s.booleanAttr(1), s.booleanAttr(2));
+                yield new LocalVarIncDecOp(id, parentId, threadId, s.attr(0), incDec.result(), incDec.newValue(), incDec.oldValue(),
+                        s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            }
+            case "staticFieldAssignment" -> new StaticFieldAssignment(id, parentId, threadId, s.attr(0), s.attr(1), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "staticFieldAssignOp" -> new StaticFieldAssignOp(id, parentId, threadId, s.attr(0), s.attr(1), readValue(),
+                    readValue(), s.attr(2), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "staticFieldIncDecOp" -> {
+                var incDec = readIncDecOp(s.booleanAttr(2), s.booleanAttr(3));
+                yield new StaticFieldIncDecOp(id, parentId, threadId, s.attr(0), s.attr(1), incDec.result(), incDec.newValue(),
+                        incDec.oldValue(),
+                        s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            }
+            case "instanceFieldAssignment" -> new InstanceFieldAssignment(id, parentId, threadId, s.attr(0), readValue(), s.attr(1),
+                    readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "instanceFieldAssignOp" -> new InstanceFieldAssignOp(id, parentId, threadId, s.attr(0), readValue(), s.attr(1),
+                    readValue(), readValue(), s.attr(2), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "instanceFieldIncDecOp" -> {
+                var instance = readValue();
+                var incDec = readIncDecOp(s.booleanAttr(2), s.booleanAttr(3));
+                yield new InstanceFieldIncDecOp(id, parentId, threadId, s.attr(0), instance, s.attr(1), incDec.result(),
+                        incDec.newValue(), incDec.oldValue(),
+                        s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            }
+            case "arrayElemSet" -> new ArrayElemSet(id, parentId, threadId, readValue(), readValue(), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "arrayElemAssignOp" -> new ArrayElemAssignOp(id, parentId, threadId, readValue(), readValue(), readValue(),
+                    readValue(), s.attr(0), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "arrayElemIncDecOp" -> {
+                var array = readValue();
+                var index = readValue();
+                var incDec = readIncDecOp(s.booleanAttr(0), s.booleanAttr(1));
+                yield new ArrayElemIncDecOp(id, parentId, threadId, array, index, incDec.result(), incDec.newValue(), incDec.oldValue(),
+                        s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            }
+            case "caught" -> new Caught(id, parentId, threadId, readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "castAttempt" -> new CastAttempt(id, parentId, threadId, readValue(), s.attr(0), readBoolean(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "throwStat" -> new ThrowStat(id, parentId, threadId, readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "assertionStat" -> new AssertionStat(id, parentId, threadId, readValue(), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "unaryOp" -> new UnaryOp(id, parentId, threadId, readValue(), readValue(), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "binaryOperator" -> new BinaryOp(id, parentId, threadId, readValue(), readValue(), s.attr(0), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "localVarRead" -> new LocalVarRead(id, parentId, threadId, readValue(), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "staticFieldRead" -> new StaticFieldRead(id, parentId, threadId, readValue(), s.attr(0), s.attr(1),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "instanceFieldRead" -> new InstanceFieldRead(id, parentId, threadId, readValue(), readValue(), s.attr(0), s.attr(1),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "arrayAccess" -> new ArrayAccess(id, parentId, threadId, readValue(), readValue(), readValue(),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "constantValue" -> new ConstantValue(id, parentId, threadId, readValue(), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "typeTest" -> new TypeTest(id, parentId, threadId, readValue(), readValue(), s.attr(0),
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            case "exec" -> new Exec(id, parentId, threadId,
+                    s.filename(), s.startLine(), s.startCol(), s.endLine(), s.endCol());
+            default -> throw new IOException("unknown site kind: " + s.kind());
+        };
+    }
+
+    /**
+     * Only the result of increment and decrement operators is saved, the old and new values are recomputed here
+     * (following the numeric promotion rules of the logging methods)
+     */
+    private IncDecOp readIncDecOp(boolean isPrefixOp, boolean isIncOp) throws IOException {
+        var result = readValue();
+        var delta = isIncOp ? 1 : -1;
+        Value newValue;
+        Value oldValue;
+        if (result instanceof LongValue v) {
+            var newL = isPrefixOp ? v.l() : v.l() + delta;
+            newValue = new LongValue(newL);
+            oldValue = new LongValue(newL - delta);
+        } else if (result instanceof FloatValue v) {
+            var newF = isPrefixOp ? v.f() : v.f() + delta;
+            newValue = new FloatValue(newF);
+            oldValue = new FloatValue(newF - delta);
+        } else if (result instanceof DoubleValue v) {
+            var newD = isPrefixOp ? v.d() : v.d() + delta;
+            newValue = new DoubleValue(newD);
+            oldValue = new DoubleValue(newD - delta);
+        } else {
+            int resultI;
+            if (result instanceof ByteValue v) {
+                resultI = v.b();
+            } else if (result instanceof ShortValue v) {
+                resultI = v.s();
+            } else if (result instanceof CharValue v) {
+                resultI = v.c();
+            } else if (result instanceof IntValue v) {
+                resultI = v.i();
+            } else {
+                throw new IOException("unexpected result of increment or decrement: " + result);
+            }
+            var newI = isPrefixOp ? resultI : resultI + delta;
+            newValue = new IntValue(newI);
+            oldValue = new IntValue(newI - delta);
+        }
+        return new IncDecOp(result, newValue, oldValue);
+    }
+
+    private record IncDecOp(Value result, Value newValue, Value oldValue) {
+    }
+
+    /**
+     * Decoding state of the events stream of a thread
+     */
+    private static final class ThreadStream {
+        private final long threadId;
+        private final List<String> stringTable = new ArrayList<>();
+        // globalIds.get(i) is the id given by the decoder to the event with id firstLocalId+i in the thread
+        private final List<Long> globalIds = new ArrayList<>();
+        private long firstLocalId = -1;
+        private long lastLocalId = 0;
+
+        ThreadStream(long threadId) {
+            this.threadId = threadId;
+        }
+
+        void startChunk(long chunkFirstLocalId) {
+            if (firstLocalId == -1) {
+                firstLocalId = chunkFirstLocalId;
+            }
+            // events of the thread may have been lost in between
+            while (firstLocalId + globalIds.size() < chunkFirstLocalId) {
+                globalIds.add(Config.NO_PARENT_EVENT_CODE);
+            }
+            lastLocalId = chunkFirstLocalId - 1;
+            stringTable.clear();
+        }
+
+        long globalId(long localId) {
+            var idx = localId - firstLocalId;
+            return (0 <= idx && idx < globalIds.size()) ? globalIds.get((int) idx) : Config.NO_PARENT_EVENT_CODE;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private List<NonInstrumentedEnter> readNonInstrumentedEnters() throws IOException {
+        var size = (int) readVarLong();
+        var enters = new ArrayList<NonInstrumentedEnter>(size);
+        for (int i = 0; i < size; i++) {
+            enters.add(new NonInstrumentedEnter(readString(), readString(), readString(), readVarInt()));
+        }
+        return enters;
+    }
+
+    //<editor-fold desc="Values">
+
+    private Value[] readValues() throws IOException {
+        var values = new Value[(int) readVarLong()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readValue();
+        }
+        return values;
+    }
+
+    private Value readValue() throws IOException {
+        var tag = readByte();
+        return switch (tag) {
+            case FALSE_VALUE -> new BooleanValue(false);
+            case TRUE_VALUE -> new BooleanValue(true);
+            case BYTE_VALUE -> new ByteValue((byte) readByte());
+            case CHAR_VALUE -> new CharValue((char) readVarLong());
+            case SHORT_VALUE -> new ShortValue((short) readVarInt());
+            case INT_VALUE -> new IntValue(readVarInt());
+            case FLOAT_VALUE -> new FloatValue(Float.intBitsToFloat(readFixedInt()));
+            case LONG_VALUE -> new LongValue(readSignedVarLong());
+            case DOUBLE_VALUE -> new DoubleValue(Double.longBitsToDouble(readFixedLong()));
+            case REFERENCE_VALUE -> readReferenceValue();
+            case ARRAY_VALUE -> new ArrayValue(readValues());
+            case TRUNCATED_VALUE -> readTruncatedValue();
+            case OBJECT_REFERENCE_VALUE -> readObjectReferenceValue();
+            default -> throw new IOException("unknown value tag: " + tag);
+        };
+    }
+
+    private TruncatedValue readTruncatedValue() throws IOException {
+        var length = readVarLong();
+        var contentHash = readFixedInt();
+        var value = new TruncatedValue(readValue(), length, contentHash);
+        if (value.value() instanceof ReferenceValue ref) {
+            objectDescriptions.put(ref.objectId(), value);
+        }
+        return value;
+    }
+
+    private ReferenceValue readReferenceValue() throws IOException {
+        var value = new ReferenceValue(readVarLong(), readString(), readInlineString());
+        objectDescriptions.put(value.objectId(), value);
+        return value;
+    }
+
+    private Value readObjectReferenceValue() throws IOException {
+        var objectId = readVarLong();
+        var value = objectDescriptions.get(objectId);
+        if (value == null) {
+            throw new IOException("reference to object " + objectId + ", which has not been described");
+        }
+        return value;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Primitives">
+
+    private boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    private String readString() throws IOException {
+        var code = readVarLong();
+        if (code == NULL_STRING) {
+            return null;
+        } else if (code == NEW_STRING) {
+            var s = readInlineString();
+            thread.stringTable.add(s);
+            return s;
+        } else {
+            return thread.stringTable.get((int) (code - FIRST_STRING_INDEX));
+        }
+    }
+
+    private String readInlineString() throws IOException {
+        var lengthCode = (int) readVarLong();
+        if (lengthCode == 0) {
+            return null;
+        }
+        var length = lengthCode - 1;
+        var bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt() throws IOException {
+        return (int) readSignedVarLong();
+    }
+
+    private long readSignedVarLong() throws IOException {
+        var l = readVarLong();
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    private int readFixedInt() throws IOException {
+        var i = 0;
+        for (int k = 0; k < 4; k++) {
+            i = (i << 8) | readByte();
+        }
+        return i;
+    }
+
+    private long readFixedLong() throws IOException {
+        var l = 0L;
+        for (int k = 0; k < 8; k++) {
+            l = (l << 8) | readByte();
+        }
+        return l;
+    }
+
+    private int readByte() throws IOException {
+        var b = in.read();
+        if (b == -1) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    //</editor-fold>
+
+}
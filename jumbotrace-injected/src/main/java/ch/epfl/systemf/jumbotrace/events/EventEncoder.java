@@ -0,0 +1,495 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import ch.epfl.systemf.jumbotrace.Config;
+import ch.epfl.systemf.jumbotrace.events.NonStatementEvent.NonInstrumentedEnter;
+import ch.epfl.systemf.jumbotrace.events.Value.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ch.epfl.systemf.jumbotrace.events.TraceFormat.*;
+
+/**
+ * Writes records to a stream, using the format described in TraceFormat
+ * <p>
+ * The same class is used to write the events of a thread (to a stream that collects the thread chunks) and to write the
+ * file-level records. Writes are buffered, and the buffer is only flushed between two records, so that each write to
+ * the underlying stream consists of complete records. Each flush of the buffer of a thread produces a chunk. As writes
+ * happen in logging methods, which cannot throw checked exceptions, I/O errors are reported as UncheckedIOExceptions
+ * <p>
+ * Not thread-safe
+ */
+public final class EventEncoder implements Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The buffer is flushed before starting a record if less than this number of bytes remain in it
+     * (larger records make the buffer grow)
+     */
+    private static final int RECORD_SLACK = 1 << 10;
+
+    private final OutputStream out;
+    private final int flushThreshold;
+    private byte[] buffer;
+    private int bufferPos = 0;
+
+    private final Map<String, Integer> stringTable = new HashMap<>();
+    private long lastEventId = 0;
+
+    // null if objects are described each time they are written
+    private final DescribedObjects describedObjects;
+
+    /**
+     * @param describeObjectsOnce if true, the description of an object is only written the first time the object is
+     *                            written in a chunk, and after the object has been modified (see ObjectIds.markModified)
+     */
+    public EventEncoder(OutputStream out, int bufferSize, boolean describeObjectsOnce) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+        this.flushThreshold = Math.max(bufferSize - RECORD_SLACK, bufferSize / 2);
+        this.describedObjects = describeObjectsOnce ? new DescribedObjects() : null;
+    }
+
+    public EventEncoder(OutputStream out, int bufferSize) {
+        this(out, bufferSize, false);
+    }
+
+    public EventEncoder(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public void writeInitialization(long id, String timestamp) {
+        writeHeader(INITIALIZATION, id, Config.NO_PARENT_EVENT_CODE);
+        writeInlineString(timestamp);
+    }
+
+    /**
+     * Writes a table of sites, which will be given consecutive ids starting from firstSiteId
+     *
+     * @see Site
+     */
+    public void writeSiteTable(int firstSiteId, String table) {
+        startRecord();
+        writeByte(SITE_TABLE);
+        writeVarLong(firstSiteId);
+        writeInlineString(table);
+    }
+
+    /**
+     * Starts an event issued at the given site. The dynamic data of the event should be written right after calling
+     * this method, in the order in which the corresponding logging method receives it
+     */
+    public void writeSiteEvent(long id, long parentId, int siteId) {
+        writeHeader(SITE_EVENT, id, parentId);
+        writeVarLong(siteId);
+    }
+
+    /**
+     * Writes a chunk of the events of a thread (the chunk must have been produced by the encoder of the thread)
+     */
+    public void writeThreadChunk(long threadId, byte[] chunk) {
+        startRecord();
+        writeByte(THREAD_CHUNK);
+        writeVarLong(threadId);
+        writeVarLong(chunk.length);
+        writeBytes(chunk);
+    }
+
+    /**
+     * Writes the number of hits of the sites that have been throttled in a thread, i.e. the sites that have more than
+     * threshold hits
+     *
+     * @param hits the number of hits of each site, indexed by site id
+     */
+    public void writeSiteHits(long threadId, long threshold, long period, long[] hits) {
+        startRecord();
+        writeByte(SITE_HITS);
+        writeVarLong(threadId);
+        writeVarLong(threshold);
+        writeVarLong(period);
+        writeVarLong(Arrays.stream(hits).filter(n -> n > threshold).count());
+        for (int siteId = 0; siteId < hits.length; siteId++) {
+            if (hits[siteId] > threshold) {
+                writeVarLong(siteId);
+                writeVarLong(hits[siteId]);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    //<editor-fold desc="Events">
+
+    /**
+     * Writes the tag and the parent of the event (the id itself is implicit, except for the first event of a chunk)
+     */
+    private void writeHeader(byte tag, long id, long parentId) {
+        if (id != lastEventId + 1) {
+            throw new IllegalArgumentException("event ids must be consecutive: expected " + (lastEventId + 1) + ", found " + id);
+        }
+        lastEventId = id;
+        startRecord();
+        if (bufferPos == 0) {
+            writeVarLong(id);
+        }
+        writeByte(tag);
+        writeVarLong(parentId == Config.NO_PARENT_EVENT_CODE ? NO_PARENT_DELTA : id - parentId);
+    }
+
+    public void writeNonInstrumentedEnters(List<NonInstrumentedEnter> enters) {
+        writeVarLong(enters.size());
+        for (var enter : enters) {
+            writeString(enter.className());
+            writeString(enter.methodName());
+            writeString(enter.filename());
+            writeVarInt(enter.lineNumber());
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Values">
+
+    public void writeValues(Value[] values) {
+        writeVarLong(values.length);
+        for (var value : values) {
+            writeValue(value);
+        }
+    }
+
+    /**
+     * Writes the header of a list of values, that must be followed by the given number of values (the same bytes as
+     * writeValues, for values written one by one)
+     */
+    public void writeValuesCount(int count) {
+        writeVarLong(count);
+    }
+
+    public void writeValue(Value value) {
+        if (value instanceof BooleanValue v) {
+            writeValueOf(v.b());
+        } else if (value instanceof ByteValue v) {
+            writeValueOf(v.b());
+        } else if (value instanceof CharValue v) {
+            writeValueOf(v.c());
+        } else if (value instanceof ShortValue v) {
+            writeValueOf(v.s());
+        } else if (value instanceof IntValue v) {
+            writeValueOf(v.i());
+        } else if (value instanceof FloatValue v) {
+            writeValueOf(v.f());
+        } else if (value instanceof LongValue v) {
+            writeValueOf(v.l());
+        } else if (value instanceof DoubleValue v) {
+            writeValueOf(v.d());
+        } else if (value instanceof ReferenceValue v) {
+            writeReferenceValue(v.objectId(), v.className(), v.descr());
+        } else if (value instanceof ArrayValue v) {
+            writeByte(ARRAY_VALUE);
+            writeValues(v.values());
+        } else if (value instanceof TruncatedValue v) {
+            writeTruncationHeader(v.length(), v.contentHash());
+            writeValue(v.value());
+        } else {
+            throw new AssertionError("unexpected value: " + value.getClass());
+        }
+    }
+
+    /*
+     * The writeValueOf methods write the same bytes as writeValue(Value.valueFor(...)), without allocating a Value
+     * (these are the ones called by the specialized logging methods)
+     */
+
+    public void writeValueOf(boolean b) {
+        writeByte(b ? TRUE_VALUE : FALSE_VALUE);
+    }
+
+    public void writeValueOf(byte b) {
+        writeByte(BYTE_VALUE);
+        writeByte(b);
+    }
+
+    public void writeValueOf(char c) {
+        writeByte(CHAR_VALUE);
+        writeVarLong(c);
+    }
+
+    public void writeValueOf(short s) {
+        writeByte(SHORT_VALUE);
+        writeVarInt(s);
+    }
+
+    public void writeValueOf(int i) {
+        writeByte(INT_VALUE);
+        writeVarInt(i);
+    }
+
+    public void writeValueOf(float f) {
+        writeByte(FLOAT_VALUE);
+        writeFixedInt(Float.floatToRawIntBits(f));
+    }
+
+    public void writeValueOf(long l) {
+        writeByte(LONG_VALUE);
+        writeSignedVarLong(l);
+    }
+
+    public void writeValueOf(double d) {
+        writeByte(DOUBLE_VALUE);
+        writeFixedLong(Double.doubleToRawLongBits(d));
+    }
+
+    public void writeValueOf(Object o) {
+        if (o instanceof Boolean b) {
+            writeValueOf(b.booleanValue());
+        } else if (o instanceof Byte b) {
+            writeValueOf(b.byteValue());
+        } else if (o instanceof Short s) {
+            writeValueOf(s.shortValue());
+        } else if (o instanceof Integer i) {
+            writeValueOf(i.intValue());
+        } else if (o instanceof Long l) {
+            writeValueOf(l.longValue());
+        } else if (o instanceof Character c) {
+            writeValueOf(c.charValue());
+        } else if (o instanceof Float f) {
+            writeValueOf(f.floatValue());
+        } else if (o instanceof Double d) {
+            writeValueOf(d.doubleValue());
+        } else if (o == null) {
+            writeReferenceValue(ObjectIds.NULL_ID, Value.classNameOf(null), Rendering.describe(null).text());
+        } else {
+            var entry = ObjectIds.entryOf(o);
+            if (describedObjects != null && !Rendering.isRenderedElementWise(o)) {
+                // read the version before describing the object, so that concurrent writes trigger a new description
+                var version = entry.version();
+                if (describedObjects.isDescribed(entry.id(), version)) {
+                    writeByte(OBJECT_REFERENCE_VALUE);
+                    writeVarLong(entry.id());
+                    return;
+                }
+                describedObjects.setDescribed(entry.id(), version);
+            }
+            var descr = Rendering.describe(o);
+            if (descr.isTruncated()) {
+                writeTruncationHeader(descr.length(), descr.contentHash());
+            }
+            writeReferenceValue(entry.id(), Value.classNameOf(o), descr.text());
+        }
+    }
+
+    private void writeTruncationHeader(long length, int contentHash) {
+        writeByte(TRUNCATED_VALUE);
+        writeVarLong(length);
+        writeFixedInt(contentHash);
+    }
+
+    private void writeReferenceValue(long objectId, String className, String descr) {
+        writeByte(REFERENCE_VALUE);
+        writeVarLong(objectId);
+        writeString(className);
+        writeInlineString(descr);
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Primitives">
+
+    /**
+     * Writes a string through the string table. Meant for strings that are likely to occur several times (names, types, etc.)
+     */
+    public void writeString(String s) {
+        if (s == null) {
+            writeVarLong(NULL_STRING);
+            return;
+        }
+        var idx = stringTable.get(s);
+        if (idx == null) {
+            stringTable.put(s, stringTable.size());
+            writeVarLong(NEW_STRING);
+            writeInlineString(s);
+        } else {
+            writeVarLong(idx + FIRST_STRING_INDEX);
+        }
+    }
+
+    /**
+     * Writes a string without adding it to the string table. Meant for strings that are unlikely to occur again
+     */
+    public void writeInlineString(String s) {
+        if (s == null) {
+            writeVarLong(0);
+            return;
+        }
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1);
+        writeBytes(bytes);
+    }
+
+    /**
+     * Writes a signed int as a zigzag varint
+     */
+    public void writeVarInt(int i) {
+        writeSignedVarLong(i);
+    }
+
+    public void writeSignedVarLong(long l) {
+        writeVarLong((l << 1) ^ (l >> 63));
+    }
+
+    /**
+     * Writes l as an unsigned varint (7 bits per byte, least significant group first)
+     */
+    public void writeVarLong(long l) {
+        ensureCapacity(10);
+        while ((l & ~0x7FL) != 0) {
+            buffer[bufferPos++] = (byte) ((l & 0x7F) | 0x80);
+            l >>>= 7;
+        }
+        buffer[bufferPos++] = (byte) l;
+    }
+
+    public void writeFixedInt(int i) {
+        ensureCapacity(4);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            buffer[bufferPos++] = (byte) (i >>> shift);
+        }
+    }
+
+    public void writeFixedLong(long l) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[bufferPos++] = (byte) (l >>> shift);
+        }
+    }
+
+    public void writeBoolean(boolean b) {
+        writeByte(b ? 1 : 0);
+    }
+
+    public void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[bufferPos++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, bufferPos, bytes.length);
+        bufferPos += bytes.length;
+    }
+
+    /**
+     * Must be called at the beginning of each record: flushing is only allowed between records
+     */
+    private void startRecord() {
+        if (bufferPos > flushThreshold) {
+            flushBuffer();
+        }
+    }
+
+    private void ensureCapacity(int nBytes) {
+        if (buffer.length - bufferPos < nBytes) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, bufferPos + nBytes));
+        }
+    }
+
+    private void flushBuffer() {
+        if (bufferPos == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, bufferPos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bufferPos = 0;
+        // each chunk has its own string table, so that chunks can be decoded independently of each other
+        stringTable.clear();
+        if (describedObjects != null) {
+            describedObjects.clear();
+        }
+    }
+
+    /**
+     * Versions of the objects described in the current chunk, as an open-addressing hash table keyed by object id
+     */
+    private static final class DescribedObjects {
+        private static final int INITIAL_CAPACITY = 256;
+
+        // ids[i] == ObjectIds.NULL_ID denotes an empty slot
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private int[] versions = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        boolean isDescribed(long id, int version) {
+            var idx = find(ids, id);
+            return ids[idx] == id && versions[idx] == version;
+        }
+
+        void setDescribed(long id, int version) {
+            var idx = find(ids, id);
+            if (ids[idx] != id) {
+                if (size >= ids.length / 2) {
+                    grow();
+                    idx = find(ids, id);
+                }
+                ids[idx] = id;
+                size += 1;
+            }
+            versions[idx] = version;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(ids, ObjectIds.NULL_ID);
+                size = 0;
+            }
+        }
+
+        /**
+         * @return the index of the slot of id, or of the empty slot where it should be inserted
+         */
+        private static int find(long[] ids, long id) {
+            var mask = ids.length - 1;
+            var idx = Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+            while (ids[idx] != ObjectIds.NULL_ID && ids[idx] != id) {
+                idx = (idx + 1) & mask;
+            }
+            return idx;
+        }
+
+        private void grow() {
+            var oldIds = ids;
+            var oldVersions = versions;
+            ids = new long[2 * oldIds.length];
+            versions = new int[2 * oldIds.length];
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != ObjectIds.NULL_ID) {
+                    var idx = find(ids, oldIds[i]);
+                    ids[idx] = oldIds[i];
+                    versions[idx] = oldVersions[i];
+                }
+            }
+        }
+    }
+
+    //</editor-fold>
+
+}
@@ -1,6 +1,5 @@
 package ch.epfl.systemf.jumbotrace.events;
 
-import java.io.Serializable;
 import java.util.List;
 import java.util.StringJoiner;
 
@@ -15,7 +14,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * Issued when the ___JumboTrace___ class is loaded for the first time (serves to save the start time of the program execution)
      */
-    record InitializationEvent(long id, long parentId, String timestamp) implements NonStatementEvent {
+    record InitializationEvent(long id, long parentId, long threadId, String timestamp) implements NonStatementEvent {
         @Override
         public String descr() {
             return "initialization of the tracing class happened at " + timestamp;
@@ -30,7 +29,7 @@ public sealed interface NonStatementEvent extends Event {
         String methodSig();
     }
 
-    record StaticMethodCall(long id, long parentId, String className, String methodName, String methodSig,
+    record StaticMethodCall(long id, long parentId, long threadId, String className, String methodName, String methodSig,
                             Value[] args,
                             String filename, int startLine, int startCol, int endLine,
                             int endCol) implements MethodCallEvent {
@@ -41,7 +40,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record NonStaticMethodCall(long id, long parentId, String className, String methodName, String methodSig,
+    record NonStaticMethodCall(long id, long parentId, long threadId, String className, String methodName, String methodSig,
                                Value receiver, Value[] args,
                                String filename, int startLine, int startCol, int endLine,
                                int endCol) implements MethodCallEvent {
@@ -58,7 +57,7 @@ public sealed interface NonStatementEvent extends Event {
      * Represents an invocation of a non-instrumented method
      */
     record NonInstrumentedEnter(String className, String methodName, String filename,
-                                int lineNumber) implements Serializable {
+                                int lineNumber) {
         @Override
         public String toString() {
             return lastNameOnly(className) + "." + methodName + " in " + filename + " l." + lineNumber;
@@ -69,33 +68,38 @@ public sealed interface NonStatementEvent extends Event {
      * Beginning of the execution of a method
      * @param nonInstrumentedEnters directly enclosing invocations of non-instrumented methods
      */
-    record MethodEnter(long id, long parentId, String className, String methodName, String methodSig,
+    record MethodEnter(long id, long parentId, long threadId, String className, String methodName, String methodSig,
                        List<NonInstrumentedEnter> nonInstrumentedEnters,
                        String filename, int startLine, int startCol) implements NonStatementEvent {
         @Override
         public String descr() {
-            StringBuilder sb = new StringBuilder("entering instrumented method " + lastNameOnly(className) + "." + methodName + formatMethodSig(methodSig));
-            if (!nonInstrumentedEnters.isEmpty()){
-                sb.append(" enclosed in: ");
-                var isFirst = true;
-                for (var nonInstrCall: nonInstrumentedEnters){
-                    if (!isFirst){
-                        sb.append(" > ");
-                    }
-                    sb.append("[");
-                    sb.append(nonInstrCall.toString());
-                    sb.append("]");
-                    isFirst = false;
-                }
-            }
-            return sb.toString();
+            return "entering instrumented method " + lastNameOnly(className) + "." + methodName + formatMethodSig(methodSig) +
+                    nonInstrumentedEntersToString(nonInstrumentedEnters);
+        }
+    }
+
+    /**
+     * Beginning of the execution of the body of a lambda
+     * @param interfaceName         the functional interface implemented by the lambda
+     * @param methodName            the method of the functional interface
+     * @param enclosingMethodName   the method in which the lambda is defined
+     * @param nonInstrumentedEnters directly enclosing invocations of non-instrumented methods (e.g. of the stream
+     *                              pipeline that calls the lambda)
+     */
+    record LambdaEnter(long id, long parentId, long threadId, String interfaceName, String methodName, String methodSig,
+                       String enclosingMethodName, List<NonInstrumentedEnter> nonInstrumentedEnters,
+                       String filename, int startLine, int startCol) implements NonStatementEvent {
+        @Override
+        public String descr() {
+            return "entering lambda " + lastNameOnly(interfaceName) + "." + methodName + formatMethodSig(methodSig) +
+                    " defined in method " + enclosingMethodName + nonInstrumentedEntersToString(nonInstrumentedEnters);
         }
     }
 
     /**
      * End of the execution of a method. Should be issued even if the method exits exceptionnally
      */
-    record MethodExit(long id, long parentId, long correspondingEnterId, String methodName, String filename,
+    record MethodExit(long id, long parentId, long threadId, long correspondingEnterId, String methodName, String filename,
                       int startLine,
                       int startCol) implements NonStatementEvent {
         @Override
@@ -107,7 +111,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * When the execution of the caller resumes after the callee returned a value
      */
-    record MethodReturnVal(long id, long parentId, String className, String methodName, Value retValue,
+    record MethodReturnVal(long id, long parentId, long threadId, String className, String methodName, Value retValue,
                            String filename, int startLine, int startCol, int endLine,
                            int endCol) implements NonStatementEvent {
         @Override
@@ -119,7 +123,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * When the execution of the caller resumes after the callee returned void
      */
-    record MethodReturnVoid(long id, long parentId, String className, String methodName,
+    record MethodReturnVoid(long id, long parentId, long threadId, String className, String methodName,
                             String filename, int startLine, int startCol, int endLine,
                             int endCol) implements NonStatementEvent {
         @Override
@@ -131,7 +135,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * When a void method returns after reaching the end of its body
      */
-    record ImplicitReturn(long id, long parentId, String methodName, String filename, int startLine,
+    record ImplicitReturn(long id, long parentId, long threadId, String methodName, String filename, int startLine,
                           int startCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -139,7 +143,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record SwitchExpr(long id, long parentId, Value selector, String filename, int startLine, int startCol,
+    record SwitchExpr(long id, long parentId, long threadId, Value selector, String filename, int startLine, int startCol,
                       int endLine, int endCol) implements NonStatementEvent {
         // TODO maybe add result value?
         @Override
@@ -148,7 +152,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record LoopEnter(long id, long parentId, String loopType, String filename, int startLine, int startCol, int endLine,
+    record LoopEnter(long id, long parentId, long threadId, String loopType, String filename, int startLine, int startCol, int endLine,
                      int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -156,7 +160,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record LoopExit(long id, long parentId, String loopType, String filename, int startLine, int startCol, int endLine,
+    record LoopExit(long id, long parentId, long threadId, String loopType, String filename, int startLine, int startCol, int endLine,
                     int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -167,7 +171,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * Beginning of a new iteration in a for-each loop
      */
-    record ForEachLoopNextIter(long id, long parentId, Value newElem, String filename, int startLine, int startCol,
+    record ForEachLoopNextIter(long id, long parentId, long threadId, Value newElem, String filename, int startLine, int startCol,
                                int endLine, int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -175,7 +179,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record LocalVarAssignment(long id, long parentId, String varName, Value assignedValue,
+    record LocalVarAssignment(long id, long parentId, long threadId, String varName, Value assignedValue,
                               String filename, int startLine, int startCol, int endLine,
                               int endCol) implements NonStatementEvent {
         @Override
@@ -184,7 +188,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record LocalVarAssignOp(long id, long parentId, String varName, Value newValue,
+    record LocalVarAssignOp(long id, long parentId, long threadId, String varName, Value newValue,
                             Value oldValue, String operator, Value rhs,
                             String filename, int startLine, int startCol, int endLine,
                             int endCol) implements NonStatementEvent {
@@ -198,7 +202,7 @@ public sealed interface NonStatementEvent extends Event {
     /**
      * x++, --y, etc.
      */
-    record LocalVarIncDecOp(long id, long parentId, String varName, Value result,
+    record LocalVarIncDecOp(long id, long parentId, long threadId, String varName, Value result,
                             Value newValue, Value oldValue,
                             String filename, int startLine, int startCol, int endLine,
                             int endCol) implements NonStatementEvent {
@@ -210,7 +214,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record StaticFieldAssignment(long id, long parentId, String className, String fieldName, Value assignedValue,
+    record StaticFieldAssignment(long id, long parentId, long threadId, String className, String fieldName, Value assignedValue,
                                  String filename, int startLine, int startCol, int endLine,
                                  int endCol) implements NonStatementEvent {
         @Override
@@ -219,7 +223,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record StaticFieldAssignOp(long id, long parentId, String className, String fieldName, Value newValue,
+    record StaticFieldAssignOp(long id, long parentId, long threadId, String className, String fieldName, Value newValue,
                                Value oldValue, String operator, Value rhs,
                                String filename, int startLine, int startCol, int endLine,
                                int endCol) implements NonStatementEvent {
@@ -230,7 +234,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record StaticFieldIncDecOp(long id, long parentId, String className, String fieldName, Value result,
+    record StaticFieldIncDecOp(long id, long parentId, long threadId, String className, String fieldName, Value result,
                                Value newValue, Value oldValue,
                                String filename, int startLine, int startCol, int endLine,
                                int endCol) implements NonStatementEvent {
@@ -242,7 +246,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record InstanceFieldAssignment(long id, long parentId, String className, Value instance, String fieldName,
+    record InstanceFieldAssignment(long id, long parentId, long threadId, String className, Value instance, String fieldName,
                                    Value assignedValue, String filename, int startLine, int startCol, int endLine,
                                    int endCol) implements NonStatementEvent {
         @Override
@@ -252,7 +256,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record InstanceFieldAssignOp(long id, long parentId, String className, Value instance, String fieldName,
+    record InstanceFieldAssignOp(long id, long parentId, long threadId, String className, Value instance, String fieldName,
                                  Value newValue,
                                  Value oldValue, String operator, Value rhs,
                                  String filename, int startLine, int startCol, int endLine,
@@ -265,7 +269,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record InstanceFieldIncDecOp(long id, long parentId, String className, Value instance, String fieldName,
+    record InstanceFieldIncDecOp(long id, long parentId, long threadId, String className, Value instance, String fieldName,
                                  Value result,
                                  Value newValue, Value oldValue,
                                  String filename, int startLine, int startCol, int endLine,
@@ -278,7 +282,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record ArrayElemSet(long id, long parentId, Value array, Value index, Value assignedValue,
+    record ArrayElemSet(long id, long parentId, long threadId, Value array, Value index, Value assignedValue,
                         String filename, int startLine, int startCol, int endLine,
                         int endCol) implements NonStatementEvent {
         @Override
@@ -287,7 +291,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record ArrayElemAssignOp(long id, long parentId, Value array, Value index, Value newValue,
+    record ArrayElemAssignOp(long id, long parentId, long threadId, Value array, Value index, Value newValue,
                              Value oldValue, String operator, Value rhs,
                              String filename, int startLine, int startCol, int endLine,
                              int endCol) implements NonStatementEvent {
@@ -298,7 +302,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record ArrayElemIncDecOp(long id, long parentId, Value array, Value index, Value result,
+    record ArrayElemIncDecOp(long id, long parentId, long threadId, Value array, Value index, Value result,
                              Value newValue, Value oldValue,
                              String filename, int startLine, int startCol, int endLine,
                              int endCol) implements NonStatementEvent {
@@ -309,7 +313,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record CastAttempt(long id, long parentId, Value value, String targetTypeDescr, boolean willSucceed,
+    record CastAttempt(long id, long parentId, long threadId, Value value, String targetTypeDescr, boolean willSucceed,
                        String filename, int startLine, int startCol, int endLine,
                        int endCol) implements NonStatementEvent {
         @Override
@@ -318,7 +322,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record UnaryOp(long id, long parentId, Value res, Value arg, String operator,
+    record UnaryOp(long id, long parentId, long threadId, Value res, Value arg, String operator,
                    String filename, int startLine, int startCol, int endLine, int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -326,7 +330,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record BinaryOp(long id, long parentId, Value lhs, Value rhs, String operator, Value result,
+    record BinaryOp(long id, long parentId, long threadId, Value lhs, Value rhs, String operator, Value result,
                     String filename, int startLine, int startCol, int endLine,
                     int endCol) implements NonStatementEvent {
         @Override
@@ -336,7 +340,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record LocalVarRead(long id, long parentId, Value value, String varName,
+    record LocalVarRead(long id, long parentId, long threadId, Value value, String varName,
                         String filename, int startLine, int startCol, int endLine,
                         int endCol) implements NonStatementEvent {
         @Override
@@ -345,7 +349,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record StaticFieldRead(long id, long parentId, Value value, String className, String fieldName,
+    record StaticFieldRead(long id, long parentId, long threadId, Value value, String className, String fieldName,
                            String filename, int startLine, int startCol, int endLine,
                            int endCol) implements NonStatementEvent {
         @Override
@@ -354,7 +358,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record InstanceFieldRead(long id, long parentId, Value value, Value owner, String className, String fieldName,
+    record InstanceFieldRead(long id, long parentId, long threadId, Value value, Value owner, String className, String fieldName,
                              String filename, int startLine, int startCol, int endLine,
                              int endCol) implements NonStatementEvent {
         @Override
@@ -364,7 +368,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record ArrayAccess(long id, long parentId, Value value, Value array, Value index,
+    record ArrayAccess(long id, long parentId, long threadId, Value value, Value array, Value index,
                        String filename, int startLine, int startCol, int endLine,
                        int endCol) implements NonStatementEvent {
         @Override
@@ -373,8 +377,17 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
+    record ConstantValue(long id, long parentId, long threadId, Value value, String exprDescr,
+                         String filename, int startLine, int startCol, int endLine,
+                         int endCol) implements NonStatementEvent {
+        @Override
+        public String descr() {
+            return "constant expression " + exprDescr + " has value " + value;
+        }
+    }
+
     // TODO improve the handling of ternary expressions by displaying the branches as "statements"
-    record TernaryCondition(long id, long parentId, Value cond, String filename, int startLine, int startCol,
+    record TernaryCondition(long id, long parentId, long threadId, Value cond, String filename, int startLine, int startCol,
                             int endLine, int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -382,7 +395,7 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
-    record TypeTest(long id, long parentId, Value result, Value testedObject, String targetTypeName, String filename,
+    record TypeTest(long id, long parentId, long threadId, Value result, Value testedObject, String targetTypeName, String filename,
                     int startLine, int startCol, int endLine, int endCol) implements NonStatementEvent {
         @Override
         public String descr() {
@@ -390,6 +403,17 @@ public sealed interface NonStatementEvent extends Event {
         }
     }
 
+    private static String nonInstrumentedEntersToString(List<NonInstrumentedEnter> nonInstrumentedEnters) {
+        if (nonInstrumentedEnters.isEmpty()) {
+            return "";
+        }
+        var sj = new StringJoiner(" > ", " enclosed in: ", "");
+        for (var nonInstrCall : nonInstrumentedEnters) {
+            sj.add("[" + nonInstrCall + "]");
+        }
+        return sj.toString();
+    }
+
     private static String argsListToString(Value[] args) {
         var sj = new StringJoiner(", ", "[", "]");
         for (Value arg : args) {
@@ -0,0 +1,176 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import ch.epfl.systemf.jumbotrace.Config;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry that gives each object of the traced program a unique id, saved in its ReferenceValue
+ * <p>
+ * Ids are allocated in increasing order when an object is seen for the first time, and the registry only holds weak
+ * references to the objects, so that it does not prevent them from being collected. Objects are found by identity,
+ * hence two objects never share an id (unlike identity hash codes, that may collide). The registry is split into
+ * stripes, each guarded by its own lock, and the entries of collected objects are removed when their stripe is
+ * accessed.
+ * <p>
+ * The number of objects tracked at the same time is bounded (see Config): when a stripe is full, it is cleared, and
+ * the objects it contained get new ids if they are seen again
+ */
+public final class ObjectIds {
+
+    private ObjectIds() {
+        throw new AssertionError("not instantiable");
+    }
+
+    /**
+     * Id of null
+     */
+    public static final long NULL_ID = 0;
+
+    private static final int STRIPE_BITS = 6;
+    private static final int N_STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_STRIPE_CAPACITY = 64;
+    private static final int MAX_ENTRIES_PER_STRIPE = Math.max(
+            1,
+            Integer.getInteger(Config.MAX_TRACKED_OBJECTS_PROPERTY, Config.DEFAULT_MAX_TRACKED_OBJECTS) / N_STRIPES
+    );
+
+    private static final AtomicLong lastId = new AtomicLong(NULL_ID);
+    private static final Stripe[] stripes = new Stripe[N_STRIPES];
+
+    static {
+        for (int i = 0; i < N_STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @return the id of o, allocating one if o has never been seen
+     */
+    public static long idOf(Object o) {
+        return (o == null) ? NULL_ID : entryOf(o).id;
+    }
+
+    /**
+     * Called after a traced write to a field of o, so that its description is saved again the next time it is logged
+     * (see EventEncoder)
+     */
+    public static void markModified(Object o) {
+        if (o == null) {
+            return;
+        }
+        var hash = System.identityHashCode(o);
+        var stripe = stripeFor(hash);
+        synchronized (stripe) {
+            stripe.entryOf(o, hash).version += 1;
+        }
+    }
+
+    /**
+     * @return the entry of o, creating one if o has never been seen (o must not be null)
+     */
+    static Entry entryOf(Object o) {
+        var hash = System.identityHashCode(o);
+        var stripe = stripeFor(hash);
+        synchronized (stripe) {
+            return stripe.entryOf(o, hash);
+        }
+    }
+
+    private static Stripe stripeFor(int hash) {
+        // the low bits of the hash are used to find the bucket inside the stripe
+        return stripes[(hash * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS)];
+    }
+
+    static final class Entry extends WeakReference<Object> {
+        private final int hash;
+        private final long id;
+        // number of traced writes to the object. Written under the lock of the stripe, read by any thread
+        private volatile int version = 0;
+        private Entry next;
+
+        Entry(Object referent, ReferenceQueue<Object> queue, int hash, long id, Entry next) {
+            super(referent, queue);
+            this.hash = hash;
+            this.id = id;
+            this.next = next;
+        }
+
+        long id() {
+            return id;
+        }
+
+        int version() {
+            return version;
+        }
+    }
+
+    /**
+     * Hash table with separate chaining, keyed by identity. Guarded by its own monitor
+     */
+    private static final class Stripe {
+        private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+        private Entry[] buckets = new Entry[INITIAL_STRIPE_CAPACITY];
+        private int size = 0;
+
+        Entry entryOf(Object o, int hash) {
+            expungeCollected();
+            var bucketIdx = hash & (buckets.length - 1);
+            for (var entry = buckets[bucketIdx]; entry != null; entry = entry.next) {
+                if (entry.get() == o) {
+                    return entry;
+                }
+            }
+            if (size >= MAX_ENTRIES_PER_STRIPE) {
+                buckets = new Entry[INITIAL_STRIPE_CAPACITY];
+                size = 0;
+                // entries of the old table may still be enqueued: they are ignored by expungeCollected
+                bucketIdx = hash & (buckets.length - 1);
+            } else if (size >= buckets.length * 3 / 4) {
+                resize();
+                bucketIdx = hash & (buckets.length - 1);
+            }
+            var entry = new Entry(o, queue, hash, lastId.incrementAndGet(), buckets[bucketIdx]);
+            buckets[bucketIdx] = entry;
+            size += 1;
+            return entry;
+        }
+
+        private void expungeCollected() {
+            for (var ref = queue.poll(); ref != null; ref = queue.poll()) {
+                var collected = (Entry) ref;
+                var bucketIdx = collected.hash & (buckets.length - 1);
+                Entry prev = null;
+                for (var entry = buckets[bucketIdx]; entry != null; prev = entry, entry = entry.next) {
+                    if (entry == collected) {
+                        if (prev == null) {
+                            buckets[bucketIdx] = entry.next;
+                        } else {
+                            prev.next = entry.next;
+                        }
+                        size -= 1;
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void resize() {
+            var newBuckets = new Entry[buckets.length * 2];
+            for (var head : buckets) {
+                var entry = head;
+                while (entry != null) {
+                    var next = entry.next;
+                    var bucketIdx = entry.hash & (newBuckets.length - 1);
+                    entry.next = newBuckets[bucketIdx];
+                    newBuckets[bucketIdx] = entry;
+                    entry = next;
+                }
+            }
+            buckets = newBuckets;
+        }
+    }
+
+}
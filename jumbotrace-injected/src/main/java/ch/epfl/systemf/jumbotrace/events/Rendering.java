@@ -0,0 +1,178 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import ch.epfl.systemf.jumbotrace.Config;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Renders the descriptions of references, within the budgets defined in Config
+ * <p>
+ * Strings are cut after the maximal number of characters. Collections and maps of java.util are rendered by the tracer
+ * instead of calling their toString (which would render all their elements), in the same format, up to the maximal
+ * number of elements and the maximal nesting depth. The description of other objects is the result of their toString.
+ * <p>
+ * A description that does not fit in the budgets is marked as truncated, with the length of the value (number of
+ * characters or elements) and a hash of its content. To keep the cost of rendering bounded, only strings are hashed
+ * entirely (their hash is cached by the JVM): for collections and maps, only the rendered elements are hashed
+ */
+public final class Rendering {
+
+    private Rendering() {
+        throw new AssertionError("not instantiable");
+    }
+
+    public static final int MAX_STRING_LENGTH =
+            Integer.getInteger(Config.MAX_STRING_LENGTH_PROPERTY, Config.DEFAULT_MAX_STRING_LENGTH);
+    public static final int MAX_ELEMENTS = Integer.getInteger(Config.MAX_ELEMENTS_PROPERTY, Config.DEFAULT_MAX_ELEMENTS);
+    public static final int MAX_DEPTH = Integer.getInteger(Config.MAX_DEPTH_PROPERTY, Config.DEFAULT_MAX_DEPTH);
+
+    private static final long NOT_TRUNCATED = -1;
+
+    /**
+     * @param text        the (possibly truncated) description
+     * @param length      the length of the described value if the description is truncated, NOT_TRUNCATED otherwise
+     * @param contentHash the hash of the content of the value, if the description is truncated
+     */
+    public record Description(String text, long length, int contentHash) {
+
+        public boolean isTruncated() {
+            return length != NOT_TRUNCATED;
+        }
+
+    }
+
+    /**
+     * @return the description saved in the ReferenceValue of o
+     */
+    public static Description describe(Object o) {
+        if (o == null) {
+            return new Description("null", NOT_TRUNCATED, 0);
+        } else if (o instanceof String s) {
+            return (s.length() <= MAX_STRING_LENGTH) ?
+                    new Description("\"" + s + "\"", NOT_TRUNCATED, 0) :
+                    new Description("\"" + s.substring(0, MAX_STRING_LENGTH) + "\"", s.length(), s.hashCode());
+        }
+        // FIXME it's bad to call toString here (it can have side-effects)
+        try {
+            if (isRenderedElementWise(o)) {
+                var renderer = new ElementsRenderer();
+                renderer.render(o, 1);
+                var text = renderer.sb.toString();
+                if (renderer.truncated) {
+                    var size = (o instanceof Collection<?> coll) ? coll.size() : ((Map<?, ?>) o).size();
+                    return new Description(text, size, 31 * Integer.hashCode(size) + text.hashCode());
+                }
+                return new Description(text, NOT_TRUNCATED, 0);
+            }
+            return new Description(o.toString(), NOT_TRUNCATED, 0);
+        } catch (Throwable throwable) {
+            // relies on program-defined toString, so we have to recover from exceptions to preserve program semantics
+            return new Description("<??>", NOT_TRUNCATED, 0);
+        }
+    }
+
+    /**
+     * @return the hash saved in the TruncatedValue of an array of the given length, of which only the given values
+     * are saved
+     */
+    public static int arrayContentHash(long length, Value[] values) {
+        var hash = Long.hashCode(length);
+        for (var value : values) {
+            hash = 31 * hash + value.toString().hashCode();
+        }
+        return hash;
+    }
+
+    static boolean isRenderedElementWise(Object o) {
+        return (o instanceof Collection<?> || o instanceof Map<?, ?>) && o.getClass().getName().startsWith("java.util.");
+    }
+
+    /**
+     * Renders collections and maps in the format of AbstractCollection.toString and AbstractMap.toString
+     */
+    private static final class ElementsRenderer {
+        private final StringBuilder sb = new StringBuilder();
+        private boolean truncated = false;
+
+        void render(Object o, int depth) {
+            if (o instanceof Collection<?> coll) {
+                renderCollection(coll, depth);
+            } else {
+                renderMap((Map<?, ?>) o, depth);
+            }
+        }
+
+        private void renderCollection(Collection<?> coll, int depth) {
+            if (depth > MAX_DEPTH) {
+                truncated = true;
+                sb.append("[...]");
+                return;
+            }
+            sb.append('[');
+            var nRendered = 0;
+            for (var elem : coll) {
+                if (nRendered == MAX_ELEMENTS) {
+                    truncated = true;
+                    sb.append(", ...");
+                    break;
+                }
+                if (nRendered > 0) {
+                    sb.append(", ");
+                }
+                if (elem == coll) {
+                    sb.append("(this Collection)");
+                } else {
+                    renderElement(elem, depth);
+                }
+                nRendered += 1;
+            }
+            sb.append(']');
+        }
+
+        private void renderMap(Map<?, ?> map, int depth) {
+            if (depth > MAX_DEPTH) {
+                truncated = true;
+                sb.append("{...}");
+                return;
+            }
+            sb.append('{');
+            var nRendered = 0;
+            for (var entry : map.entrySet()) {
+                if (nRendered == MAX_ELEMENTS) {
+                    truncated = true;
+                    sb.append(", ...");
+                    break;
+                }
+                if (nRendered > 0) {
+                    sb.append(", ");
+                }
+                if (entry.getKey() == map) {
+                    sb.append("(this Map)");
+                } else {
+                    renderElement(entry.getKey(), depth);
+                }
+                sb.append('=');
+                if (entry.getValue() == map) {
+                    sb.append("(this Map)");
+                } else {
+                    renderElement(entry.getValue(), depth);
+                }
+                nRendered += 1;
+            }
+            sb.append('}');
+        }
+
+        private void renderElement(Object elem, int depth) {
+            if (elem instanceof String s && s.length() > MAX_STRING_LENGTH) {
+                truncated = true;
+                sb.append(s, 0, MAX_STRING_LENGTH).append("...");
+            } else if (isRenderedElementWise(elem)) {
+                render(elem, depth + 1);
+            } else {
+                sb.append(elem);
+            }
+        }
+    }
+
+}
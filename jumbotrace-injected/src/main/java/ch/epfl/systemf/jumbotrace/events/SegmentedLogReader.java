@@ -0,0 +1,115 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static ch.epfl.systemf.jumbotrace.events.TraceFormat.*;
+
+/**
+ * Reads the records of a log written by a SegmentedLogWriter: the committed parts of the segments found on disk are
+ * concatenated, in the order of their indices
+ */
+public final class SegmentedLogReader extends InputStream {
+
+    private final Iterator<Path> segments;
+    private InputStream current = InputStream.nullInputStream();
+    private long remainingInCurrent = 0;
+
+    public SegmentedLogReader(String logFile) throws IOException {
+        var segments = segments(logFile);
+        if (segments.isEmpty()) {
+            throw new FileNotFoundException("no segment found for log file " + logFile);
+        }
+        this.segments = segments.iterator();
+    }
+
+    /**
+     * @return the name of the file containing the given segment of the log
+     */
+    public static String segmentName(String logFile, int segmentIdx) {
+        return logFile + "." + segmentIdx;
+    }
+
+    /**
+     * @return the segments of the log that exist on disk, sorted by index
+     */
+    public static List<Path> segments(String logFile) throws IOException {
+        var logPath = Path.of(logFile).toAbsolutePath();
+        var namePattern = Pattern.compile(Pattern.quote(logPath.getFileName().toString()) + "\\.(\\d+)");
+        try (var files = Files.list(logPath.getParent())) {
+            return files
+                    .filter(path -> namePattern.matcher(path.getFileName().toString()).matches())
+                    .sorted(Comparator.comparingLong(path -> segmentIdx(namePattern, path)))
+                    .toList();
+        }
+    }
+
+    private static long segmentIdx(Pattern namePattern, Path path) {
+        var matcher = namePattern.matcher(path.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new AssertionError();
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextSegmentIfNeeded()) {
+            return -1;
+        }
+        remainingInCurrent -= 1;
+        return current.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextSegmentIfNeeded()) {
+            return -1;
+        }
+        var nRead = current.read(b, off, (int) Math.min(len, remainingInCurrent));
+        if (nRead == -1) {
+            throw new EOFException("segment shorter than its committed length");
+        }
+        remainingInCurrent -= nRead;
+        return nRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        current.close();
+    }
+
+    /**
+     * @return false iff all segments have been read
+     */
+    private boolean nextSegmentIfNeeded() throws IOException {
+        while (remainingInCurrent == 0) {
+            current.close();
+            if (!segments.hasNext()) {
+                return false;
+            }
+            var path = segments.next();
+            current = new BufferedInputStream(Files.newInputStream(path));
+            var header = new DataInputStream(current);
+            if (header.readInt() != MAGIC) {
+                throw new IOException("not a JumboTrace log segment: " + path);
+            }
+            var version = header.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported log format version: " + version);
+            }
+            header.readInt();   // segment index, already known from the name of the file
+            remainingInCurrent = header.readLong() - SEGMENT_HEADER_SIZE;
+        }
+        return true;
+    }
+
+}
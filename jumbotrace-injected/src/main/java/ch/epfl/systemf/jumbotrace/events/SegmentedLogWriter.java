@@ -0,0 +1,150 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+import static ch.epfl.systemf.jumbotrace.events.TraceFormat.*;
+
+/**
+ * Writes the log to a sequence of memory-mapped segments (see TraceFormat)
+ * <p>
+ * Each call to write must provide complete records (which is what an EventEncoder does): the bytes are copied to the
+ * mapping of the current segment, and only then is the committed length of the segment updated. Since the mapping is
+ * shared with the file, the bytes written so far survive a crash of the process, and a reader never sees a partial
+ * record. Segments are forced to the storage device when they are completed and when the writer is closed.
+ * <p>
+ * Not thread-safe
+ */
+public final class SegmentedLogWriter extends OutputStream {
+
+    private final String logFile;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxLogSize;
+    private final Supplier<byte[]> segmentPrologue;
+
+    // completed segments that are still on disk, oldest first
+    private final Deque<CompletedSegment> completedSegments = new ArrayDeque<>();
+    private long completedSegmentsSize = 0;
+
+    private int segmentIdx = -1;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+
+    /**
+     * @param logFile         the name of the log file (segments are named after it)
+     * @param segmentSize     the size of the segments, in bytes
+     * @param maxSegments     the maximal number of segments kept on disk (0 for no limit)
+     * @param maxLogSize      the maximal total size of the segments kept on disk, in bytes (0 for no limit)
+     * @param segmentPrologue the records to write at the beginning of each segment, to make it self-contained (called
+     *                        each time a segment is started)
+     */
+    public SegmentedLogWriter(String logFile, int segmentSize, int maxSegments, long maxLogSize,
+                              Supplier<byte[]> segmentPrologue) throws IOException {
+        if (segmentSize <= SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("segment size too small: " + segmentSize);
+        }
+        this.logFile = logFile;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.maxLogSize = maxLogSize;
+        this.segmentPrologue = segmentPrologue;
+        // segments of a previous run
+        for (var path : SegmentedLogReader.segments(logFile)) {
+            Files.delete(path);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (segment == null || segment.remaining() < len) {
+            startSegment(len);
+        }
+        segment.put(b, off, len);
+        commit();
+    }
+
+    /**
+     * Does not force the segment to the storage device (written bytes are already visible to other processes, and
+     * survive a crash of this one)
+     */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (segment != null) {
+            completeSegment();
+        }
+    }
+
+    private void commit() {
+        segment.putLong(COMMITTED_LENGTH_OFFSET, segment.position());
+    }
+
+    private void startSegment(int minPayloadSize) throws IOException {
+        if (segment != null) {
+            completeSegment();
+        }
+        segmentIdx += 1;
+        var prologue = segmentPrologue.get();
+        var size = Math.max(segmentSize, SEGMENT_HEADER_SIZE + prologue.length + minPayloadSize);
+        segmentFile = new RandomAccessFile(SegmentedLogReader.segmentName(logFile, segmentIdx), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.putInt(MAGIC);
+        segment.putInt(VERSION);
+        segment.putInt(segmentIdx);
+        segment.putLong(SEGMENT_HEADER_SIZE);
+        segment.put(prologue);
+        commit();
+        enforceRetention(size);
+    }
+
+    private void completeSegment() throws IOException {
+        var committedLength = segment.position();
+        segment.force();
+        segment = null;
+        try {
+            // the rest of the segment is unused
+            segmentFile.setLength(committedLength);
+        } catch (IOException e) {
+            // some platforms do not allow truncating a mapped file, in which case the segment keeps its full size
+            committedLength = (int) segmentFile.length();
+        } finally {
+            segmentFile.close();
+        }
+        completedSegments.addLast(new CompletedSegment(segmentIdx, committedLength));
+        completedSegmentsSize += committedLength;
+    }
+
+    /**
+     * Deletes the oldest segments until the limits are respected (the current segment is never deleted)
+     */
+    private void enforceRetention(int currentSegmentSize) throws IOException {
+        while (!completedSegments.isEmpty()
+                && ((maxSegments > 0 && completedSegments.size() + 1 > maxSegments)
+                || (maxLogSize > 0 && completedSegmentsSize + currentSegmentSize > maxLogSize))) {
+            var oldest = completedSegments.removeFirst();
+            completedSegmentsSize -= oldest.size();
+            Files.deleteIfExists(Path.of(SegmentedLogReader.segmentName(logFile, oldest.idx())));
+        }
+    }
+
+    private record CompletedSegment(int idx, long size) {
+    }
+
+}
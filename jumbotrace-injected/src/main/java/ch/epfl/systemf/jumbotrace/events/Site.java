@@ -0,0 +1,84 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static information about an instrumented location, computed at compile-time by the javac plugin
+ * <p>
+ * Sites are registered by each instrumented class when it is initialized, as a table in text form:
+ * the filename of the class, followed by the sites of the class. Each site is written as its kind (the name of
+ * the logging method), its position (start line, start col, end line, end col), the number of its attributes and
+ * the attributes themselves. Every field is written as its length, a colon and its characters.
+ *
+ * @param kind  the name of the logging method that is called at this site
+ * @param attrs the static arguments of the logging method (names, operator, etc.), in the order in which the logging
+ *              method declares them
+ */
+public record Site(String kind, String filename, int startLine, int startCol, int endLine, int endCol,
+                   List<String> attrs) {
+
+    public String attr(int idx) {
+        return attrs.get(idx);
+    }
+
+    public int intAttr(int idx) {
+        return Integer.parseInt(attrs.get(idx));
+    }
+
+    public boolean booleanAttr(int idx) {
+        return Boolean.parseBoolean(attrs.get(idx));
+    }
+
+    /**
+     * Parses a table of sites, as described in the documentation of this class
+     */
+    public static List<Site> parseTable(String table) {
+        var parser = new TableParser(table);
+        var filename = parser.nextField();
+        var sites = new ArrayList<Site>();
+        while (parser.hasNext()) {
+            var kind = parser.nextField();
+            var startLine = parser.nextIntField();
+            var startCol = parser.nextIntField();
+            var endLine = parser.nextIntField();
+            var endCol = parser.nextIntField();
+            var nAttrs = parser.nextIntField();
+            var attrs = new ArrayList<String>(nAttrs);
+            for (int i = 0; i < nAttrs; i++) {
+                attrs.add(parser.nextField());
+            }
+            sites.add(new Site(kind, filename, startLine, startCol, endLine, endCol, List.copyOf(attrs)));
+        }
+        return sites;
+    }
+
+    private static final class TableParser {
+        private final String table;
+        private int pos = 0;
+
+        TableParser(String table) {
+            this.table = table;
+        }
+
+        boolean hasNext() {
+            return pos < table.length();
+        }
+
+        String nextField() {
+            var sep = table.indexOf(':', pos);
+            if (sep == -1) {
+                throw new IllegalArgumentException("malformed sites table at index " + pos);
+            }
+            var length = Integer.parseInt(table, pos, sep, 10);
+            var field = table.substring(sep + 1, sep + 1 + length);
+            pos = sep + 1 + length;
+            return field;
+        }
+
+        int nextIntField() {
+            return Integer.parseInt(nextField());
+        }
+    }
+
+}
@@ -19,7 +19,7 @@ public sealed interface StatementEvent extends Event {
 
     int endCol();
 
-    record ReturnStat(long id, long parentId, String methodName, String filename, int startLine, int startCol,
+    record ReturnStat(long id, long parentId, long threadId, String methodName, String filename, int startLine, int startCol,
                       int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -27,7 +27,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record BreakStat(long id, long parentId, String targetDescr, int targetLine, int targetCol,
+    record BreakStat(long id, long parentId, long threadId, String targetDescr, int targetLine, int targetCol,
                      String filename, int startLine, int startCol, int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -35,7 +35,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record ContinueStat(long id, long parentId, String targetDescr, int targetLine, int targetCol,
+    record ContinueStat(long id, long parentId, long threadId, String targetDescr, int targetLine, int targetCol,
                         String filename, int startLine, int startCol, int endLine,
                         int endCol) implements StatementEvent {
         @Override
@@ -44,7 +44,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record YieldStat(long id, long parentId, Value yieldedVal, String targetDescr, int targetLine, int targetCol,
+    record YieldStat(long id, long parentId, long threadId, Value yieldedVal, String targetDescr, int targetLine, int targetCol,
                      String filename, int startLine, int startCol, int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -52,7 +52,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record SwitchStat(long id, long parentId, Value selector, String filename, int startLine, int startCol,
+    record SwitchStat(long id, long parentId, long threadId, Value selector, String filename, int startLine, int startCol,
                       int endLine,
                       int endCol) implements StatementEvent {
         @Override
@@ -61,7 +61,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record VarDeclStat(long id, long parentId, String varName, String typeDescr,
+    record VarDeclStat(long id, long parentId, long threadId, String varName, String typeDescr,
                        String filename, int startLine, int startCol, int endLine, int endCol
     ) implements StatementEvent {
         @Override
@@ -70,8 +70,8 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record InitializedFieldDeclStat(long id, long parentId, String className, String fieldName, String typeDescr,
-                                    Object value,
+    record InitializedFieldDeclStat(long id, long parentId, long threadId, String className, String fieldName, String typeDescr,
+                                    Value value,
                                     String filename, int startLine, int startCol, int endLine,
                                     int endCol) implements StatementEvent {
         @Override
@@ -81,7 +81,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record ThrowStat(long id, long parentId, Value throwable, String filename, int startLine, int startCol,
+    record ThrowStat(long id, long parentId, long threadId, Value throwable, String filename, int startLine, int startCol,
                      int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -92,7 +92,7 @@ public sealed interface StatementEvent extends Event {
     /**
      * When an exception is caught
      */
-    record Caught(long id, long parentId, Value throwable, String filename, int startLine, int startCol,
+    record Caught(long id, long parentId, long threadId, Value throwable, String filename, int startLine, int startCol,
                   int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -100,7 +100,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record AssertionStat(long id, long parentId, Value asserted, String assertionDescr,
+    record AssertionStat(long id, long parentId, long threadId, Value asserted, String assertionDescr,
                          String filename, int startLine, int startCol, int endLine,
                          int endCol) implements StatementEvent {
         @Override
@@ -112,7 +112,7 @@ public sealed interface StatementEvent extends Event {
     /**
      * Execution of an expression statement
      */
-    record Exec(long id, long parentId,
+    record Exec(long id, long parentId, long threadId,
                 String filename, int startLine, int startCol, int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -120,7 +120,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record IfCond(long id, long parentId, Value evalRes, String filename, int startLine, int startCol, int endLine,
+    record IfCond(long id, long parentId, long threadId, Value evalRes, String filename, int startLine, int startCol, int endLine,
                   int endCol) implements StatementEvent {
         @Override
         public String descr() {
@@ -128,7 +128,7 @@ public sealed interface StatementEvent extends Event {
         }
     }
 
-    record LoopCond(long id, long parentId, Value evalRes, String loopType, String filename, int startLine,
+    record LoopCond(long id, long parentId, long threadId, Value evalRes, String loopType, String filename, int startLine,
                     int startCol, int endLine, int endCol) implements StatementEvent {
         @Override
         public String descr() {
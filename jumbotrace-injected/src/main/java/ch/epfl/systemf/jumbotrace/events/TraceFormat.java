@@ -0,0 +1,113 @@
+package ch.epfl.systemf.jumbotrace.events;
+
+/**
+ * Constants of the binary format of the log file
+ * <p>
+ * The log is split into segments (files named after the log file, with the index of the segment as a suffix). Each
+ * segment starts with a header (MAGIC, VERSION, index of the segment and committed length, as fixed-size integers),
+ * followed by a sequence of records. Each record starts with a one-byte tag. Only the first committed-length bytes of a
+ * segment are meaningful: the committed length is updated after each write of complete records, so that a crash never
+ * leaves a partial record in the trace.
+ * <p>
+ * Static information about events (names, positions, etc.) is not repeated in each event: it is stored once in a
+ * table of sites, and events only refer to their site. Each thread of the traced program records its events in its own
+ * buffer, which is appended to the log as a thread chunk when it is full. A chunk starts with the id of its first event,
+ * followed by a sequence of complete event records, and the chunks of a thread form the stream of events of that
+ * thread. Within a chunk, event ids are implicit (they follow the id of the first event) and strings are written either
+ * inline or through a table of the strings already seen in the chunk. Integers are written as (zigzag) varints and
+ * floating-point numbers as their raw bits.
+ * <p>
+ * Segments are self-contained: each of them starts with the site tables registered so far, and chunks do not depend on
+ * each other. Hence the oldest segments may be deleted without making the others unreadable.
+ *
+ * @see EventEncoder
+ * @see EventDecoder
+ */
+public final class TraceFormat {
+
+    private TraceFormat() {
+        throw new AssertionError("not instantiable");
+    }
+
+    public static final int MAGIC = 0x4A425402;   // "JBT" followed by a format marker
+    public static final int VERSION = 5;
+
+    //<editor-fold desc="Segments">
+    public static final int SEGMENT_INDEX_OFFSET = 8;
+    public static final int COMMITTED_LENGTH_OFFSET = 12;
+    public static final int SEGMENT_HEADER_SIZE = 20;
+    //</editor-fold>
+
+    //<editor-fold desc="Record tags">
+    // Event records, only found in thread chunks
+    public static final byte INITIALIZATION = 1;
+    public static final byte SITE_EVENT = 3;
+
+    // File-level records
+    /**
+     * The sites of an instrumented class (the events of these sites only contain the id of the site and dynamic data)
+     * <p>
+     * Site tables are repeated at the beginning of each segment, hence a decoder may see the same table several times
+     *
+     * @see Site
+     */
+    public static final byte SITE_TABLE = 2;
+    /**
+     * Followed by the id of the thread, the length of the chunk in bytes, the id of the first event of the chunk and the
+     * event records of the chunk
+     */
+    public static final byte THREAD_CHUNK = 4;
+    /**
+     * Followed by the id of a thread, the throttling threshold and period, the number of sites that have been throttled
+     * in this thread, and for each of them its id and its true number of hits. Written when the thread terminates
+     */
+    public static final byte SITE_HITS = 5;
+    //</editor-fold>
+
+    //<editor-fold desc="Value tags">
+    // Value tags are disjoint from record tags, so that a value can never be mistaken for the beginning of a record
+    public static final byte FALSE_VALUE = 64;
+    public static final byte TRUE_VALUE = 65;
+    public static final byte BYTE_VALUE = 66;
+    public static final byte CHAR_VALUE = 67;
+    public static final byte SHORT_VALUE = 68;
+    public static final byte INT_VALUE = 69;
+    public static final byte FLOAT_VALUE = 70;
+    public static final byte LONG_VALUE = 71;
+    public static final byte DOUBLE_VALUE = 72;
+    public static final byte REFERENCE_VALUE = 73;
+    public static final byte ARRAY_VALUE = 74;
+    /**
+     * Followed by the length of the value, its content hash and the saved part of the value
+     *
+     * @see Rendering
+     */
+    public static final byte TRUNCATED_VALUE = 75;
+    /**
+     * Followed by the id of an object that has already been described in the chunk, and has not been modified by a traced
+     * write since then (only written when objects are described once, see EventEncoder)
+     */
+    public static final byte OBJECT_REFERENCE_VALUE = 76;
+    //</editor-fold>
+
+    /**
+     * Written instead of a string table index to denote a null string
+     */
+    public static final int NULL_STRING = 0;
+
+    /**
+     * Written instead of a string table index to announce a string that is not yet in the table
+     */
+    public static final int NEW_STRING = 1;
+
+    /**
+     * Offset between string table indices and their encoding
+     */
+    public static final int FIRST_STRING_INDEX = 2;
+
+    /**
+     * Written instead of a parent delta for events that have no parent
+     */
+    public static final long NO_PARENT_DELTA = 0;
+
+}
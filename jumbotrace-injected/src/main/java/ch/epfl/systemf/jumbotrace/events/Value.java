@@ -1,24 +1,23 @@
 package ch.epfl.systemf.jumbotrace.events;
 
-import java.io.Serializable;
 import java.util.StringJoiner;
 
 /**
  * A value saved from the traced program
  */
-public sealed interface Value extends Serializable {
+public sealed interface Value {
 
     static BooleanValue valueFor(boolean b) {
         return new BooleanValue(b);
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(boolean[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(boolean[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static ByteValue valueFor(byte b) {
@@ -26,12 +25,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(byte[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(byte[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static CharValue valueFor(char c) {
@@ -39,12 +38,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(char[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(char[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static ShortValue valueFor(short s) {
@@ -52,12 +51,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(short[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(short[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static IntValue valueFor(int i) {
@@ -65,12 +64,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(int[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(int[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static FloatValue valueFor(float f) {
@@ -78,12 +77,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(float[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(float[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static LongValue valueFor(long l) {
@@ -91,12 +90,12 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(long[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(long[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static DoubleValue valueFor(double d) {
@@ -104,20 +103,16 @@ public sealed interface Value extends Serializable {
     }
 
     @SuppressWarnings("unused")
-    static ArrayValue valueFor(double[] arr) {
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+    static Value valueFor(double[] arr) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     static Value valueFor(Object o) {
-        if (o == null) {
-            return new ReferenceValue(System.identityHashCode(null), "Null", "null");
-        } else if (o instanceof String s) {
-            return new ReferenceValue(System.identityHashCode(o), o.getClass().getName(), "\"" + s + "\"");
-        } else if (o instanceof Boolean b) {
+        if (o instanceof Boolean b) {
             return valueFor(b.booleanValue());
         } else if (o instanceof Byte b) {
             return valueFor(b.byteValue());
@@ -134,26 +129,37 @@ public sealed interface Value extends Serializable {
         } else if (o instanceof Double d) {
             return valueFor(d.doubleValue());
         }
-        // FIXME it's bad to call toString here (it can have side-effects)
-        String descr;
-        try {
-            descr = o.toString();
-        } catch (Throwable throwable) {
-            // relies on program-defined toString, so we have to recover from exceptions to preserve program semantics
-            descr = "<??>";
-        }
-        return new ReferenceValue(System.identityHashCode(o), o.getClass().getName(), descr);
+        var descr = Rendering.describe(o);
+        var value = new ReferenceValue(ObjectIds.idOf(o), classNameOf(o), descr.text());
+        return descr.isTruncated() ? new TruncatedValue(value, descr.length(), descr.contentHash()) : value;
+    }
+
+    /**
+     * @return the class name saved in the ReferenceValue of o
+     */
+    static String classNameOf(Object o) {
+        return (o == null) ? "Null" : o.getClass().getName();
+    }
+
+    /**
+     * @param values the values of the elements of the array that fit in the rendering budget
+     */
+    private static Value arrayValue(Value[] values, int length) {
+        var value = new ArrayValue(values);
+        return (values.length < length) ?
+                new TruncatedValue(value, length, Rendering.arrayContentHash(length, values)) :
+                value;
     }
 
     static Value valueFor(Object[] arr) {
         if (arr == null) {
-            return new ReferenceValue(System.identityHashCode(null), "Null", "null");
+            return new ReferenceValue(ObjectIds.NULL_ID, "Null", "null");
         }
-        var values = new Value[arr.length];
-        for (int i = 0; i < arr.length; i++) {
+        var values = new Value[Math.min(arr.length, Rendering.MAX_ELEMENTS)];
+        for (int i = 0; i < values.length; i++) {
             values[i] = valueFor(arr[i]);
         }
-        return new ArrayValue(values);
+        return arrayValue(values, arr.length);
     }
 
     record BooleanValue(boolean b) implements Value {
@@ -212,10 +218,27 @@ public sealed interface Value extends Serializable {
         }
     }
 
-    record ReferenceValue(int idHash, String className, String descr) implements Value {
+    /**
+     * @param objectId the id of the object (see ObjectIds)
+     */
+    record ReferenceValue(long objectId, String className, String descr) implements Value {
+        @Override
+        public String toString() {
+            return className + "@" + objectId + ": " + descr;
+        }
+    }
+
+    /**
+     * A value that does not fit in the rendering budgets (see Rendering)
+     *
+     * @param value       the saved part of the value
+     * @param length      the length of the whole value (number of characters or elements)
+     * @param contentHash a hash of the content of the value
+     */
+    record TruncatedValue(Value value, long length, int contentHash) implements Value {
         @Override
         public String toString() {
-            return className + "@" + idHash + ": " + descr;
+            return value + " (truncated, length " + length + ", hash " + Integer.toHexString(contentHash) + ")";
         }
     }
 
@@ -1,7 +1,9 @@
 package ch.epfl.systemf.jumbotrace.frontend;
 
 import ch.epfl.systemf.jumbotrace.events.Event;
+import ch.epfl.systemf.jumbotrace.events.EventDecoder;
 import ch.epfl.systemf.jumbotrace.events.NonStatementEvent;
+import ch.epfl.systemf.jumbotrace.events.SegmentedLogReader;
 import ch.epfl.systemf.jumbotrace.events.StatementEvent;
 
 import java.io.*;
@@ -39,13 +41,24 @@ public final class Frontend {
         var srcFiles = new HashMap<String, List<String>>();
         readJavaFiles(srcFiles, new File(srcDirPath));
 
-        var events = readEvents();
+        var siteHits = new ArrayList<EventDecoder.SiteHits>();
+        var events = readEvents(siteHits);
         printEvents(events, srcFiles, verbose);
+        printSiteHits(siteHits);
     }
 
     private static void printEvents(List<Event> events, Map<String, List<String>> srcFiles, boolean verbose) {
-        var indentLevel = 0;
+        // events of different threads are interleaved, so each thread has its own indentation level
+        var indentLevels = new HashMap<Long, Integer>();
+        var isMultiThreaded = events.stream().map(Event::threadId).distinct().count() > 1;
+        var prevThreadId = -1L;
         for (var event : events) {
+            var threadId = event.threadId();
+            if (isMultiThreaded && threadId != prevThreadId) {
+                System.out.println(ANSI_RED + "--- thread " + threadId + " ---" + ANSI_RESET);
+                prevThreadId = threadId;
+            }
+            int indentLevel = indentLevels.getOrDefault(threadId, 0);
             if (event instanceof StatementEvent statementEvent) {
                 System.out.print(insertNewlineWhenTooLong(
                         codeFor(statementEvent, srcFiles),
@@ -57,6 +70,14 @@ public final class Frontend {
                         MAX_WIDTH, indentLevel * INDENT_GRANULARITY
                 ));
                 indentLevel += 1;
+            } else if (event instanceof NonStatementEvent.LambdaEnter lambdaEnter) {
+                System.out.print(insertNewlineWhenTooLong(
+                        ANSI_RED + "lambda enter " + ANSI_RESET + ANSI_CYAN + "// " + lambdaEnter.descr() + " at " +
+                                lastNamesOnly(lambdaEnter.filename(), 2) + ":" + lambdaEnter.startLine() + ":" +
+                                lambdaEnter.startCol() + ANSI_RESET,
+                        MAX_WIDTH, indentLevel * INDENT_GRANULARITY
+                ));
+                indentLevel += 1;
             } else if (event instanceof NonStatementEvent.MethodExit methodExit) {
                 indentLevel -= 1;
                 System.out.print((ANSI_RED + "method exit " + ANSI_RESET + methodExit.descr()).indent(indentLevel * INDENT_GRANULARITY));
@@ -66,6 +87,23 @@ public final class Frontend {
                         indentLevel * INDENT_GRANULARITY
                 ));
             }
+            indentLevels.put(threadId, indentLevel);
+        }
+    }
+
+    /**
+     * Displays the number of hits of the sites that have been throttled, hence whose events are only partially displayed
+     */
+    private static void printSiteHits(List<EventDecoder.SiteHits> siteHits) {
+        if (siteHits.isEmpty()) {
+            return;
+        }
+        System.out.println(ANSI_RED + "--- throttled sites ---" + ANSI_RESET);
+        for (var siteHit : siteHits) {
+            var site = siteHit.site();
+            System.out.println(site.kind() + " at " + lastNamesOnly(site.filename(), 2) + ":" + site.startLine() + ":" +
+                    site.startCol() + " (thread " + siteHit.threadId() + "): " + siteHit.nLogged() + " events logged out of " +
+                    siteHit.hits());
         }
     }
 
@@ -190,20 +228,24 @@ public final class Frontend {
     }
 
     /**
-     * Reads the events written as serialized objects in the logging file
+     * Reads the events written in the logging file
+     *
+     * @param siteHits receives the number of hits of the sites that have been throttled
      */
-    private static ArrayList<Event> readEvents() {
+    private static ArrayList<Event> readEvents(List<EventDecoder.SiteHits> siteHits) {
         var events = new ArrayList<Event>();
-        try (
-                var fis = new FileInputStream(LOG_FILE);
-                var ois = new ObjectInputStream(fis)
-        ) {
-            for (; ; ) {
-                events.add((Event) ois.readObject());
+        try (var decoder = new EventDecoder(new BufferedInputStream(new SegmentedLogReader(LOG_FILE)))) {
+            try {
+                for (var event = decoder.read(); event != null; event = decoder.read()) {
+                    events.add(event);
+                }
+            } finally {
+                // the hits read before a damaged record are still displayed
+                siteHits.addAll(decoder.siteHits());
             }
         } catch (EOFException e) {
-            // expected at the end of the stream
-        } catch (IOException | ClassNotFoundException e) {
+            // the last segment has been damaged (the writer never commits incomplete records)
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
         return events;
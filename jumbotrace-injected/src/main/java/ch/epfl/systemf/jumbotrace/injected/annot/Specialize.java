@@ -7,14 +7,35 @@ import java.lang.annotation.Target;
 
 /**
  * A parameter or return type that should be specialized by the logging methods replication system
+ * <p>
+ * All the annotations of a type variable in a method must specify the same restrictions
  */
 @Retention(RetentionPolicy.SOURCE)
 @Target({ElementType.PARAMETER, ElementType.METHOD})
 public @interface Specialize {
 
+    /**
+     * Name of the type variable of the parameter or return type. Parameters (and return types) with the same type
+     * variable are given the same type, while the types of different variables are chosen independently of each other
+     * (i.e. one copy of the method is generated for each combination of their types)
+     */
+    String typeVar() default "T";
+
     /**
      * Set to true to restrict replication to numeric primitive types
      */
     boolean numericOnly() default false;
 
+    /**
+     * If not empty, restricts replication to these types (e.g. {"int", "long"})
+     */
+    String[] types() default {};
+
+    /**
+     * If not empty, the type is not a type variable of its own, but is derived from the types given to these variables:
+     * it is the type of the result of a numeric operator whose operands have these types, i.e. their type after binary
+     * numeric promotion (or unary numeric promotion if there is a single variable)
+     */
+    String[] promotionOf() default {};
+
 }
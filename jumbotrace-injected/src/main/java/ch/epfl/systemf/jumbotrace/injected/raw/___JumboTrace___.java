@@ -1,27 +1,38 @@
 package ch.epfl.systemf.jumbotrace.injected.raw;
 
 import ch.epfl.systemf.jumbotrace.Config;
-import ch.epfl.systemf.jumbotrace.events.Event;
+import ch.epfl.systemf.jumbotrace.events.EventEncoder;
+import ch.epfl.systemf.jumbotrace.events.SegmentedLogWriter;
 import ch.epfl.systemf.jumbotrace.events.NonStatementEvent.*;
-import ch.epfl.systemf.jumbotrace.events.StatementEvent.*;
-import ch.epfl.systemf.jumbotrace.events.Value;
+import ch.epfl.systemf.jumbotrace.events.ObjectIds;
+import ch.epfl.systemf.jumbotrace.events.Site;
 import ch.epfl.systemf.jumbotrace.injected.annot.Specialize;
-import ch.epfl.systemf.jumbotrace.injected.StackTraceWrapper;
+import ch.epfl.systemf.jumbotrace.replay.InputSite;
+import ch.epfl.systemf.jumbotrace.replay.Inputs;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.PrintStream;
-import java.nio.file.Files;
+import java.io.*;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
 
 import static ch.epfl.systemf.jumbotrace.Config.LOG_FILE;
 
 /**
  * The class containing the logging methods to create event records and save them to the log file
+ * <p>
+ * Static information about the events (names, positions, etc.) is computed by the javac plugin and registered once
+ * per instrumented class (see registerSites). Logging methods only receive the id of their site and the dynamic data
  */
 @SuppressWarnings("unused")
 public class ___JumboTrace___ {
@@ -39,12 +50,13 @@ public class ___JumboTrace___ {
     /**
      * Displays its arguments to PRINT_STREAM, unless it is null
      */
-    private static void log(Object... objects) {
+    private static void log(ThreadState state, Object... objects) {
         if (PRINT_STREAM != null) {
             StringBuilder sb = new StringBuilder();
             sb.append(COLOR_YELLOW_CODE);
             sb.append("[jbt] ");
-            sb.append(" ".repeat(indent));
+            sb.append("[").append(state.threadId).append("] ");
+            sb.append(" ".repeat(state.indent));
             for (var obj : objects) {
                 try {
                     sb.append(obj);
@@ -57,1110 +69,1919 @@ public class ___JumboTrace___ {
         }
     }
 
-    private static final ObjectOutputStream outputStream;
+    //<editor-fold desc="Switches">
+
+    /*
+     * Switches of the event families, named after the families of the plugin (see EventFamily). When the plugin guards
+     * the sites (guards=on), the logging code of each site only runs if the switch of its family is on. Since they are
+     * static final, the JIT compiler treats them as constants and removes the code of the families that are off
+     */
+
+    public static final boolean METHODS_ENABLED = isFamilyEnabled("methods");
+    public static final boolean CALLS_ENABLED = isFamilyEnabled("calls");
+    public static final boolean WRITES_ENABLED = isFamilyEnabled("writes");
+    public static final boolean READS_ENABLED = isFamilyEnabled("reads");
+    public static final boolean OPERATORS_ENABLED = isFamilyEnabled("operators");
+    public static final boolean CONTROL_FLOW_ENABLED = isFamilyEnabled("control-flow");
+    public static final boolean EXCEPTIONS_ENABLED = isFamilyEnabled("exceptions");
+    public static final boolean STATEMENTS_ENABLED = isFamilyEnabled("statements");
+
+    private static boolean isFamilyEnabled(String family) {
+        if (!Boolean.parseBoolean(System.getProperty(Config.TRACING_ENABLED_PROPERTY, "true"))) {
+            return false;
+        }
+        for (var disabledFamily : System.getProperty(Config.DISABLED_FAMILIES_PROPERTY, "").split(",")) {
+            if (disabledFamily.strip().equals(family)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Dynamic linking">
+
+    /*
+     * When the plugin links the logging calls dynamically (indy=on), each logging call is an invokedynamic instruction
+     * bootstrapped by linkLogger. Its call site is bound either to the logging method or to a no-op, according to the
+     * state of its family, and it is relinked each time its family is switched on or off (see setFamilyEnabled). The
+     * JIT compiler inlines the no-op, so that the calls of the families that are switched off cost almost nothing
+     */
+
+    private static final List<String> FAMILIES = List.of(
+            "methods", "calls", "writes", "reads", "operators", "control-flow", "exceptions", "statements"
+    );
+
+    /**
+     * A call site bound to its logging method or to a no-op
+     */
+    private record LinkedLogger(MutableCallSite callSite, MethodHandle logger, MethodHandle noOp) {
+    }
+
+    /**
+     * The call sites of a family, and whether the family is switched on
+     */
+    private static final class LinkedFamily {
+        private boolean enabled;
+        private final List<LinkedLogger> loggers = new ArrayList<>();
+
+        private LinkedFamily(boolean enabled) {
+            this.enabled = enabled;
+        }
+    }
+
+    // Guarded by itself
+    private static final Map<String, LinkedFamily> linkedFamilies = new HashMap<>();
+
+    /**
+     * Bootstrap method of the logging calls that are linked dynamically
+     *
+     * @param name       the name of the logging method (not used, see loggerName)
+     * @param type       the type of the logging method
+     * @param loggerName the name of the logging method. javac shares the call sites that have the same bootstrap
+     *                   arguments and type, whatever their name, hence the name is also a bootstrap argument
+     * @param family     the family of the logged event (named as in the options of the plugin, e.g. reads)
+     * @param valueIdx   the index of the argument returned by the logging method, or -1 if it returns void or a value
+     *                   that is not one of its arguments (the no-op then returns the default value of the return type)
+     */
+    public static CallSite linkLogger(MethodHandles.Lookup lookup, String name, MethodType type, String loggerName,
+                                      String family, int valueIdx) throws ReflectiveOperationException {
+        var logger = MethodHandles.lookup().findStatic(___JumboTrace___.class, loggerName, type);
+        var noOp = (valueIdx == -1) ? MethodHandles.empty(type) : makePassThrough(type, valueIdx);
+        synchronized (linkedFamilies) {
+            var linkedFamily = linkedFamilies.computeIfAbsent(family, f -> new LinkedFamily(isFamilyEnabled(f)));
+            var callSite = new MutableCallSite(linkedFamily.enabled ? logger : noOp);
+            linkedFamily.loggers.add(new LinkedLogger(callSite, logger, noOp));
+            return callSite;
+        }
+    }
+
+    /**
+     * Switches on or off the dynamically linked logging calls of a family (named as in the options of the plugin,
+     * e.g. reads). The initial state of the families is given by the switches (see Switches)
+     * <p>
+     * FIXME switching families on and off while the program runs may mismatch the enters and exits of methods and the
+     *  calls with the called methods
+     */
+    public static void setFamilyEnabled(String family, boolean enabled) {
+        if (!FAMILIES.contains(family)) {
+            throw new IllegalArgumentException("unknown event family: " + family);
+        }
+        synchronized (linkedFamilies) {
+            var linkedFamily = linkedFamilies.computeIfAbsent(family, f -> new LinkedFamily(enabled));
+            linkedFamily.enabled = enabled;
+            var callSites = new MutableCallSite[linkedFamily.loggers.size()];
+            for (var i = 0; i < callSites.length; i++) {
+                var linkedLogger = linkedFamily.loggers.get(i);
+                linkedLogger.callSite.setTarget(enabled ? linkedLogger.logger : linkedLogger.noOp);
+                callSites[i] = linkedLogger.callSite;
+            }
+            MutableCallSite.syncAll(callSites);
+        }
+    }
+
+    /**
+     * Switches on or off all the dynamically linked logging calls
+     */
+    public static void setTracingEnabled(boolean enabled) {
+        for (var family : FAMILIES) {
+            setFamilyEnabled(family, enabled);
+        }
+    }
+
+    /**
+     * @return a method handle of the given type that returns its argument at index valueIdx
+     */
+    private static MethodHandle makePassThrough(MethodType type, int valueIdx) {
+        var paramTypes = type.parameterList();
+        var identity = MethodHandles.identity(type.parameterType(valueIdx));
+        var passThrough = MethodHandles.dropArguments(identity, 0, paramTypes.subList(0, valueIdx));
+        passThrough = MethodHandles.dropArguments(passThrough, valueIdx + 1, paramTypes.subList(valueIdx + 1, paramTypes.size()));
+        return passThrough.asType(type);
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Method versions">
+
+    /*
+     * In programs instrumented with the dual=on option of the plugin, the methods keep an uninstrumented version, to
+     * which they dispatch at entry unless tracing is switched on for them. Each class registers its methods that have two
+     * versions, and gets the array of their flags. The flags are not volatile: a thread may keep running the previous
+     * version of a method for some time after it has been switched
+     */
+
+    /**
+     * The methods of a class that have two versions, and their flags (tracedFlags[i] is the flag of methodNames[i])
+     */
+    private record VersionedClass(String className, String[] methodNames, boolean[] tracedFlags) {
+    }
+
+    /**
+     * Tracing is switched on (or off) for the methods matching the pattern (see Config.TRACED_METHODS_PROPERTY)
+     */
+    private record TracingRule(Pattern pattern, boolean traced) {
+    }
+
+    // Both guarded by versionedClasses
+    private static final List<VersionedClass> versionedClasses = new ArrayList<>();
+    private static final List<TracingRule> tracingRules =
+            makeTracingRules(System.getProperty(Config.TRACED_METHODS_PROPERTY, ""), true);
+
+    /**
+     * Called by each class that has methods with two versions during its initialization
+     *
+     * @param className   the flat name of the class (e.g. com.acme.Outer$Inner)
+     * @param methodNames the names of its methods that have two versions
+     * @return the flags of the methods, initialized according to the rules set until now
+     */
+    public static boolean[] registerMethodVersions(String className, String... methodNames) {
+        var versionedClass = new VersionedClass(className, methodNames, new boolean[methodNames.length]);
+        synchronized (versionedClasses) {
+            versionedClasses.add(versionedClass);
+            for (var rule : tracingRules) {
+                applyTracingRule(rule, versionedClass);
+            }
+        }
+        return versionedClass.tracedFlags;
+    }
+
+    /**
+     * Switches tracing on or off for the methods that match the given patterns, in the classes that have already been
+     * initialized and in the ones that will be
+     *
+     * @param patterns comma-separated list of patterns (see Config.TRACED_METHODS_PROPERTY)
+     */
+    public static void setMethodsTraced(String patterns, boolean traced) {
+        synchronized (versionedClasses) {
+            for (var rule : makeTracingRules(patterns, traced)) {
+                tracingRules.add(rule);
+                for (var versionedClass : versionedClasses) {
+                    applyTracingRule(rule, versionedClass);
+                }
+            }
+        }
+    }
+
+    private static void applyTracingRule(TracingRule rule, VersionedClass versionedClass) {
+        var className = versionedClass.className;
+        for (var i = 0; i < versionedClass.methodNames.length; i++) {
+            if (rule.pattern.matcher(className + "." + versionedClass.methodNames[i]).matches()
+                    || matchesClassOrEnclosingClass(rule.pattern, className)) {
+                versionedClass.tracedFlags[i] = rule.traced;
+            }
+        }
+    }
+
+    private static boolean matchesClassOrEnclosingClass(Pattern pattern, String className) {
+        for (var name = className; ; name = name.substring(0, name.lastIndexOf('$'))) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+            if (name.lastIndexOf('$') < 0) {
+                return false;
+            }
+        }
+    }
+
+    private static List<TracingRule> makeTracingRules(String patterns, boolean traced) {
+        var rules = new ArrayList<TracingRule>();
+        for (var glob : patterns.split(",")) {
+            if (glob.isBlank()) {
+                continue;
+            }
+            var regex = new StringBuilder();
+            for (var c : glob.strip().toCharArray()) {
+                switch (c) {
+                    case '*' -> regex.append(".*");
+                    case '?' -> regex.append('.');
+                    default -> regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            rules.add(new TracingRule(Pattern.compile(regex.toString()), traced));
+        }
+        return rules;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Threads">
+
+    /**
+     * Size of the buffer of each thread, i.e. approximate size of the chunks handed to the drainer
+     */
+    private static final int THREAD_BUFFER_SIZE = 1 << 14;
+
+    /**
+     * If true, objects are only described the first time they are logged in a chunk, and after they are modified
+     */
+    private static final boolean DESCRIBE_OBJECTS_ONCE = Boolean.getBoolean(Config.DESCRIBE_OBJECTS_ONCE_PROPERTY);
+
+    private static final long DRAINER_IDLE_PARK_NANOS = 1_000_000;
+
+    private static final int NO_SITE = -1;
+
+    /**
+     * Representation of a frame on the stack
+     */
+    private static final class Frame {
+        // Id of the method enter event
+        private final long id;
+        // Depth in the stack
+        private final int depth;
+        // Frame of the method in the stack of the thread (see peekDirectCallee)
+        private final StackWalker.StackFrame method;
+        // Site of the call in progress in this frame, until it returns or an exception is caught in this frame
+        private int callSiteId = NO_SITE;
+
+        private Frame(long id, int depth, StackWalker.StackFrame method) {
+            this.id = id;
+            this.depth = depth;
+            this.method = method;
+        }
+    }
+
+    /**
+     * Receiver of a call, made when the stack of its thread had the given size
+     */
+    private record PendingReceiver(Object receiver, int stackSize) {
+    }
+
+    /**
+     * A chunk of events of a thread, waiting to be written to the log file by the drainer
+     */
+    private record Chunk(long threadId, byte[] bytes) {
+    }
+
+    /**
+     * Tracing state of a thread. Only accessed by its thread, except when the drainer flushes the buffer of a thread
+     * that is not running anymore
+     */
+    private static final class ThreadState {
+        private final Thread thread = Thread.currentThread();
+        private final long threadId = thread.getId();
+        // Events ids are generated per thread (the decoder makes them unique across threads)
+        private long nextEventId = 1;
+        // Logging has to be disabled during calls toString from the tracer to avoid infinite recursion (because toString itself may be instrumented)
+        private boolean loggingEnabled = true;
+        private int indent = 0;
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        // Receivers of the calls that have not returned yet, innermost first (only used if DESCRIBE_OBJECTS_ONCE)
+        private final Deque<PendingReceiver> pendingReceivers = new ArrayDeque<>();
+        /* Enter id of the frame from which each lambda has last been entered through non-instrumented frames (0 if
+         * none, as event ids start at 1), site of the call in progress in that frame, and depth and frame of the
+         * lambda then, indexed by site id (see isReenteredLambda) */
+        private long[] lambdaEnclosingIds = new long[0];
+        private int[] lambdaCallSiteIds = new int[0];
+        private int[] lambdaDepths = new int[0];
+        private StackWalker.StackFrame[] lambdaMethods = new StackWalker.StackFrame[0];
+        // Number of hits of each site by this thread, indexed by site id (only used if THROTTLE_THRESHOLD > 0)
+        private long[] siteHits = new long[0];
+        // Number of hits of each hot site by this thread, indexed by site id (see countHit)
+        private long[] countedHits = new long[0];
+        // Number of events logged at each site by this thread, indexed by site id (only used if PROFILE_FILE != null)
+        private long[] profileHits = new long[0];
+        // Values of the events of a sequence of statements, filled right before they are logged (see fusedValues)
+        private long[] fusedValues = new long[0];
+        // single producer (this thread): full buffers are handed to the drainer through the chunks queue
+        private final EventEncoder encoder = new EventEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                chunks.add(new Chunk(threadId, Arrays.copyOfRange(b, off, off + len)));
+            }
+        }, THREAD_BUFFER_SIZE, DESCRIBE_OBJECTS_ONCE);
+
+        private long genEventId() {
+            return nextEventId++;
+        }
+
+        private void enableLogging() {
+            loggingEnabled = true;
+        }
+
+        private void disableLogging() {
+            loggingEnabled = false;
+        }
+
+        private long getEnclosingEnterId() {
+            return stack.isEmpty() ? Config.NO_PARENT_EVENT_CODE : stack.getFirst().id;
+        }
+
+        private int getEnclosingDepth() {
+            return stack.isEmpty() ? 0 : stack.getFirst().depth;
+        }
+
+        private int getEnclosingCallSiteId() {
+            return stack.isEmpty() ? NO_SITE : stack.getFirst().callSiteId;
+        }
+    }
+
+    private static final Queue<Chunk> chunks = new ConcurrentLinkedQueue<>();
+    private static final Queue<ThreadState> threadStates = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(() -> {
+        var state = new ThreadState();
+        threadStates.add(state);
+        return state;
+    });
+
+    private static ThreadState threadState() {
+        return threadState.get();
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Log file">
+
+    // Only written by the drainer, and by registerSites (synchronized on it)
+    private static final EventEncoder logFile;
+    private static boolean logFileClosed = false;
+
+    // The site tables registered so far, repeated at the beginning of each segment of the log. Guarded by logFile
+    private static final List<SiteTableRecord> siteTables = new ArrayList<>();
+
+    private record SiteTableRecord(int firstSiteId, String table) {
+    }
+
+    private static final Thread drainer = new Thread(___JumboTrace___::drain, "jumbotrace-drainer");
+    private static volatile boolean closing = false;
 
     static {
         try {
-            var path = Path.of(LOG_FILE);
-            if (!Files.exists(path)) {
-                Files.createFile(path);
-            }
-            outputStream = new ObjectOutputStream(new FileOutputStream(LOG_FILE));
+            logFile = new EventEncoder(new SegmentedLogWriter(
+                    LOG_FILE,
+                    Integer.getInteger(Config.SEGMENT_SIZE_PROPERTY, Config.DEFAULT_SEGMENT_SIZE),
+                    Integer.getInteger(Config.MAX_SEGMENTS_PROPERTY, Config.DEFAULT_MAX_SEGMENTS),
+                    Long.getLong(Config.MAX_LOG_SIZE_PROPERTY, Config.DEFAULT_MAX_LOG_SIZE),
+                    ___JumboTrace___::segmentPrologue
+            ));
+            var state = threadState();
             var time = LocalDateTime.now();
-            outputStream.writeObject(new InitializationEvent(genEventId(), Config.NO_PARENT_EVENT_CODE, time.toString()));
+            state.encoder.writeInitialization(state.genEventId(), time.toString());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        drainer.setDaemon(true);
+        drainer.start();
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closing = true;
+            LockSupport.unpark(drainer);
             try {
-                outputStream.flush();
-                outputStream.close();
+                drainer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    /**
+     * Body of the drainer thread, that writes the chunks produced by the traced threads to the log file
+     */
+    private static void drain() {
+        while (true) {
+            var chunk = chunks.poll();
+            if (chunk != null) {
+                synchronized (logFile) {
+                    logFile.writeThreadChunk(chunk.threadId, chunk.bytes);
+                }
+            } else if (closing) {
+                flushThreadBuffers(true);
+                if (chunks.isEmpty()) {
+                    closeLogFile();
+                    return;
+                }
+            } else {
+                flushThreadBuffers(false);
+                synchronized (logFile) {
+                    try {
+                        logFile.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                LockSupport.parkNanos(DRAINER_IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Hands the partially filled buffers of the threads that have terminated to the drainer
+     * <p>
+     * The encoder of a thread is not thread-safe, so the buffer of a thread that has not terminated is only flushed if
+     * the thread can never write to it again, i.e. if it has called System.exit (outside of logging code). The events
+     * still in the buffers of the other threads that are alive when the program exits (e.g. daemon threads that are
+     * running, sleeping or waiting) are lost
+     *
+     * @param includeExiting if true, also flushes the buffer of the thread that is blocked in System.exit
+     */
+    private static void flushThreadBuffers(boolean includeExiting) {
+        for (var iter = threadStates.iterator(); iter.hasNext(); ) {
+            var state = iter.next();
+            // a terminated thread is observed through getState, which makes its writes visible to this thread
+            var status = state.thread.getState();
+            if (status == Thread.State.TERMINATED
+                    || (includeExiting && status != Thread.State.RUNNABLE && isBlockedInExit(state))) {
+                iter.remove();
+                flushThreadBuffer(state);
+            }
+        }
+    }
+
+    /**
+     * @return true iff the thread is the one that runs the shutdown hooks in System.exit, from which it never returns,
+     * and has not called System.exit from logging code (e.g. a toString called by a logging method)
+     */
+    private static boolean isBlockedInExit(ThreadState state) {
+        for (var frame : state.thread.getStackTrace()) {
+            if (frame.getClassName().equals("java.lang.Shutdown") && frame.getMethodName().equals("runHooks")) {
+                /* The thread has started the hook that set closing before the drainer read it, so its writes are
+                 * visible to this thread */
+                return state.loggingEnabled;
+            }
+        }
+        return false;
+    }
+
+    private static void flushThreadBuffer(ThreadState state) {
+        try {
+            state.encoder.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (THROTTLE_THRESHOLD > 0) {
+            synchronized (logFile) {
+                logFile.writeSiteHits(state.threadId, THROTTLE_THRESHOLD, THROTTLE_PERIOD, state.siteHits);
+            }
+        }
+        if (state.countedHits.length > 0) {
+            synchronized (logFile) {
+                // no event of a hot site is logged, hence the infinite period
+                logFile.writeSiteHits(state.threadId, 0, Long.MAX_VALUE, state.countedHits);
+            }
+        }
+        if (PROFILE_FILE != null) {
+            addToProfile(state.profileHits);
+            addToProfile(state.countedHits);
+        }
+    }
+
+    /**
+     * Called by the writer of the log (hence with the lock on logFile held) each time it starts a segment
+     */
+    private static byte[] segmentPrologue() {
+        var bytes = new ByteArrayOutputStream();
+        var encoder = new EventEncoder(bytes);
+        for (var siteTable : siteTables) {
+            encoder.writeSiteTable(siteTable.firstSiteId, siteTable.table);
+        }
+        try {
+            encoder.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void closeLogFile() {
+        synchronized (logFile) {
+            if (PROFILE_FILE != null) {
+                writeProfile();
+            }
+            try {
+                logFile.close();
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                throw new UncheckedIOException(e);
+            }
+            logFileClosed = true;
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Stack">
+
+    // Same frames as in the stack trace of an exception
+    private static final StackWalker stackWalker = StackWalker.getInstance(
+            Set.of(StackWalker.Option.SHOW_REFLECT_FRAMES, StackWalker.Option.RETAIN_CLASS_REFERENCE));
+
+    /**
+     * Fast path of methodEnter: if the entered method may be the one called at the call site in progress in the
+     * enclosing frame, only walks the two topmost frames, to check that the caller of the entered method is
+     * the enclosing frame. The name and signature alone do not prove it, as non-instrumented frames may be in between
+     * (e.g. AbstractCollection.toString and String.valueOf between List.toString and the toString of an element)
+     *
+     * @return the frame of the entered method, or null if it is not called by the enclosing frame
+     */
+    private static StackWalker.@Nullable StackFrame peekDirectCallee(ThreadState state, int enterSiteId) {
+        var callSiteId = state.getEnclosingCallSiteId();
+        var methodKeys = ___JumboTrace___.methodKeys;
+        if (callSiteId == NO_SITE || methodKeys[callSiteId] != methodKeys[enterSiteId]) {
+            return null;
+        }
+        // frames.get(0) is the current frame (skipping this method, enterMethod and its caller)
+        var frames = stackWalker.walk(s -> s.skip(3).limit(2).toList());
+        var isCalledByEnclosing = frames.size() == 2 && isSameMethod(frames.get(1), state.stack.getFirst().method);
+        return isCalledByEnclosing ? frames.get(0) : null;
+    }
+
+    private static boolean isSameMethod(StackWalker.StackFrame frame1, StackWalker.StackFrame frame2) {
+        return frame1.getDeclaringClass() == frame2.getDeclaringClass()
+                && frame1.getMethodName().equals(frame2.getMethodName())
+                && frame1.getDescriptor().equals(frame2.getDescriptor());
+    }
+
+    /**
+     * Fast path of lambdaEnter: the lambda has already been entered during the call in progress in the enclosing frame,
+     * through non-instrumented frames (e.g. of a stream pipeline, that calls it once per element), whose enters have
+     * been logged the first time. A lambda passed to several calls of the same frame (e.g. to Stream.map, then to
+     * Optional.map) is entered through different frames for each of them, hence the stack is walked again when the
+     * call differs
+     * <p>
+     * FIXME the non-instrumented frames are assumed to be the same for all the enters during the same call, which may
+     *  not hold (e.g. for recursive pipelines, or comparators called by a sort at different depths), hence the depth of
+     *  the lambda and its non-instrumented enclosing frames may be wrong
+     */
+    private static boolean isReenteredLambda(ThreadState state, int lambdaSiteId) {
+        var callSiteId = state.getEnclosingCallSiteId();
+        return callSiteId != NO_SITE
+                && lambdaSiteId < state.lambdaEnclosingIds.length
+                && state.lambdaEnclosingIds[lambdaSiteId] == state.getEnclosingEnterId()
+                && state.lambdaCallSiteIds[lambdaSiteId] == callSiteId;
+    }
+
+    private static void recordLambdaEnter(ThreadState state, int lambdaSiteId, int depth,
+                                          StackWalker.StackFrame method) {
+        if (lambdaSiteId >= state.lambdaEnclosingIds.length) {
+            state.lambdaEnclosingIds = Arrays.copyOf(state.lambdaEnclosingIds, methodKeys.length);
+            state.lambdaCallSiteIds = Arrays.copyOf(state.lambdaCallSiteIds, methodKeys.length);
+            state.lambdaDepths = Arrays.copyOf(state.lambdaDepths, methodKeys.length);
+            state.lambdaMethods = Arrays.copyOf(state.lambdaMethods, methodKeys.length);
+        }
+        state.lambdaEnclosingIds[lambdaSiteId] = state.getEnclosingEnterId();
+        state.lambdaCallSiteIds[lambdaSiteId] = state.getEnclosingCallSiteId();
+        state.lambdaDepths[lambdaSiteId] = depth;
+        state.lambdaMethods[lambdaSiteId] = method;
+    }
+
+    /**
+     * Slow path of methodEnter: walks the stack, and only materializes the frames between the enclosing frame and the
+     * current one
+     *
+     * @param nonInstrumentedEnters receives the frames that are between the enclosing frame and the current one, to
+     *                              populate nonInstrumentedEnters in MethodEnter
+     * @return the frames of the stack, the current one first and the bottom of the stack last
+     * @see MethodEnter#nonInstrumentedEnters
+     */
+    private static List<StackWalker.StackFrame> walkStack(ThreadState state,
+                                                          List<NonInstrumentedEnter> nonInstrumentedEnters) {
+        // frames.get(0) is the current frame (skipping enterMethod and its caller), and the last one is the bottom of the stack
+        var frames = stackWalker.walk(s -> s.skip(3).toList());
+        var thisDepth = frames.size();
+        for (var i = thisDepth - state.getEnclosingDepth() - 1; i >= 1; i--) {
+            var frame = frames.get(i);
+            var ste = frame.toStackTraceElement();
+            nonInstrumentedEnters.add(new NonInstrumentedEnter(
+                    ste.getClassName(), ste.getMethodName(), ste.getFileName(), ste.getLineNumber()
+            ));
+        }
+        return frames;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Sites">
+
+    // Guarded by logFile
+    private static int nextSiteId = 0;
+
+    // Only needed to display messages, hence only populated if PRINT_STREAM is not null
+    private static final List<Site> sites = Collections.synchronizedList(new ArrayList<>());
+
+    /*
+     * methodKeys[siteId] identifies the method (name and signature) that is entered or called at a site, to match calls
+     * with the corresponding enters. Replaced by a larger copy when sites are registered (hence the volatile). The map
+     * is guarded by logFile
+     */
+    private static volatile int[] methodKeys = new int[0];
+    private static final Map<String, Integer> methodKeysByMethod = new HashMap<>();
+
+    /*
+     * fusedEvents[siteId] describes the events logged at a site of fusedEvents (null for other sites). Replaced by a
+     * larger copy when sites are registered, like methodKeys
+     */
+    private static volatile FusedEvent[][] fusedEvents = new FusedEvent[0][];
+
+    /**
+     * An event logged by fusedEvents
+     *
+     * @param valueTypes the descriptors of the types of the values of the event (e.g. "IIZ")
+     * @param throttled  whether the events of the site are throttled by their own logging method (see isThrottled)
+     */
+    private record FusedEvent(int siteId, String valueTypes, boolean throttled) {
+    }
+
+    /**
+     * Added by registerSites to the id of the first site of a table, and by the instrumented code to the indices of the
+     * sites in the table (the bias cancels out modulo 2^32). Until the static initializer of a class has registered its
+     * table (e.g. when the initialization of another class calls back into it), the base of its sites is still 0, so
+     * the ids of its sites are negative and their events are dropped (see isRegistered)
+     * <p>
+     * Must match Instrumentation.SITE_ID_BIAS
+     */
+    private static final int SITE_ID_BIAS = Integer.MIN_VALUE;
+
+    /**
+     * @return true iff the site has been registered (see SITE_ID_BIAS). Must be checked before the event of the site is
+     * started, so that the events of the classes that are not initialized yet are not attributed to the wrong sites
+     */
+    private static boolean isRegistered(int siteId) {
+        return siteId >= 0;
+    }
+
+    /**
+     * Called by each instrumented class during its initialization
+     * <p>
+     * The table is written directly to the log file (not through the buffer of the current thread), so that it precedes
+     * the events of all threads that use these sites
+     *
+     * @param nSites the number of sites in the table
+     * @param table the sites table of the class (see Site), split into chunks to fit in the constant pool
+     * @return the id of the first site of the table (the following sites have consecutive ids), minus SITE_ID_BIAS
+     */
+    public static int registerSites(int nSites, String... table) {
+        var tableStr = String.join("", table);
+        synchronized (logFile) {
+            var firstSiteId = nextSiteId;
+            nextSiteId += nSites;
+            if (!logFileClosed) {
+                siteTables.add(new SiteTableRecord(firstSiteId, tableStr));
+                logFile.writeSiteTable(firstSiteId, tableStr);
+            }
+            var newSites = Site.parseTable(tableStr);
+            var newMethodKeys = Arrays.copyOf(methodKeys, nextSiteId);
+            for (var i = 0; i < newSites.size(); i++) {
+                newMethodKeys[firstSiteId + i] = methodKey(newSites.get(i));
+            }
+            methodKeys = newMethodKeys;
+            var newFusedEvents = Arrays.copyOf(fusedEvents, nextSiteId);
+            for (var i = 0; i < newSites.size(); i++) {
+                if (newSites.get(i).kind().equals("fusedEvents")) {
+                    newFusedEvents[firstSiteId + i] = fusedEventsOf(newSites.get(i), newSites, firstSiteId);
+                }
+            }
+            fusedEvents = newFusedEvents;
+            if (PRINT_STREAM != null) {
+                sites.addAll(newSites);
+            }
+            return firstSiteId - SITE_ID_BIAS;
+        }
+    }
+
+    private static int methodKey(Site site) {
+        var isMethodKeySite = switch (site.kind()) {
+            // a lambda is entered through the method of its functional interface
+            case "methodEnter", "lambdaEnter" -> true;
+            /* the frame of a lambda whose enter is not logged is not on the stack of the thread, so calls made from it
+             * are not made by the enclosing frame, and calls to excluded methods may reach instrumented code only through
+             * non-instrumented frames, hence they are never direct */
+            case "staticMethodCall", "nonStaticMethodCall" -> !site.booleanAttr(3) && !site.booleanAttr(4);
+            default -> false;
+        };
+        return isMethodKeySite ?
+                methodKeysByMethod.computeIfAbsent(site.attr(1) + site.attr(2), k -> methodKeysByMethod.size()) :
+                -1;
+    }
+
+    /**
+     * @param tableSites the sites of the table of the fused site, whose attributes are the index of the site of each
+     *                   event in this table, followed by the types of its values
+     */
+    private static FusedEvent[] fusedEventsOf(Site fusedSite, List<Site> tableSites, int firstSiteId) {
+        var events = new FusedEvent[fusedSite.attrs().size() / 2];
+        for (var i = 0; i < events.length; i++) {
+            var siteIdx = fusedSite.intAttr(2 * i);
+            var throttled = switch (tableSites.get(siteIdx).kind()) {
+                case "localVarRead", "unaryOp", "binaryOperator", "constantValue" -> true;
+                default -> false;
+            };
+            events[i] = new FusedEvent(firstSiteId + siteIdx, fusedSite.attr(2 * i + 1), throttled);
+        }
+        return events;
+    }
+
+    /**
+     * Starts the event of the given site. The dynamic data of the event must be written right after
+     * @return the id of the event
+     */
+    private static long startEvent(ThreadState state, int siteId) {
+        if (PROFILE_FILE != null) {
+            state.profileHits = countHit(state.profileHits, siteId);
+        }
+        var id = state.genEventId();
+        state.encoder.writeSiteEvent(id, state.getEnclosingEnterId(), siteId);
+        return id;
+    }
+
+    /**
+     * Called by the loggers of field writes, which run before the write, so that the next reference to the instance
+     * describes it again
+     */
+    private static void markModified(Object instance) {
+        if (DESCRIBE_OBJECTS_ONCE) {
+            ObjectIds.markModified(instance);
+        }
+    }
+
+    /**
+     * Called when a call returns: its receiver may have been modified by the callee, possibly by non-instrumented code
+     * (e.g. StringBuilder.append), so it is described again the next time it is logged. The receivers of the calls
+     * that terminated with an exception are also popped here
+     */
+    private static void markReceiversModified(ThreadState state) {
+        if (DESCRIBE_OBJECTS_ONCE) {
+            var stackSize = state.stack.size();
+            while (!state.pendingReceivers.isEmpty() && state.pendingReceivers.peekFirst().stackSize() >= stackSize) {
+                ObjectIds.markModified(state.pendingReceivers.removeFirst().receiver());
+            }
+        }
+    }
+
+    private static String attr(int siteId, int idx) {
+        return sites.get(siteId).attr(idx);
+    }
+
+    private static String position(int siteId) {
+        var site = sites.get(siteId);
+        return formatPositionInterval(site.filename(), site.startLine(), site.startCol(), site.endLine(), site.endCol());
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Throttling">
+
+    private static final long THROTTLE_THRESHOLD =
+            Long.getLong(Config.THROTTLE_THRESHOLD_PROPERTY, Config.DEFAULT_THROTTLE_THRESHOLD);
+    private static final long THROTTLE_PERIOD =
+            Math.max(1, Long.getLong(Config.THROTTLE_PERIOD_PROPERTY, Config.DEFAULT_THROTTLE_PERIOD));
+
+    /**
+     * Counts a hit of the site by the current thread, and tells whether its event should be dropped: once a site has
+     * been hit THROTTLE_THRESHOLD times by a thread, only one of every THROTTLE_PERIOD subsequent hits is logged. The
+     * true number of hits is written to the log when the thread terminates (see flushThreadBuffer)
+     * <p>
+     * Must only be called by the loggers of events that no other event refers to (reads, constants, operators and conditions)
+     */
+    private static boolean isThrottled(ThreadState state, int siteId) {
+        if (THROTTLE_THRESHOLD == 0) {
+            return false;
+        }
+        var siteHits = state.siteHits;
+        if (siteId >= siteHits.length) {
+            // the site has been registered after the last hit of this thread
+            siteHits = state.siteHits = Arrays.copyOf(siteHits, methodKeys.length);
+        }
+        var hits = ++siteHits[siteId];
+        return hits > THROTTLE_THRESHOLD && (hits - THROTTLE_THRESHOLD) % THROTTLE_PERIOD != 0;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Hit counts">
+
+    private static final @Nullable String PROFILE_FILE = System.getProperty(Config.PROFILE_FILE_PROPERTY);
+
+    // Number of hits of each site by the threads that have terminated (see Config.PROFILE_FILE_PROPERTY). Guarded by
+    // logFile
+    private static long[] profileHits = new long[0];
+
+    /**
+     * Called instead of the logging method of a site that the plugin has selected as hot (see the hits option of the
+     * plugin): counts its hit, and logs nothing. The number of hits is written to the log when the thread terminates
+     * (see flushThreadBuffer)
+     */
+    public static void countHit(int siteId) {
+        if (isRegistered(siteId)) {
+            var state = threadState();
+            state.countedHits = countHit(state.countedHits, siteId);
+        }
+    }
+
+    /**
+     * @return hits, or a larger copy of it if the site has been registered after it has been allocated, where the
+     * counter of the site has been incremented
+     */
+    private static long[] countHit(long[] hits, int siteId) {
+        if (siteId >= hits.length) {
+            hits = Arrays.copyOf(hits, methodKeys.length);
+        }
+        hits[siteId] += 1;
+        return hits;
+    }
+
+    private static void addToProfile(long[] threadHits) {
+        synchronized (logFile) {
+            if (threadHits.length > profileHits.length) {
+                profileHits = Arrays.copyOf(profileHits, threadHits.length);
+            }
+            for (var siteId = 0; siteId < threadHits.length; siteId++) {
+                profileHits[siteId] += threadHits[siteId];
+            }
+        }
+    }
+
+    /**
+     * Writes the profile of the sites that have been hit (see Config.PROFILE_FILE_PROPERTY). Must be called with the lock
+     * on logFile held
+     */
+    private static void writeProfile() {
+        try (var writer = new PrintWriter(new BufferedWriter(new FileWriter(PROFILE_FILE)))) {
+            for (var siteTable : siteTables) {
+                var siteId = siteTable.firstSiteId;
+                for (var site : Site.parseTable(siteTable.table)) {
+                    if (siteId < profileHits.length && profileHits[siteId] > 0) {
+                        writer.println(profileHits[siteId] + "\t" + site.kind() + "\t" + site.filename() + "\t" +
+                                site.startLine() + "\t" + site.startCol() + "\t" + site.endLine() + "\t" + site.endCol());
+                    }
+                    siteId += 1;
+                }
             }
-        }));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Inputs">
+
+    /*
+     * In programs instrumented with the replay=on option of the plugin, the calls that read nondeterministic inputs are
+     * redirected to the methods below, which take the arguments of the call followed by its site (see InputSite). The
+     * inputs are read by Inputs, which records or replays them when the program is run by ReplayDriver
+     */
+
+    public static long nanoTime(String className, int siteIdx) {
+        return Inputs.nanoTime(new InputSite(className, siteIdx));
+    }
+
+    public static long currentTimeMillis(String className, int siteIdx) {
+        return Inputs.currentTimeMillis(new InputSite(className, siteIdx));
+    }
+
+    public static double mathRandom(String className, int siteIdx) {
+        return Inputs.mathRandom(new InputSite(className, siteIdx));
+    }
+
+    public static Random newRandom(String className, int siteIdx) {
+        return Inputs.newRandom(new InputSite(className, siteIdx));
     }
 
-    // Events ids generation
-    private static long nextEventId = 1;
+    public static @Nullable String getenv(String name, String className, int siteIdx) {
+        return Inputs.getenv(name, new InputSite(className, siteIdx));
+    }
+
+    public static Map<String, String> getenv(String className, int siteIdx) {
+        return Inputs.getenv(new InputSite(className, siteIdx));
+    }
+
+    public static byte[] readAllBytes(Path path, String className, int siteIdx) throws IOException {
+        return Inputs.readAllBytes(path, new InputSite(className, siteIdx));
+    }
+
+    public static String readString(Path path, String className, int siteIdx) throws IOException {
+        return Inputs.readString(path, StandardCharsets.UTF_8, new InputSite(className, siteIdx));
+    }
+
+    public static String readString(Path path, Charset charset, String className, int siteIdx) throws IOException {
+        return Inputs.readString(path, charset, new InputSite(className, siteIdx));
+    }
+
+    public static List<String> readAllLines(Path path, String className, int siteIdx) throws IOException {
+        return Inputs.readAllLines(path, StandardCharsets.UTF_8, new InputSite(className, siteIdx));
+    }
+
+    public static List<String> readAllLines(Path path, Charset charset, String className, int siteIdx) throws IOException {
+        return Inputs.readAllLines(path, charset, new InputSite(className, siteIdx));
+    }
 
-    private static long genEventId() {
-        return nextEventId++;
+    public static FileInputStream newFileInputStream(String name, String className, int siteIdx) throws IOException {
+        // as in FileInputStream(String), a null name is only rejected by FileInputStream(File)
+        return Inputs.newFileInputStream(name == null ? null : new File(name), new InputSite(className, siteIdx));
     }
 
-    // Logging has to be disabled during calls toString from the tracer to avoid infinite recursion (because toString itself may be instrumented)
-    private static boolean loggingEnabled = true;
-    private static int indent = 0;
+    public static FileInputStream newFileInputStream(File file, String className, int siteIdx) throws IOException {
+        return Inputs.newFileInputStream(file, new InputSite(className, siteIdx));
+    }
 
-    private static void enableLogging() {
-        loggingEnabled = true;
+    public static FileReader newFileReader(String name, String className, int siteIdx) throws IOException {
+        return Inputs.newFileReader(name == null ? null : new File(name), new InputSite(className, siteIdx));
     }
 
-    private static void disableLogging() {
-        loggingEnabled = false;
+    public static FileReader newFileReader(File file, String className, int siteIdx) throws IOException {
+        return Inputs.newFileReader(file, new InputSite(className, siteIdx));
     }
 
+    //</editor-fold>
+
     /**
-     * Representation of a frame on the stack
-     * @param id the id of the method enter event
-     * @param depth the depth in the stack
+     * Records the call logged at the given site as the one in progress in the current frame, so that the enters of the
+     * callee and of the lambdas that it calls can skip walking the stack
      */
-    private record Frame(long id, int depth) {
+    private static void setPendingCall(ThreadState state, int siteId) {
+        if (!state.stack.isEmpty()) {
+            state.stack.getFirst().callSiteId = siteId;
+        }
+    }
+
+    private static void clearPendingCall(ThreadState state) {
+        if (!state.stack.isEmpty()) {
+            state.stack.getFirst().callSiteId = NO_SITE;
+        }
     }
 
-    private static final Deque<Frame> stack = new LinkedList<>();
+    /*
+     * A call is logged in several steps, so that the arguments do not have to be boxed into an array:
+     *     if (staticMethodCall(nArgs, siteId)) { methodCallArg(arg1); ...; methodCallArg(argN); methodCallEnd(siteId); }
+     * Logging stays disabled from the start of the call event to its end
+     */
 
-    private static long getEnclosingEnterId() {
-        return stack.isEmpty() ? Config.NO_PARENT_EVENT_CODE : stack.getFirst().id;
+    /**
+     * @return true iff the call is logged, in which case the arguments must be logged right after
+     */
+    public static boolean staticMethodCall(int nArgs, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "CALL: ", attr(siteId, 0), ".", attr(siteId, 1), attr(siteId, 2), " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValuesCount(nArgs);
+            return true;
+        }
+        return false;
     }
 
-    private static int getEnclosingDepth(){
-        return stack.isEmpty() ? 0 : stack.getFirst().depth;
+    /**
+     * @return true iff the call is logged, in which case the arguments must be logged right after
+     */
+    public static boolean nonStaticMethodCall(Object receiver, int nArgs, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "CALL: ", attr(siteId, 0), ".", attr(siteId, 1), attr(siteId, 2), " receiver='", receiver,
+                        "' at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(receiver);
+            state.encoder.writeValuesCount(nArgs);
+            if (DESCRIBE_OBJECTS_ONCE) {
+                state.pendingReceivers.addFirst(new PendingReceiver(receiver, state.stack.size()));
+            }
+            return true;
+        }
+        return false;
     }
 
     /**
-     * To populate nonInstrumentedEnters in MethodEnter
-     * @see MethodEnter#nonInstrumentedEnters
+     * Must only be called between the start of a logged call and its end
      */
-    private static List<NonInstrumentedEnter> computeNonInstrumentedEnters(StackTraceWrapper stackTrace) {
-        var enclosingDepth = getEnclosingDepth();
-        var thisDepth = stackTrace.length();
-        var nonInstrumentedEnters = new ArrayList<NonInstrumentedEnter>(thisDepth - enclosingDepth - 1);
-        for (var i = enclosingDepth; i < thisDepth-1; i++){
-            var ste = stackTrace.get(i);
-            nonInstrumentedEnters.add(new NonInstrumentedEnter(
-                    ste.getClassName(), ste.getMethodName(), ste.getFileName(), ste.getLineNumber()
-            ));
+    public static void methodCallArg(@Specialize Object arg) {
+        var state = threadState();
+        if (PRINT_STREAM != null) {
+            log(state, "    arg='", arg, "'");
         }
-        return nonInstrumentedEnters;
+        state.encoder.writeValueOf(arg);
+    }
+
+    public static void methodCallEnd(int siteId) {
+        var state = threadState();
+        setPendingCall(state, siteId);
+        state.enableLogging();
+    }
+
+    public static void methodEnter(int siteId) {
+        enterMethod(siteId, false);
     }
 
     /**
-     * Writes the event to the binary file using serialization
+     * Replaces methodEnter at guarded sites (see Switches). The call is not guarded by the instrumented code, as it must
+     * remain the first statement of constructors (javac only inserts field initializers in constructors that start with
+     * a call)
      */
-    private static void writeEvent(Event event) {
-        try {
-            outputStream.writeObject(event);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public static void guardedMethodEnter(int siteId) {
+        if (METHODS_ENABLED) {
+            enterMethod(siteId, false);
         }
     }
 
-    public static void staticMethodCall(String className, String methodName, String methodSig, Object[] args,
-                                        String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("CALL: ", className, ".", methodName, methodSig, " args=", Arrays.toString(args),
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            var event = new StaticMethodCall(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    methodName,
-                    methodSig,
-                    makeArgsValuesArray(args),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            );
-            writeEvent(event);
-            enableLogging();
-        }
-    }
-
-    public static void nonStaticMethodCall(String className, String methodName, String methodSig, Object receiver, Object[] args,
-                                           String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("CALL: ", className, ".", methodName, methodSig, " receiver='", receiver, "' args=", Arrays.toString(args),
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            var event = new NonStaticMethodCall(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    methodName,
-                    methodSig,
-                    Value.valueFor(receiver),
-                    makeArgsValuesArray(args),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            );
-            writeEvent(event);
-            enableLogging();
-        }
-    }
-
-    public static void methodEnter(String className, String methodName, String methodSig, String filename, int line, int col) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("ENTER: ", className, ".", methodName, methodSig, " at ", formatPosition(filename, line, col));
-            indent += 1;
-            var stackTrace = new StackTraceWrapper((new Exception()).getStackTrace(), 1);
-            var nonInstrumentedEnters = computeNonInstrumentedEnters(stackTrace);
-            var event = new MethodEnter(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    methodName,
-                    methodSig,
-                    nonInstrumentedEnters,
-                    filename,
-                    line,
-                    col
-            );
-            stack.addFirst(new Frame(event.id(), stackTrace.length()));
-            writeEvent(event);
-            enableLogging();
-        }
-    }
-
-    public static void methodExit(String methodName, String filename, int line, int col) {
-        if (loggingEnabled) {
-            disableLogging();
-            indent -= 1;
-            log("METHOD EXIT ", methodName, " at ", formatPosition(filename, line, col));
-            var correspondingEnterId = stack.removeFirst().id;
-            var event = new MethodExit(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    correspondingEnterId,
-                    methodName,
-                    filename,
-                    line,
-                    col
-            );
-            writeEvent(event);
-            enableLogging();
-        }
-    }
-
-    public static @Specialize Object methodRet(String className, String methodName, @Specialize Object retValue,
-                                               String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log(className, ".", methodName, " RETURNS '", retValue, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new MethodReturnVal(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    methodName,
-                    Value.valueFor(retValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    /**
+     * Logged at the beginning of the body of a lambda, that is entered like a method (usually from non-instrumented
+     * code, e.g. a stream pipeline), and exited through methodExit
+     */
+    public static void lambdaEnter(int siteId) {
+        enterMethod(siteId, true);
+    }
+
+    private static void enterMethod(int siteId, boolean isLambda) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ENTER: ", attr(siteId, 0), ".", attr(siteId, 1), attr(siteId, 2), " at ", position(siteId));
+            }
+            state.indent += 1;
+            List<NonInstrumentedEnter> nonInstrumentedEnters;
+            int depth;
+            StackWalker.StackFrame method;
+            var directCallee = peekDirectCallee(state, siteId);
+            if (directCallee != null) {
+                nonInstrumentedEnters = List.of();
+                depth = state.getEnclosingDepth() + 1;
+                method = directCallee;
+            } else if (isLambda && isReenteredLambda(state, siteId)) {
+                nonInstrumentedEnters = List.of();
+                depth = state.lambdaDepths[siteId];
+                method = state.lambdaMethods[siteId];
+            } else {
+                nonInstrumentedEnters = new ArrayList<>();
+                var frames = walkStack(state, nonInstrumentedEnters);
+                depth = frames.size();
+                method = frames.get(0);
+                if (isLambda) {
+                    recordLambdaEnter(state, siteId, depth, method);
+                }
+            }
+            var id = startEvent(state, siteId);
+            state.encoder.writeNonInstrumentedEnters(nonInstrumentedEnters);
+            state.stack.addFirst(new Frame(id, depth, method));
+            state.enableLogging();
+        }
+    }
+
+    public static void methodExit(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            state.indent -= 1;
+            if (PRINT_STREAM != null) {
+                log(state, "METHOD EXIT ", attr(siteId, 0), " at ", position(siteId));
+            }
+            var correspondingEnter = state.stack.pollFirst();
+            // the enter may be missing if the methods family has been switched on while the method was running
+            if (correspondingEnter != null) {
+                var id = startEvent(state, siteId);
+                state.encoder.writeVarLong(id - correspondingEnter.id);
+            }
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object methodRet(@Specialize Object retValue, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, attr(siteId, 0), ".", attr(siteId, 1), " RETURNS '", retValue, "' at ", position(siteId));
+            }
+            clearPendingCall(state);
+            markReceiversModified(state);
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(retValue);
+            state.enableLogging();
         }
         return retValue;
     }
 
-    public static void methodRetVoid(String className, String methodName, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log(className, ".", methodName, " RETURNS void at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new MethodReturnVoid(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    methodName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static void returnStat(String methodName, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("RETURN with target ", methodName, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ReturnStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    methodName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void methodRetVoid(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, attr(siteId, 0), ".", attr(siteId, 1), " RETURNS void at ", position(siteId));
+            }
+            clearPendingCall(state);
+            markReceiversModified(state);
+            startEvent(state, siteId);
+            state.enableLogging();
         }
     }
 
-    public static void implicitReturn(String methodName, String filename, int line, int col) {
-        if (loggingEnabled) {
-            disableLogging();
-            log(methodName, " EXITS at ", formatPosition(filename, line, col));
-            writeEvent(new ImplicitReturn(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    methodName,
-                    filename,
-                    line,
-                    col
-            ));
-            enableLogging();
-        }
-    }
-
-    public static void breakStat(String targetDescr, int targetLine, int targetCol,
-                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("BREAK with target ", targetDescr, " (", formatPosition(filename, targetLine, targetCol), ") at ",
-                    formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new BreakStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    targetDescr,
-                    targetLine,
-                    targetCol,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static void continueStat(String targetDescr, int targetLine, int targetCol,
-                                    String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("CONTINUE with target ", targetDescr, " (", formatPosition(filename, targetLine, targetCol), ") at ",
-                    formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ContinueStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    targetDescr,
-                    targetLine,
-                    targetCol,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static void yieldStat(Object yieldedVal, String targetDescr, int targetLine, int targetCol,
-                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("YIELD '", yieldedVal, "' with target ", targetDescr, " (", formatPosition(filename, targetLine, targetCol), ") at ",
-                    formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new YieldStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(yieldedVal),
-                    targetDescr,
-                    targetLine,
-                    targetCol,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static @Specialize Object switchConstruct(@Specialize Object selector, boolean isExpr, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            var switchTypeDescr = isExpr ? " (switch expression)" : " (switch statement)";
-            log("SWITCH selector='", selector, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol), switchTypeDescr);
-            if (isExpr) {
-                writeEvent(new SwitchExpr(
-                        genEventId(),
-                        getEnclosingEnterId(),
-                        Value.valueFor(selector),
-                        filename,
-                        startLine,
-                        startCol,
-                        endLine,
-                        endCol
-                ));
-            } else {
-                writeEvent(new SwitchStat(
-                        genEventId(),
-                        getEnclosingEnterId(),
-                        Value.valueFor(selector),
-                        filename,
-                        startLine,
-                        startCol,
-                        endLine,
-                        endCol
-                ));
-            }
-            enableLogging();
+    public static void returnStat(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "RETURN with target ", attr(siteId, 0), " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static void implicitReturn(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, attr(siteId, 0), " EXITS at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static void breakStat(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BREAK with target ", attr(siteId, 0), " (", attr(siteId, 1), ":", attr(siteId, 2), ") at ",
+                        position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static void continueStat(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "CONTINUE with target ", attr(siteId, 0), " (", attr(siteId, 1), ":", attr(siteId, 2), ") at ",
+                        position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static void yieldStat(Object yieldedVal, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "YIELD '", yieldedVal, "' with target ", attr(siteId, 0), " (", attr(siteId, 1), ":", attr(siteId, 2),
+                        ") at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(yieldedVal);
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object switchConstruct(@Specialize Object selector, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                var switchTypeDescr = Boolean.parseBoolean(attr(siteId, 0)) ? " (switch expression)" : " (switch statement)";
+                log(state, "SWITCH selector='", selector, "' at ", position(siteId), switchTypeDescr);
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(selector);
+            state.enableLogging();
         }
         return selector;
     }
 
-    public static void loopEnter(String loopType, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("ENTER LOOP (", loopType, ") at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LoopEnter(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    loopType,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static void loopExit(String loopType, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("EXIT LOOP (", loopType, ") at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LoopExit(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    loopType,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static boolean loopCond(boolean evalRes, String loopType, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("LOOP CONDITION evaluates to '", evalRes, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LoopCond(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(evalRes),
-                    loopType,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void loopEnter(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ENTER LOOP (", attr(siteId, 0), ") at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static void loopExit(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "EXIT LOOP (", attr(siteId, 0), ") at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static boolean loopCond(boolean evalRes, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "LOOP CONDITION evaluates to '", evalRes, "' at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(evalRes);
+            state.enableLogging();
         }
         return evalRes;
     }
 
-    public static void foreachLoopNextIter(@Specialize Object newElem, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("NEXT ITER elem='", newElem, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ForEachLoopNextIter(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(newElem),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static boolean ifCond(boolean evalRes, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("IF CONDITION evaluates to '", evalRes, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new IfCond(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(evalRes),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void foreachLoopNextIter(@Specialize Object newElem, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "NEXT ITER elem='", newElem, "' at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(newElem);
+            state.enableLogging();
+        }
+    }
+
+    public static boolean ifCond(boolean evalRes, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "IF CONDITION evaluates to '", evalRes, "' at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(evalRes);
+            state.enableLogging();
         }
         return evalRes;
     }
 
-    public static @Specialize Object localVarAssignment(String varName, @Specialize Object assignedValue,
-                                                        String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("VAR ASSIGN ", varName, " = ", assignedValue, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LocalVarAssignment(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    varName,
-                    Value.valueFor(assignedValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    /**
+     * Value of the variable of a path that contains no branch (see the paths option of the plugin)
+     */
+    private static final long EMPTY_BRANCH_PATH = 1;
+
+    /**
+     * Appends the outcome of a condition to the path of a method, as a digit in base 2 * nBranches. If the path would
+     * overflow, it is logged first, and the outcome starts a new path
+     *
+     * @param branch the index of the condition among the branches of the path
+     * @return the new value of the variable of the path
+     */
+    public static long extendBranchPath(long path, boolean outcome, int branch, int nBranches, int siteId) {
+        var base = 2L * nBranches;
+        if (path > (Long.MAX_VALUE - base) / base) {
+            branchPath(path, nBranches, siteId);
+            path = EMPTY_BRANCH_PATH;
+        }
+        return path * base + 2L * branch + (outcome ? 1 : 0);
+    }
+
+    /**
+     * Extends the path with the outcome of the condition of a loop, like extendBranchPath, and logs the path if the loop
+     * starts a new iteration, so that the outcomes of the previous iterations are not lost if the method never returns
+     *
+     * @return the new value of the variable of the path
+     */
+    public static long extendLoopBranchPath(long path, boolean outcome, int branch, int nBranches, int siteId) {
+        path = extendBranchPath(path, outcome, branch, nBranches, siteId);
+        if (outcome) {
+            branchPath(path, nBranches, siteId);
+            return EMPTY_BRANCH_PATH;
+        }
+        return path;
+    }
+
+    /**
+     * Logs the outcomes of the conditions evaluated by a method since the last time its path has been logged. The
+     * decoder expands them into the events that the loggers of the conditions would have logged
+     */
+    public static void branchPath(long path, int nBranches, int siteId) {
+        if (path == EMPTY_BRANCH_PATH) {
+            return;
+        }
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BRANCH PATH ", path, " (", nBranches, " branches) of ", attr(siteId, 0), " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeVarLong(nBranches);
+            state.encoder.writeVarLong(path);
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object localVarAssignment(@Specialize Object assignedValue, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "VAR ASSIGN ", attr(siteId, 0), " = ", assignedValue, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(assignedValue);
+            state.enableLogging();
         }
         return assignedValue;
     }
 
-    public static void localVarAssignOp(String varName, @Specialize Object newValue,
-                                        @Specialize Object oldValue, String operator, @Specialize Object rhs,
-                                        String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("VAR UPDATE ", varName, " ", operator, "= ", rhs, " : ", oldValue, " -> ", newValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LocalVarAssignOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    varName,
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    operator,
-                    Value.valueFor(rhs),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void localVarAssignOp(@Specialize Object newValue, @Specialize Object oldValue, @Specialize Object rhs,
+                                        int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "VAR UPDATE ", attr(siteId, 0), " ", attr(siteId, 1), "= ", rhs, " : ", oldValue, " -> ", newValue,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(newValue);
+            state.encoder.writeValueOf(oldValue);
+            state.encoder.writeValueOf(rhs);
+            state.enableLogging();
         }
     }
 
-    public static @Specialize(numericOnly = true) int localVarIncDecOp(
-            String varName, @Specialize(numericOnly = true) int result,
-            boolean isPrefixOp, boolean isIncOp,
-            String filename, int startLine, int startCol, int endLine, int endCol
-    ) {
-        if (loggingEnabled) {
-            disableLogging();
-            var newValue = isPrefixOp ? result :
-                    isIncOp ? (result + 1) : (result - 1);
-            var oldValue = isIncOp ? (newValue - 1) : (newValue + 1);
-            log("VAR ", preOrPost(isPrefixOp), "-", incOrDec(isIncOp), " ", varName, " : ",
-                    oldValue, " -> ", newValue, " with result ", result,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LocalVarIncDecOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    varName,
-                    Value.valueFor(result),
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize(numericOnly = true) int localVarIncDecOp(@Specialize(numericOnly = true) int result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "VAR ", incDecDescr(siteId, 1), " ", attr(siteId, 0), " with result ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
         }
         return result;
     }
 
-    public static @Specialize Object staticFieldAssignment(String className, String fieldName, @Specialize Object assignedValue,
-                                                           String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("STATIC FIELD ASSIGN ", className, ".", fieldName, " = ", assignedValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new StaticFieldAssignment(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    fieldName,
-                    Value.valueFor(assignedValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object staticFieldAssignment(@Specialize Object assignedValue, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "STATIC FIELD ASSIGN ", attr(siteId, 0), ".", attr(siteId, 1), " = ", assignedValue,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(assignedValue);
+            state.enableLogging();
         }
         return assignedValue;
     }
 
-    public static void staticFieldAssignOp(String className, String fieldName, @Specialize Object newValue,
-                                           @Specialize Object oldValue, String operator, @Specialize Object rhs,
-                                           String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("STATIC FIELD UPDATE ", className, ".", fieldName, " ", operator, "= ", rhs, " : ", oldValue, " -> ", newValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new StaticFieldAssignOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    fieldName,
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    operator,
-                    Value.valueFor(rhs),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void staticFieldAssignOp(@Specialize Object newValue, @Specialize Object oldValue, @Specialize Object rhs,
+                                           int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "STATIC FIELD UPDATE ", attr(siteId, 0), ".", attr(siteId, 1), " ", attr(siteId, 2), "= ", rhs,
+                        " : ", oldValue, " -> ", newValue, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(newValue);
+            state.encoder.writeValueOf(oldValue);
+            state.encoder.writeValueOf(rhs);
+            state.enableLogging();
         }
     }
 
-    public static @Specialize(numericOnly = true) int staticFieldIncDecOp(
-            String className, String fieldName, @Specialize(numericOnly = true) int result,
-            boolean isPrefixOp, boolean isIncOp,
-            String filename, int startLine, int startCol, int endLine, int endCol
-    ) {
-        if (loggingEnabled) {
-            disableLogging();
-            var newValue = isPrefixOp ? result :
-                    isIncOp ? (result + 1) : (result - 1);
-            var oldValue = isIncOp ? (newValue - 1) : (newValue + 1);
-            log("STATIC FIELD ", preOrPost(isPrefixOp), "-", incOrDec(isIncOp), " ", className, ".", fieldName,
-                    " : ", oldValue, " -> ", newValue, " with result ", result,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new StaticFieldIncDecOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    fieldName,
-                    Value.valueFor(result),
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize(numericOnly = true) int staticFieldIncDecOp(@Specialize(numericOnly = true) int result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "STATIC FIELD ", incDecDescr(siteId, 2), " ", attr(siteId, 0), ".", attr(siteId, 1),
+                        " with result ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
         }
         return result;
     }
 
-    public static @Specialize Object instanceFieldAssignment(String className, Object instance, String fieldName, @Specialize Object assignedValue,
-                                                             String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("INSTANCE FIELD ASSIGN ", instance, ".", className, "::", fieldName, " = ", assignedValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new InstanceFieldAssignment(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    Value.valueFor(instance),
-                    fieldName,
-                    Value.valueFor(assignedValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object instanceFieldAssignment(Object instance, @Specialize Object assignedValue, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "INSTANCE FIELD ASSIGN ", instance, ".", attr(siteId, 0), "::", attr(siteId, 1), " = ", assignedValue,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(instance);
+            state.encoder.writeValueOf(assignedValue);
+            markModified(instance);
+            state.enableLogging();
         }
         return assignedValue;
     }
 
-    public static void instanceFieldAssignOp(String className, Object instance, String fieldName, @Specialize Object newValue,
-                                             @Specialize Object oldValue, String operator, @Specialize Object rhs,
-                                             String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("INSTANCE FIELD UPDATE ", instance, ".", className, "::", fieldName, " ", operator, "= ", rhs, " : ",
-                    oldValue, " -> ", newValue, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new InstanceFieldAssignOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    Value.valueFor(instance),
-                    fieldName,
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    operator,
-                    Value.valueFor(rhs),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void instanceFieldAssignOp(Object instance, @Specialize Object newValue, @Specialize Object oldValue,
+                                             @Specialize Object rhs, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "INSTANCE FIELD UPDATE ", instance, ".", attr(siteId, 0), "::", attr(siteId, 1), " ", attr(siteId, 2),
+                        "= ", rhs, " : ", oldValue, " -> ", newValue, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(instance);
+            state.encoder.writeValueOf(newValue);
+            state.encoder.writeValueOf(oldValue);
+            state.encoder.writeValueOf(rhs);
+            markModified(instance);
+            state.enableLogging();
         }
     }
 
     public static @Specialize(numericOnly = true) int instanceFieldIncDecOp(
-            String className, Object instance, String fieldName, @Specialize(numericOnly = true) int result,
-            boolean isPrefixOp, boolean isIncOp,
-            String filename, int startLine, int startCol, int endLine, int endCol
+            Object instance, @Specialize(numericOnly = true) int result, int siteId
     ) {
-        if (loggingEnabled) {
-            disableLogging();
-            var newValue = isPrefixOp ? result :
-                    isIncOp ? (result + 1) : (result - 1);
-            var oldValue = isIncOp ? (newValue - 1) : (newValue + 1);
-            log("INSTANCE FIELD ", preOrPost(isPrefixOp), "-", incOrDec(isIncOp), " ", className, "::", fieldName,
-                    " : ", oldValue, " -> ", newValue, " with result ", result,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new InstanceFieldIncDecOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    Value.valueFor(instance),
-                    fieldName,
-                    Value.valueFor(result),
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "INSTANCE FIELD ", incDecDescr(siteId, 2), " ", instance, ".", attr(siteId, 0), "::", attr(siteId, 1),
+                        " with result ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(instance);
+            state.encoder.writeValueOf(result);
+            markModified(instance);
+            state.enableLogging();
         }
         return result;
     }
 
-    public static void arrayElemSet(Object array, int index, @Specialize Object assignedValue,
-                                    String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("ARRAY SET ", array, "[", index, "] = ", assignedValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ArrayElemSet(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(array),
-                    Value.valueFor(index),
-                    Value.valueFor(assignedValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void arrayElemSet(Object array, int index, @Specialize Object assignedValue, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ARRAY SET ", array, "[", index, "] = ", assignedValue, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(array);
+            state.encoder.writeValueOf(index);
+            state.encoder.writeValueOf(assignedValue);
+            state.enableLogging();
         }
     }
 
     public static void arrayElemAssignOp(Object array, int index, @Specialize Object newValue,
-                                         @Specialize Object oldValue, String operator, @Specialize Object rhs,
-                                         String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("ARRAY UPDATE ", array, "[", index, "] ", operator, "= ", rhs, " : ", oldValue, " -> ", newValue,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ArrayElemAssignOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(array),
-                    Value.valueFor(index),
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    operator,
-                    Value.valueFor(rhs),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+                                         @Specialize Object oldValue, @Specialize Object rhs, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ARRAY UPDATE ", array, "[", index, "] ", attr(siteId, 0), "= ", rhs, " : ", oldValue, " -> ", newValue,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(array);
+            state.encoder.writeValueOf(index);
+            state.encoder.writeValueOf(newValue);
+            state.encoder.writeValueOf(oldValue);
+            state.encoder.writeValueOf(rhs);
+            state.enableLogging();
         }
     }
 
     public static @Specialize(numericOnly = true) int arrayElemIncDecOp(
-            Object array, int index, @Specialize(numericOnly = true) int result,
-            boolean isPrefixOp, boolean isIncOp,
-            String filename, int startLine, int startCol, int endLine, int endCol
+            Object array, int index, @Specialize(numericOnly = true) int result, int siteId
     ) {
-        if (loggingEnabled) {
-            disableLogging();
-            var newValue = isPrefixOp ? result :
-                    isIncOp ? (result + 1) : (result - 1);
-            var oldValue = isIncOp ? (newValue - 1) : (newValue + 1);
-            log("ARRAY ", preOrPost(isPrefixOp), "-", incOrDec(isIncOp), " ", array, "[", index, "] ",
-                    " : ", oldValue, " -> ", newValue, " with result ", result,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ArrayElemIncDecOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(array),
-                    Value.valueFor(index),
-                    Value.valueFor(result),
-                    Value.valueFor(newValue),
-                    Value.valueFor(oldValue),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ARRAY ", incDecDescr(siteId, 0), " ", array, "[", index, "] ", " with result ", result,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(array);
+            state.encoder.writeValueOf(index);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
         }
         return result;
     }
 
-    public static void variableDeclared(String varName, String typeDescr,
-                                        String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("VAR DECLARED: ", varName, " (of static type ", typeDescr, ") at ",
-                    formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new VarDeclStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    varName,
-                    typeDescr,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static @Specialize Object initializedFieldDeclared(String className, String fieldName, String typeDescr,
-                                                              @Specialize Object value,
-                                                              String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("FIELD INIT: ", className, ".", fieldName, " of static type ", typeDescr, " = ",
-                    value, formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new InitializedFieldDeclStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    className,
-                    fieldName,
-                    typeDescr,
-                    value,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void variableDeclared(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "VAR DECLARED: ", attr(siteId, 0), " (of static type ", attr(siteId, 1), ") at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object initializedFieldDeclared(@Specialize Object value, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "FIELD INIT: ", attr(siteId, 0), ".", attr(siteId, 1), " of static type ", attr(siteId, 2), " = ",
+                        value, position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static void caught(Throwable throwable, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("CATCH ", throwable, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new Caught(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(throwable),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static @Specialize Object castAttempt(@Specialize Object value, String targetTypeDescr, boolean willSucceed,
-                                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            var resultMsg = willSucceed ? "SUCCEEDED" : "FAILED";
-            log("CAST ", value, " to type ", targetTypeDescr, " ", resultMsg, " at ",
-                    formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new CastAttempt(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(value),
-                    targetTypeDescr,
-                    willSucceed,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void caught(Throwable throwable, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "CATCH ", throwable, " at ", position(siteId));
+            }
+            clearPendingCall(state);
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(throwable);
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object castAttempt(@Specialize Object value, boolean willSucceed, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                var resultMsg = willSucceed ? "SUCCEEDED" : "FAILED";
+                log(state, "CAST ", value, " to type ", attr(siteId, 0), " ", resultMsg, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.encoder.writeBoolean(willSucceed);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static Throwable throwStat(Throwable throwable, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("THROW ", throwable, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ThrowStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(throwable),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static Throwable throwStat(Throwable throwable, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "THROW ", throwable, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(throwable);
+            state.enableLogging();
         }
         return throwable;
     }
 
-    public static boolean assertionStat(boolean asserted, String assertionDescr,
-                                        String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            var successOrFailDescr = asserted ? " SUCCEEDS" : " FAILS";
-            log("ASSERTION ", assertionDescr, successOrFailDescr,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new AssertionStat(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(asserted),
-                    assertionDescr,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static boolean assertionStat(boolean asserted, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                var successOrFailDescr = asserted ? " SUCCEEDS" : " FAILS";
+                log(state, "ASSERTION ", attr(siteId, 0), successOrFailDescr, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(asserted);
+            state.enableLogging();
         }
         return asserted;
     }
 
-    public static @Specialize Object unaryOp(@Specialize Object res, @Specialize Object arg, String operator,
-                                             String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("UNARY ", operator, " ", arg, " = ", res,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new UnaryOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(res),
-                    Value.valueFor(arg),
-                    operator,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object unaryOp(@Specialize Object res, @Specialize Object arg, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "UNARY ", attr(siteId, 0), " ", arg, " = ", res, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(res);
+            state.encoder.writeValueOf(arg);
+            state.enableLogging();
         }
         return res;
     }
 
-    public static void binaryOperator(Object lhs, Object rhs, String operator, Object result,
-                                      String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("BINARY ", lhs, " ", operator, " ", rhs, " = ", result,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new BinaryOp(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(lhs),
-                    Value.valueFor(rhs),
-                    operator,
-                    Value.valueFor(result),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
-        }
-    }
-
-    public static @Specialize Object localVarRead(@Specialize Object value, String varName,
-                                                  String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("VAR READ ", varName, " : ", value, " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new LocalVarRead(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(value),
-                    varName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    /*
+     * The loggers of binary operators are specialized for the types of the operands of the primitive operators, so that
+     * they do not box them. Other operands (e.g. boxed values that the operator unboxes) are passed as Object. The
+     * loggers of numeric operators are split by the type of their result (the promoted type of the operands, a boolean
+     * for comparisons, and the promoted type of the left operand for shifts), so that no copy is generated for the
+     * combinations of types that no operator yields
+     */
+
+    public static void binaryOperator(@Specialize(types = {"boolean", "Object"}) Object lhs,
+                                      @Specialize(types = {"boolean", "Object"}) Object rhs,
+                                      @Specialize(types = {"boolean", "Object"}) Object result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BINARY ", lhs, " ", attr(siteId, 0), " ", rhs, " = ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(lhs);
+            state.encoder.writeValueOf(rhs);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
+        }
+    }
+
+    public static void numericOperator(@Specialize(typeVar = "L", numericOnly = true) Object lhs,
+                                       @Specialize(typeVar = "R", numericOnly = true) Object rhs,
+                                       @Specialize(promotionOf = {"L", "R"}) Object result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BINARY ", lhs, " ", attr(siteId, 0), " ", rhs, " = ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(lhs);
+            state.encoder.writeValueOf(rhs);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
+        }
+    }
+
+    public static void numericComparison(@Specialize(typeVar = "L", numericOnly = true) Object lhs,
+                                         @Specialize(typeVar = "R", numericOnly = true) Object rhs,
+                                         boolean result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BINARY ", lhs, " ", attr(siteId, 0), " ", rhs, " = ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(lhs);
+            state.encoder.writeValueOf(rhs);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
+        }
+    }
+
+    public static void shiftOperator(@Specialize(typeVar = "L", numericOnly = true) Object lhs,
+                                     @Specialize(typeVar = "R", numericOnly = true) Object rhs,
+                                     @Specialize(promotionOf = "L") Object result, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "BINARY ", lhs, " ", attr(siteId, 0), " ", rhs, " = ", result, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(lhs);
+            state.encoder.writeValueOf(rhs);
+            state.encoder.writeValueOf(result);
+            state.enableLogging();
+        }
+    }
+
+    public static @Specialize Object localVarRead(@Specialize Object value, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "VAR READ ", attr(siteId, 0), " : ", value, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static @Specialize Object staticFieldRead(@Specialize Object value, String className, String fieldName,
-                                                     String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("STATIC FIELD READ ", className, ".", fieldName, " : ", value,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new StaticFieldRead(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(value),
-                    className,
-                    fieldName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object staticFieldRead(@Specialize Object value, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "STATIC FIELD READ ", attr(siteId, 0), ".", attr(siteId, 1), " : ", value, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static @Specialize Object instanceFieldRead(@Specialize Object value, Object owner, String className, String fieldName,
-                                                       String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("INSTANCE FIELD READ ", owner, ".", className, "::", fieldName, " : ", value,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new InstanceFieldRead(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(value),
-                    Value.valueFor(owner),
-                    className,
-                    fieldName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object instanceFieldRead(@Specialize Object value, Object owner, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "INSTANCE FIELD READ ", owner, ".", attr(siteId, 0), "::", attr(siteId, 1), " : ", value,
+                        " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.encoder.writeValueOf(owner);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static @Specialize Object arrayAccess(@Specialize Object value, Object array, int index,
-                                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("ARRAY ACCESS ", array, "[", index, "] : ", value,
-                    " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new ArrayAccess(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(value),
-                    Value.valueFor(array),
-                    Value.valueFor(index),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object arrayAccess(@Specialize Object value, Object array, int index, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "ARRAY ACCESS ", array, "[", index, "] : ", value, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.encoder.writeValueOf(array);
+            state.encoder.writeValueOf(index);
+            state.enableLogging();
         }
         return value;
     }
 
-    public static boolean ternaryCondition(boolean cond, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("TERNARY CONDITION evaluates to '", cond, "' at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new TernaryCondition(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(cond),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static @Specialize Object constantValue(@Specialize Object value, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "CONSTANT ", attr(siteId, 0), " : ", value, " at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(value);
+            state.enableLogging();
+        }
+        return value;
+    }
+
+    public static boolean ternaryCondition(boolean cond, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "TERNARY CONDITION evaluates to '", cond, "' at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(cond);
+            state.enableLogging();
         }
         return cond;
     }
 
-    public static boolean typeTest(boolean result, Object testedObject, String targetTypeName, String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            if (testedObject == null) {
-                log("TYPE TEST null is not of type ", targetTypeName,
-                        " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            } else {
-                var actualType = testedObject.getClass().getTypeName();
-                var possiblyNegate = result ? "" : "not ";
-                log("TYPE TEST ", actualType, " is ", possiblyNegate, "of type ", targetTypeName,
-                        " at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            }
-            writeEvent(new TypeTest(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    Value.valueFor(result),
-                    Value.valueFor(testedObject),
-                    targetTypeName,
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static boolean typeTest(boolean result, Object testedObject, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId) && !isThrottled(state, siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                if (testedObject == null) {
+                    log(state, "TYPE TEST null is not of type ", attr(siteId, 0), " at ", position(siteId));
+                } else {
+                    var actualType = testedObject.getClass().getTypeName();
+                    var possiblyNegate = result ? "" : "not ";
+                    log(state, "TYPE TEST ", actualType, " is ", possiblyNegate, "of type ", attr(siteId, 0), " at ", position(siteId));
+                }
+            }
+            startEvent(state, siteId);
+            state.encoder.writeValueOf(result);
+            state.encoder.writeValueOf(testedObject);
+            state.enableLogging();
         }
         return result;
     }
 
-    public static void exec(String filename, int startLine, int startCol, int endLine, int endCol) {
-        if (loggingEnabled) {
-            disableLogging();
-            log("EXEC STAT at ", formatPositionInterval(filename, startLine, startCol, endLine, endCol));
-            writeEvent(new Exec(
-                    genEventId(),
-                    getEnclosingEnterId(),
-                    filename,
-                    startLine,
-                    startCol,
-                    endLine,
-                    endCol
-            ));
-            enableLogging();
+    public static void exec(int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "EXEC STAT at ", position(siteId));
+            }
+            startEvent(state, siteId);
+            state.enableLogging();
+        }
+    }
+
+    /**
+     * @return the buffer of the thread that receives the values of the events of a sequence of statements, holding at
+     * least the given number of values, right before they are logged by fusedEvents (hence the buffer is not
+     * allocated each time the statements run)
+     */
+    public static long[] fusedValues(int nValues) {
+        var state = threadState();
+        if (state.fusedValues.length < nValues) {
+            state.fusedValues = new long[nValues];
+        }
+        return state.fusedValues;
+    }
+
+    /**
+     * Logs the events of a sequence of statements, as their logging methods would have done one after the other
+     * (see the fuse option of the plugin)
+     *
+     * @param values the values of the events, in order, as bits (see writePackedValue), possibly followed by unused
+     *               values (see fusedValues)
+     */
+    public static void fusedEvents(long[] values, int siteId) {
+        var state = threadState();
+        if (state.loggingEnabled && isRegistered(siteId)) {
+            state.disableLogging();
+            if (PRINT_STREAM != null) {
+                log(state, "FUSED EVENTS at ", position(siteId));
+            }
+            var valueIdx = 0;
+            for (var event : fusedEvents[siteId]) {
+                var valueTypes = event.valueTypes();
+                if (!event.throttled() || !isThrottled(state, event.siteId())) {
+                    startEvent(state, event.siteId());
+                    for (var i = 0; i < valueTypes.length(); i++) {
+                        writePackedValue(state.encoder, valueTypes.charAt(i), values[valueIdx + i]);
+                    }
+                }
+                valueIdx += valueTypes.length();
+            }
+            state.enableLogging();
+        }
+    }
+
+    /**
+     * Writes a primitive value given by its type descriptor and its bits, i.e. its value widened to a long (the bits
+     * of floats and doubles are given by Float.floatToRawIntBits and Double.doubleToRawLongBits)
+     */
+    private static void writePackedValue(EventEncoder encoder, char type, long bits) {
+        switch (type) {
+            case 'Z' -> encoder.writeValueOf(bits != 0);
+            case 'B' -> encoder.writeValueOf((byte) bits);
+            case 'C' -> encoder.writeValueOf((char) bits);
+            case 'S' -> encoder.writeValueOf((short) bits);
+            case 'I' -> encoder.writeValueOf((int) bits);
+            case 'J' -> encoder.writeValueOf(bits);
+            case 'F' -> encoder.writeValueOf(Float.intBitsToFloat((int) bits));
+            case 'D' -> encoder.writeValueOf(Double.longBitsToDouble(bits));
+            default -> throw new AssertionError("unknown type descriptor: " + type);
         }
     }
 
+    /**
+     * @param flagsIdx the index of the isPrefixOp attribute of the site (isIncOp comes right after)
+     */
+    private static String incDecDescr(int siteId, int flagsIdx) {
+        var isPrefixOp = Boolean.parseBoolean(attr(siteId, flagsIdx));
+        var isIncOp = Boolean.parseBoolean(attr(siteId, flagsIdx + 1));
+        return preOrPost(isPrefixOp) + "-" + incOrDec(isIncOp);
+    }
+
     private static String preOrPost(boolean isPre) {
         return isPre ? "PRE" : "POST";
     }
@@ -1169,14 +1990,6 @@ public class ___JumboTrace___ {
         return isInc ? "INCREMENT" : "DECREMENT";
     }
 
-    private static Value[] makeArgsValuesArray(Object[] obj) {
-        var values = new Value[obj.length];
-        for (int i = 0; i < values.length; i++) {
-            values[i] = Value.valueFor(obj);
-        }
-        return values;
-    }
-
     private static String formatPositionInterval(String filename, int startLine, int startCol, int endLine, int endCol) {
         if (endLine == NO_POS) {
             return formatPosition(simplifyFilename(filename), startLine, startCol);
@@ -1200,4 +2013,3 @@ public class ___JumboTrace___ {
     }
 
 }
-
@@ -0,0 +1,42 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+/**
+ * Kinds of the nondeterministic inputs read by a program (see Inputs)
+ * <p>
+ * The inputs read through a stream (standard input, FileInputStream or FileReader) are identified by the site of the
+ * creation of the stream, or by InputSite.STDIN for the standard input
+ */
+public enum InputKind {
+
+    // System.nanoTime
+    NANO_TIME,
+    // System.currentTimeMillis
+    CURRENT_TIME_MILLIS,
+    // seed of a new Random, or of the generator of Math.random
+    RANDOM_SEED,
+    // System.getenv(name)
+    ENV_VARIABLE,
+    // System.getenv()
+    ENVIRONMENT,
+    // Files.readAllBytes
+    FILE_BYTES,
+    // Files.readString
+    FILE_STRING,
+    // Files.readAllLines
+    FILE_LINES,
+    // opening of a FileInputStream or FileReader
+    OPEN,
+    // read of a single byte or char from a stream
+    READ,
+    // read of an array of bytes from a stream
+    READ_BYTES,
+    // read of an array of chars from a reader
+    READ_CHARS,
+    // InputStream.available
+    AVAILABLE,
+    // Reader.ready
+    READY,
+    // InputStream.skip
+    SKIP
+
+}
@@ -0,0 +1,92 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the inputs read by a run to a file, from which the run can be replayed (see InputReplayer)
+ * <p>
+ * The file starts with MAGIC, the name of the main class and the arguments of the program. It is followed by the
+ * inputs, in the order in which they were read. Each input is written as: index of the thread that read it (followed
+ * by the name of the thread when it appears for the first time), kind, index of the class of its site (followed by the
+ * name of the class when it appears for the first time), index of its site in the class (see InputSite), and length and
+ * bytes of its payload.
+ * The payload starts with OUTCOME_VALUE followed by the value read, or with OUTCOME_EXCEPTION followed by the class and
+ * the message of the exception thrown by the read (see Inputs).
+ * <p>
+ * Thread-safe. The inputs recorded after the file has been closed (e.g. by shutdown hooks) are dropped
+ */
+public final class InputRecorder implements Closeable {
+
+    public static final int MAGIC = 0x4A42540A;   // "JBT" followed by a format marker
+
+    static final byte OUTCOME_VALUE = 0;
+    static final byte OUTCOME_EXCEPTION = 1;
+
+    private final DataOutputStream out;
+    // threads are identified by their names, so that the replayed threads can be matched with the recorded ones
+    private final Map<String, Integer> threadIndices = new HashMap<>();
+    private final Map<String, Integer> classIndices = new HashMap<>();
+    private boolean closed = false;
+
+    public InputRecorder(String file, String mainClass, String[] args) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeUTF(mainClass);
+        out.writeInt(args.length);
+        for (var arg : args) {
+            out.writeUTF(arg);
+        }
+    }
+
+    /**
+     * Records an input read by the current thread
+     *
+     * @throws UncheckedIOException if the input cannot be written, as the recording would then be useless
+     */
+    public synchronized void record(InputKind kind, InputSite site, byte[] payload) {
+        if (closed) {
+            return;
+        }
+        try {
+            writeIndexed(threadIndices, Thread.currentThread().getName());
+            out.writeByte(kind.ordinal());
+            writeIndexed(classIndices, site.className());
+            out.writeInt(site.siteIdx());
+            out.writeInt(payload.length);
+            out.write(payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the index of the name, followed by the name itself if it has not been written yet
+     */
+    private void writeIndexed(Map<String, Integer> indices, String name) throws IOException {
+        var idx = indices.get(name);
+        if (idx == null) {
+            idx = indices.size();
+            indices.put(name, idx);
+            out.writeInt(idx);
+            out.writeUTF(name);
+        } else {
+            out.writeInt(idx);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Replays the inputs recorded by an InputRecorder: each thread gets the inputs recorded by the thread of the same name,
+ * in the same order
+ * <p>
+ * The replay only reproduces the recorded run if the program reads the same inputs. Otherwise it has diverged, which
+ * is detected when a thread reads an input of another kind or at another site than the next one recorded for it, or
+ * more inputs than recorded (see next), and when the program exits before all the inputs have been read (see
+ * unreplayedInputs). The interleaving of the threads is not recorded, so a program whose threads race may diverge
+ * <p>
+ * Thread-safe
+ */
+public final class InputReplayer {
+
+    private record Input(InputKind kind, InputSite site, byte[] payload) {
+    }
+
+    private final String mainClass;
+    private final String[] args;
+    // guarded by this
+    private final Map<String, Queue<Input>> inputs = new HashMap<>();
+    private boolean diverged = false;
+
+    public InputReplayer(String file) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != InputRecorder.MAGIC) {
+                throw new IOException("not a recording of inputs: " + file);
+            }
+            mainClass = in.readUTF();
+            args = new String[in.readInt()];
+            for (var i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+            var threadNames = new ArrayList<String>();
+            var classNames = new ArrayList<String>();
+            while (true) {
+                int threadIdx;
+                try {
+                    threadIdx = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                var threadName = readIndexed(in, threadNames, threadIdx);
+                var kind = InputKind.values()[in.readByte()];
+                var site = new InputSite(readIndexed(in, classNames, in.readInt()), in.readInt());
+                var payload = in.readNBytes(in.readInt());
+                inputs.computeIfAbsent(threadName, name -> new ArrayDeque<>()).add(new Input(kind, site, payload));
+            }
+        }
+    }
+
+    /**
+     * @return the name of the given index, read right after the index if it appears for the first time (see
+     * InputRecorder)
+     */
+    private static String readIndexed(DataInputStream in, List<String> names, int idx) throws IOException {
+        if (idx == names.size()) {
+            names.add(in.readUTF());
+        }
+        return names.get(idx);
+    }
+
+    public String mainClass() {
+        return mainClass;
+    }
+
+    public String[] args() {
+        return args.clone();
+    }
+
+    /**
+     * @return the payload of the next input recorded for the current thread (see InputRecorder)
+     * @throws ReplayDivergenceError if the next input recorded for the current thread is not of the given kind and
+     *                               site, or if there is none
+     */
+    public synchronized byte[] next(InputKind kind, InputSite site) {
+        var threadName = Thread.currentThread().getName();
+        var threadInputs = inputs.get(threadName);
+        var input = (threadInputs == null) ? null : threadInputs.poll();
+        if (input == null || input.kind != kind || !input.site.equals(site)) {
+            diverged = true;
+            throw new ReplayDivergenceError("replay diverged: thread " + threadName + " reads " + kind + " at site "
+                    + site + ", but " + (input == null ? "no more inputs were" :
+                    input.kind + " at site " + input.site + " was") + " recorded");
+        }
+        return input.payload;
+    }
+
+    /**
+     * @return a description of the recorded inputs that have not been read, or null if all of them have been read (or
+     * if the replay has already diverged, which has already been reported)
+     */
+    public synchronized @Nullable String unreplayedInputs() {
+        if (diverged) {
+            return null;
+        }
+        var descr = new StringBuilder();
+        for (var entry : inputs.entrySet()) {
+            var input = entry.getValue().peek();
+            if (input != null) {
+                descr.append(descr.isEmpty() ? "" : ", ").append(entry.getValue().size()).append(" inputs of thread ")
+                        .append(entry.getKey()).append(" (starting with ").append(input.kind).append(" at site ")
+                        .append(input.site).append(")");
+            }
+        }
+        return descr.isEmpty() ? null : descr.toString();
+    }
+
+}
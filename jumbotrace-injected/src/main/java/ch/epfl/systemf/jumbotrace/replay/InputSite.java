@@ -0,0 +1,20 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+/**
+ * Site of a redirected call that reads inputs, identified by the flat name of its class and the index of the site in
+ * the table of the class. The global ids of the sites depend on the order in which the classes are initialized, which
+ * may differ between a recorded run and its replay (e.g. because tracing is switched off during the recording)
+ */
+public record InputSite(String className, int siteIdx) {
+
+    /**
+     * Site of the inputs read from the standard input
+     */
+    static final InputSite STDIN = new InputSite("<stdin>", -1);
+
+    @Override
+    public String toString() {
+        return className + "#" + siteIdx;
+    }
+
+}
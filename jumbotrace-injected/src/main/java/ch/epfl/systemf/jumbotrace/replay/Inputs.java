@@ -0,0 +1,508 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads the nondeterministic inputs of the program on behalf of the calls redirected by the plugin (see the replay
+ * option of the plugin and ___JumboTrace___)
+ * <p>
+ * Unless the program is run by ReplayDriver, the inputs are just read. Otherwise, they are also recorded by an
+ * InputRecorder, or they are replayed by an InputReplayer instead of being read. The standard input is then replaced
+ * by a stream that records or replays what it reads. The streams of files opened by redirected calls are recorded
+ * and replayed the same way, so that a replay does not need the files
+ */
+public final class Inputs {
+
+    private Inputs() {
+        throw new AssertionError("not instantiable");
+    }
+
+    // Set by ReplayDriver before the program starts (at most one of them)
+    private static @Nullable InputRecorder recorder = null;
+    private static @Nullable InputReplayer replayer = null;
+
+    // Generator of Math.random, seeded by a recorded input
+    private static volatile @Nullable Random mathRandomGenerator = null;
+
+    //<editor-fold desc="Modes">
+
+    static void startRecording(InputRecorder inputRecorder) {
+        recorder = inputRecorder;
+        System.setIn(new InputStdin(System.in));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                inputRecorder.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }));
+    }
+
+    static void startReplaying(InputReplayer inputReplayer) {
+        replayer = inputReplayer;
+        System.setIn(new InputStdin(null));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            var unreplayedInputs = inputReplayer.unreplayedInputs();
+            if (unreplayedInputs != null) {
+                System.err.println("replay diverged: the program exited before reading " + unreplayedInputs);
+            }
+        }));
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Clocks, random generators and environment">
+
+    public static long nanoTime(InputSite site) {
+        return clockInput(InputKind.NANO_TIME, site, System::nanoTime);
+    }
+
+    public static long currentTimeMillis(InputSite site) {
+        return clockInput(InputKind.CURRENT_TIME_MILLIS, site, System::currentTimeMillis);
+    }
+
+    /**
+     * @return a generator seeded by a recorded input
+     */
+    public static Random newRandom(InputSite site) {
+        if (recorder == null && replayer == null) {
+            return new Random();
+        }
+        return new Random(clockInput(InputKind.RANDOM_SEED, site, () -> new Random().nextLong()));
+    }
+
+    /**
+     * Math.random, with a generator seeded by a recorded input on its first use
+     */
+    public static double mathRandom(InputSite site) {
+        if (recorder == null && replayer == null) {
+            return Math.random();
+        }
+        var generator = mathRandomGenerator;
+        if (generator == null) {
+            synchronized (Inputs.class) {
+                if (mathRandomGenerator == null) {
+                    mathRandomGenerator = newRandom(site);
+                }
+                generator = mathRandomGenerator;
+            }
+        }
+        return generator.nextDouble();
+    }
+
+    public static @Nullable String getenv(String name, InputSite site) {
+        return uncheckedInput(InputKind.ENV_VARIABLE, site, () -> System.getenv(name),
+                Inputs::encodeString, Inputs::decodeString);
+    }
+
+    public static Map<String, String> getenv(InputSite site) {
+        return uncheckedInput(InputKind.ENVIRONMENT, site, System::getenv, (out, env) -> {
+            out.writeInt(env.size());
+            for (var entry : env.entrySet()) {
+                encodeString(out, entry.getKey());
+                encodeString(out, entry.getValue());
+            }
+        }, in -> {
+            // keeps the order in which the recorded environment was iterated
+            var env = new LinkedHashMap<String, String>();
+            for (var n = in.readInt(); n > 0; n--) {
+                env.put(decodeString(in), decodeString(in));
+            }
+            return Collections.unmodifiableMap(env);
+        });
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Files">
+
+    public static byte[] readAllBytes(Path path, InputSite site) throws IOException {
+        return input(InputKind.FILE_BYTES, site, () -> Files.readAllBytes(path),
+                Inputs::encodeBytes, Inputs::decodeBytes);
+    }
+
+    public static String readString(Path path, Charset charset, InputSite site) throws IOException {
+        return input(InputKind.FILE_STRING, site, () -> Files.readString(path, charset),
+                Inputs::encodeString, Inputs::decodeString);
+    }
+
+    public static List<String> readAllLines(Path path, Charset charset, InputSite site) throws IOException {
+        return input(InputKind.FILE_LINES, site, () -> Files.readAllLines(path, charset), (out, lines) -> {
+            out.writeInt(lines.size());
+            for (var line : lines) {
+                encodeString(out, line);
+            }
+        }, in -> {
+            var lines = new ArrayList<String>();
+            for (var n = in.readInt(); n > 0; n--) {
+                lines.add(decodeString(in));
+            }
+            return lines;
+        });
+    }
+
+    public static FileInputStream newFileInputStream(File file, InputSite site) throws IOException {
+        if (recorder == null && replayer == null) {
+            return new FileInputStream(file);
+        }
+        return input(InputKind.OPEN, site, () -> new InputFileStream(file, site),
+                (out, stream) -> {
+                }, in -> new InputFileStream(site));
+    }
+
+    public static FileReader newFileReader(File file, InputSite site) throws IOException {
+        if (recorder == null && replayer == null) {
+            return new FileReader(file);
+        }
+        return input(InputKind.OPEN, site, () -> new InputFileReader(file, site),
+                (out, reader) -> {
+                }, in -> new InputFileReader(site));
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Streams">
+
+    /*
+     * The streams below record each of their reads as an input, or replay them. The replayed streams of files are not
+     * connected to their file, but to the standard input, which they never read nor close
+     */
+    // FIXME the channels of the streams of files (getChannel) are neither recorded nor replayed
+
+    /**
+     * Standard input of a program that is recorded or replayed
+     */
+    private static final class InputStdin extends InputStream {
+
+        // the original standard input, or null if the stream is replayed
+        private final @Nullable InputStream in;
+
+        private InputStdin(@Nullable InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return intInput(InputKind.READ, InputSite.STDIN, () -> Objects.requireNonNull(in).read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readBytes(InputSite.STDIN, b, off, len,
+                    (buffer, offset, length) -> Objects.requireNonNull(in).read(buffer, offset, length));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return longInput(InputKind.SKIP, InputSite.STDIN, () -> Objects.requireNonNull(in).skip(n));
+        }
+
+        @Override
+        public int available() throws IOException {
+            return intInput(InputKind.AVAILABLE, InputSite.STDIN, () -> Objects.requireNonNull(in).available());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+    }
+
+    private static final class InputFileStream extends FileInputStream {
+
+        private final InputSite site;
+        private final boolean replayed;
+
+        private InputFileStream(File file, InputSite site) throws FileNotFoundException {
+            super(file);
+            this.site = site;
+            this.replayed = false;
+        }
+
+        private InputFileStream(InputSite site) {
+            super(FileDescriptor.in);
+            this.site = site;
+            this.replayed = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return intInput(InputKind.READ, site, super::read);
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            // FileInputStream.read(byte[]) does not call read(byte[], int, int)
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return readBytes(site, b, off, len, super::read);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return longInput(InputKind.SKIP, site, () -> super.skip(n));
+        }
+
+        @Override
+        public int available() throws IOException {
+            return intInput(InputKind.AVAILABLE, site, super::available);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!replayed) {
+                super.close();
+            }
+        }
+
+    }
+
+    private static final class InputFileReader extends FileReader {
+
+        private final InputSite site;
+        private final boolean replayed;
+
+        private InputFileReader(File file, InputSite site) throws FileNotFoundException {
+            super(file);
+            this.site = site;
+            this.replayed = false;
+        }
+
+        private InputFileReader(InputSite site) {
+            super(FileDescriptor.in);
+            this.site = site;
+            this.replayed = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return intInput(InputKind.READ, site, super::read);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, cbuf.length);
+            var chars = input(InputKind.READ_CHARS, site, () -> {
+                var n = super.read(cbuf, off, len);
+                return (n < 0) ? null : new String(cbuf, off, n);
+            }, Inputs::encodeString, Inputs::decodeString);
+            return (chars == null) ? -1 : copyRead(chars.toCharArray(), chars.length(), cbuf, off, len);
+        }
+
+        @Override
+        public int read(CharBuffer target) throws IOException {
+            var cbuf = new char[target.remaining()];
+            var n = read(cbuf, 0, cbuf.length);
+            if (n > 0) {
+                target.put(cbuf, 0, n);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return input(InputKind.READY, site, super::ready, DataOutputStream::writeBoolean,
+                    DataInputStream::readBoolean);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!replayed) {
+                super.close();
+            }
+        }
+
+    }
+
+    @FunctionalInterface
+    private interface ArrayRead {
+        int read(byte[] b, int off, int len) throws IOException;
+    }
+
+    private static int readBytes(InputSite site, byte[] b, int off, int len, ArrayRead read) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        var bytes = input(InputKind.READ_BYTES, site, () -> {
+            var n = read.read(b, off, len);
+            return (n < 0) ? null : Arrays.copyOfRange(b, off, off + n);
+        }, Inputs::encodeBytes, Inputs::decodeBytes);
+        return (bytes == null) ? -1 : copyRead(bytes, bytes.length, b, off, len);
+    }
+
+    /**
+     * Copies the elements read by a recorded or replayed read of an array to the array
+     *
+     * @param read the array of the elements read, of length n
+     * @return the result of the read
+     */
+    private static int copyRead(Object read, int n, Object buffer, int off, int len) {
+        if (n > len) {
+            throw new ReplayDivergenceError("replay diverged: " + n + " elements were recorded for a read of " + len);
+        }
+        System.arraycopy(read, 0, buffer, off, n);
+        return n;
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Recording and replaying">
+
+    @FunctionalInterface
+    private interface Read<T> {
+        T read() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Encoder<T> {
+        void encode(DataOutputStream out, T value) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Decoder<T> {
+        T decode(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * Reads an input, and records it or replays it if required
+     * <p>
+     * The IOExceptions thrown by the read are recorded too. A replayed exception is an instance of the same class,
+     * with the same message, if the class has a constructor taking the message, and an IOException otherwise
+     */
+    private static <T> T input(InputKind kind, InputSite site, Read<T> read, Encoder<T> encoder, Decoder<T> decoder)
+            throws IOException {
+        var currReplayer = replayer;
+        if (currReplayer != null) {
+            var in = new DataInputStream(new ByteArrayInputStream(currReplayer.next(kind, site)));
+            if (in.readByte() == InputRecorder.OUTCOME_EXCEPTION) {
+                throw replayedException(in.readUTF(), decodeString(in));
+            }
+            return decoder.decode(in);
+        }
+        var currRecorder = recorder;
+        if (currRecorder == null) {
+            return read.read();
+        }
+        var payload = new ByteArrayOutputStream();
+        var out = new DataOutputStream(payload);
+        T value;
+        try {
+            value = read.read();
+        } catch (IOException e) {
+            out.writeByte(InputRecorder.OUTCOME_EXCEPTION);
+            out.writeUTF(e.getClass().getName());
+            encodeString(out, e.getMessage());
+            currRecorder.record(kind, site, payload.toByteArray());
+            throw e;
+        }
+        out.writeByte(InputRecorder.OUTCOME_VALUE);
+        encoder.encode(out, value);
+        currRecorder.record(kind, site, payload.toByteArray());
+        return value;
+    }
+
+    /**
+     * For the inputs whose read cannot throw IOExceptions
+     */
+    private static <T> T uncheckedInput(InputKind kind, InputSite site, Read<T> read, Encoder<T> encoder,
+                                        Decoder<T> decoder) {
+        try {
+            return input(kind, site, read, encoder, decoder);
+        } catch (IOException e) {
+            // only the payloads are read or written, in memory
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * For the inputs whose read cannot throw IOExceptions, and that are read often (e.g. clocks)
+     */
+    private static long clockInput(InputKind kind, InputSite site, LongSupplier read) {
+        if (recorder == null && replayer == null) {
+            return read.getAsLong();
+        }
+        return uncheckedInput(kind, site, read::getAsLong, DataOutputStream::writeLong, DataInputStream::readLong);
+    }
+
+    private static long longInput(InputKind kind, InputSite site, Read<Long> read) throws IOException {
+        return input(kind, site, read, DataOutputStream::writeLong, DataInputStream::readLong);
+    }
+
+    private static int intInput(InputKind kind, InputSite site, Read<Integer> read) throws IOException {
+        return input(kind, site, read, DataOutputStream::writeInt, DataInputStream::readInt);
+    }
+
+    private static IOException replayedException(String className, @Nullable String message) {
+        try {
+            return Class.forName(className).asSubclass(IOException.class).getConstructor(String.class).newInstance(message);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            return new IOException(message);
+        }
+    }
+
+    // strings are written as their chars, as some of them (e.g. the chars read by a reader) may not be valid UTF-16
+
+    private static void encodeString(DataOutputStream out, @Nullable String s) throws IOException {
+        out.writeInt(s == null ? -1 : s.length());
+        if (s != null) {
+            out.writeChars(s);
+        }
+    }
+
+    private static @Nullable String decodeString(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        var chars = new char[length];
+        for (var i = 0; i < length; i++) {
+            chars[i] = in.readChar();
+        }
+        return new String(chars);
+    }
+
+    private static void encodeBytes(DataOutputStream out, @Nullable byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static @Nullable byte[] decodeBytes(DataInputStream in) throws IOException {
+        var length = in.readInt();
+        return (length < 0) ? null : in.readNBytes(length);
+    }
+
+    //</editor-fold>
+
+}
@@ -0,0 +1,15 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+/**
+ * Thrown when a replayed run reads other inputs than the recorded run (see InputReplayer), i.e. when the replay does
+ * not reproduce the recorded run. It is an error, so that the program does not handle it as one of its own exceptions
+ */
+public final class ReplayDivergenceError extends Error {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplayDivergenceError(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,63 @@
+package ch.epfl.systemf.jumbotrace.replay;
+
+import ch.epfl.systemf.jumbotrace.Config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+
+/**
+ * Records the nondeterministic inputs of a run of a program compiled with the replay=on option of the plugin, and
+ * replays the run later to produce its trace (see Inputs)
+ * <p>
+ * The program runs in the JVM of the driver, which must have the program on its classpath:
+ * <ul>
+ *     <li>record inputs-file main-class args... runs the program and writes its inputs to inputs-file. Tracing is
+ *     switched off (see Config.TRACING_ENABLED_PROPERTY), so that the run is almost as fast as an uninstrumented one if
+ *     the program was compiled with dual=on or guards=on</li>
+ *     <li>replay inputs-file runs the program again, with the arguments and the inputs of the recorded run, and with
+ *     tracing switched on for all the methods (see Config.TRACED_METHODS_PROPERTY), so that it writes the trace of the
+ *     recorded run to the log file. If the replay diverges from the recorded run (see InputReplayer), the program gets
+ *     a ReplayDivergenceError</li>
+ * </ul>
+ * The system properties set explicitly on the command line take precedence over the ones set by the driver
+ */
+// FIXME the schedule of the threads is not recorded, so the replay of a program with races may diverge
+public final class ReplayDriver {
+
+    private static final String RECORD_COMMAND = "record";
+    private static final String REPLAY_COMMAND = "replay";
+
+    public static void main(String[] args) throws Throwable {
+        if (args.length >= 3 && args[0].equals(RECORD_COMMAND)) {
+            var mainArgs = Arrays.copyOfRange(args, 3, args.length);
+            Inputs.startRecording(new InputRecorder(args[1], args[2], mainArgs));
+            setDefaultProperty(Config.TRACING_ENABLED_PROPERTY, "false");
+            runMain(args[2], mainArgs);
+        } else if (args.length == 2 && args[0].equals(REPLAY_COMMAND)) {
+            var replayer = new InputReplayer(args[1]);
+            Inputs.startReplaying(replayer);
+            setDefaultProperty(Config.TRACED_METHODS_PROPERTY, "*");
+            runMain(replayer.mainClass(), replayer.args());
+        } else {
+            System.err.println("Arguments: " + RECORD_COMMAND + " <inputs file> <main class> [<args>...] | "
+                    + REPLAY_COMMAND + " <inputs file>");
+            System.exit(1);
+        }
+    }
+
+    private static void setDefaultProperty(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    private static void runMain(String mainClass, String[] args) throws Throwable {
+        var main = Class.forName(mainClass, false, ReplayDriver.class.getClassLoader()).getMethod("main", String[].class);
+        try {
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+}
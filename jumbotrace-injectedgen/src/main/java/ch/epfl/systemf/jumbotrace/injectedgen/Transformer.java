@@ -15,8 +15,11 @@ import com.github.javaparser.ast.visitor.ModifierVisitor;
 import com.github.javaparser.ast.visitor.Visitable;
 import com.github.javaparser.ast.visitor.VoidVisitor;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 import java.util.stream.Stream;
 
 import static com.github.javaparser.ast.type.PrimitiveType.*;
@@ -24,12 +27,17 @@ import static com.github.javaparser.ast.type.PrimitiveType.*;
 /**
  * Performs the specialization of methods annotated with @Specialize
  * <p>
- * Replicates the methods to generate one copy for each of the topmost types in the type hierarchy
+ * Replicates the methods to generate one copy for each of the topmost types in the type hierarchy (or, if the method
+ * has several type variables, for each combination of their types)
  */
 public final class Transformer extends ModifierVisitor<Void> {
 
     private static final String TARGET_ANNOTATION_NAME = "Specialize";
+    private static final String TYPE_VAR_KEY = "typeVar";
+    private static final String DEFAULT_TYPE_VAR = "T";
     private static final String RESTRICT_TO_NUM_TYPES_KEY = "numericOnly";
+    private static final String RESTRICT_TO_TYPES_KEY = "types";
+    private static final String PROMOTION_OF_KEY = "promotionOf";
     private static final String MODIFIED_METH_ANNOTATION_NAME = "Specialized";
     private static final String MODIFIED_METH_ANNOT_FLD_KEY = "typeName";
 
@@ -76,15 +84,7 @@ public final class Transformer extends ModifierVisitor<Void> {
             if (member instanceof MethodDeclaration methodDeclaration
                     && methodDeclaration.getParameters().stream().anyMatch(param -> param.isAnnotationPresent(TARGET_ANNOTATION_NAME))
             ) {
-                var maybeAnnot = checkAndDeleteTargetAnnotation(methodDeclaration.getAnnotations());
-                var specializeRetType = maybeAnnot != null;
-                var restrictToNumericTypes = specializeRetType &&
-                        maybeAnnot instanceof NormalAnnotationExpr annot &&
-                        annot.getPairs().stream().anyMatch(
-                                p -> p.getName().getIdentifier().equals(RESTRICT_TO_NUM_TYPES_KEY) &&
-                                        p.getValue() instanceof BooleanLiteralExpr literalExpr && literalExpr.getValue()
-                        );
-                var replicated = replicate(methodDeclaration, specializeRetType, restrictToNumericTypes);
+                var replicated = replicate(methodDeclaration);
                 newMembersList.addAll(replicated);
             } else {
                 newMembersList.add(member);
@@ -103,35 +103,146 @@ public final class Transformer extends ModifierVisitor<Void> {
         return n;
     }
 
-    private List<MethodDeclaration> replicate(MethodDeclaration methodDeclaration, boolean specializeReturnType, boolean restrictToNumericTypes) {
+    private List<MethodDeclaration> replicate(MethodDeclaration methodDeclaration) {
+        var retTypeAnnot = checkAndDeleteTargetAnnotation(methodDeclaration.getAnnotations());
+        // domain of each type variable, in order of appearance
+        var typeVars = new LinkedHashMap<String, List<Type>>();
+        if (retTypeAnnot != null && !isPromotion(retTypeAnnot)) {
+            addTypeVar(typeVars, retTypeAnnot);
+        }
+        for (var parameter : methodDeclaration.getParameters()) {
+            for (var annot : parameter.getAnnotations()) {
+                if (annot.getName().getIdentifier().equals(TARGET_ANNOTATION_NAME) && !isPromotion(annot)) {
+                    addTypeVar(typeVars, annot);
+                }
+            }
+        }
         var specializedMethods = new LinkedList<MethodDeclaration>();
         specializedMethods.add(new CommentMethodDeclaration("<editor-fold desc=\"" + methodDeclaration.getName().getIdentifier() + "\">"));
-        var types = restrictToNumericTypes ? NUMERIC_TOPMOST_TYPES : TOPMOST_TYPES;
-        for (var type : types) {
-            specializedMethods.add(copyWithType(methodDeclaration, type, specializeReturnType));
+        for (var assignment : allAssignments(typeVars)) {
+            specializedMethods.add(copyWithTypes(methodDeclaration, assignment, retTypeAnnot));
         }
         specializedMethods.add(new CommentMethodDeclaration("</editor-fold>"));
         return specializedMethods;
     }
 
-    private MethodDeclaration copyWithType(MethodDeclaration methodDeclaration, Type type, boolean specializeReturnType) {
+    private static void addTypeVar(Map<String, List<Type>> typeVars, AnnotationExpr annot) {
+        var name = typeVarOf(annot);
+        var domain = domainOf(annot);
+        var prevDomain = typeVars.putIfAbsent(name, domain);
+        if (prevDomain != null && !prevDomain.equals(domain)) {
+            throw new AssertionError("inconsistent restrictions for type variable " + name);
+        }
+    }
+
+    /**
+     * @return all the mappings from the type variables to one of the types of their domain
+     */
+    private static List<Map<String, Type>> allAssignments(Map<String, List<Type>> typeVars) {
+        var assignments = List.<Map<String, Type>>of(Map.of());
+        for (var typeVar : typeVars.entrySet()) {
+            var extended = new LinkedList<Map<String, Type>>();
+            for (var assignment : assignments) {
+                for (var type : typeVar.getValue()) {
+                    var newAssignment = new LinkedHashMap<>(assignment);
+                    newAssignment.put(typeVar.getKey(), type);
+                    extended.add(newAssignment);
+                }
+            }
+            assignments = extended;
+        }
+        return assignments;
+    }
+
+    private MethodDeclaration copyWithTypes(MethodDeclaration methodDeclaration, Map<String, Type> assignment,
+                                            AnnotationExpr retTypeAnnot) {
         var copy = methodDeclaration.clone();
-        if (specializeReturnType) {
-            copy.setType(type);
+        if (retTypeAnnot != null) {
+            copy.setType(typeOf(retTypeAnnot, assignment).clone());
         }
         copy.getParameters().forEach(parameter -> {
-            var mustReplicate = checkAndDeleteTargetAnnotation(parameter.getAnnotations()) != null;
-            if (mustReplicate) {
-                parameter.setType(type);
+            var annot = checkAndDeleteTargetAnnotation(parameter.getAnnotations());
+            if (annot != null) {
+                parameter.setType(typeOf(annot, assignment).clone());
             }
         });
+        var typeNames = new StringJoiner(", ");
+        assignment.values().forEach(type -> typeNames.add(type.toString()));
         copy.getAnnotations().add(new NormalAnnotationExpr(
                 new Name(MODIFIED_METH_ANNOTATION_NAME),
-                new NodeList<>(new MemberValuePair(MODIFIED_METH_ANNOT_FLD_KEY, new StringLiteralExpr(type.toString())))
+                new NodeList<>(new MemberValuePair(MODIFIED_METH_ANNOT_FLD_KEY, new StringLiteralExpr(typeNames.toString())))
         ));
         return copy;
     }
 
+    /**
+     * @return the type given to the annotated type by the assignment of the type variables
+     */
+    private static Type typeOf(AnnotationExpr annot, Map<String, Type> assignment) {
+        if (!isPromotion(annot)) {
+            return assignment.get(typeVarOf(annot));
+        }
+        var operandTypes = stringsOf(annotationValue(annot, PROMOTION_OF_KEY)).stream().map(typeVar -> {
+            var type = assignment.get(typeVar);
+            if (type == null || !NUMERIC_TOPMOST_TYPES.contains(type)) {
+                throw new AssertionError("promotion of non-numeric type variable " + typeVar);
+            }
+            return type;
+        }).toList();
+        for (var type : List.of(doubleType(), floatType(), longType())) {
+            if (operandTypes.contains(type)) {
+                return type;
+            }
+        }
+        return intType();
+    }
+
+    private static boolean isPromotion(AnnotationExpr annot) {
+        return !stringsOf(annotationValue(annot, PROMOTION_OF_KEY)).isEmpty();
+    }
+
+    private static String typeVarOf(AnnotationExpr annot) {
+        var value = annotationValue(annot, TYPE_VAR_KEY);
+        return (value instanceof StringLiteralExpr literalExpr) ? literalExpr.getValue() : DEFAULT_TYPE_VAR;
+    }
+
+    /**
+     * @return the types to which the annotated type may be specialized
+     */
+    private static List<Type> domainOf(AnnotationExpr annot) {
+        var types = stringsOf(annotationValue(annot, RESTRICT_TO_TYPES_KEY));
+        if (!types.isEmpty()) {
+            return types.stream().map(StaticJavaParser::parseType).toList();
+        }
+        var numericOnly = annotationValue(annot, RESTRICT_TO_NUM_TYPES_KEY);
+        return (numericOnly instanceof BooleanLiteralExpr literalExpr && literalExpr.getValue()) ?
+                NUMERIC_TOPMOST_TYPES :
+                TOPMOST_TYPES;
+    }
+
+    /**
+     * @return the strings of an annotation value of type String[] (empty if the value is absent)
+     */
+    private static List<String> stringsOf(Expression value) {
+        if (value instanceof ArrayInitializerExpr arrayExpr) {
+            return arrayExpr.getValues().stream().map(elem -> elem.asStringLiteralExpr().getValue()).toList();
+        } else if (value instanceof StringLiteralExpr literalExpr) {
+            return List.of(literalExpr.getValue());
+        }
+        return List.of();
+    }
+
+    private static Expression annotationValue(AnnotationExpr annot, String key) {
+        if (annot instanceof NormalAnnotationExpr normalAnnot) {
+            for (var pair : normalAnnot.getPairs()) {
+                if (pair.getName().getIdentifier().equals(key)) {
+                    return pair.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
     private AnnotationExpr checkAndDeleteTargetAnnotation(NodeList<AnnotationExpr> annotations) {
         AnnotationExpr found = null;
         for (var annot : annotations) {
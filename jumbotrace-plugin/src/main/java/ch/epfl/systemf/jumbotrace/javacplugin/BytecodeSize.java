@@ -0,0 +1,254 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import com.sun.tools.javac.code.Kinds;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.*;
+import com.sun.tools.javac.tree.TreeScanner;
+
+/**
+ * Estimation of the size of the bytecode generated for a tree, used to decide whether the instrumentation of a method
+ * must be outlined (see PluginOptions and Instrumentation.outline)
+ * <p>
+ * The estimation is coarse: each kind of node is given the size of the instructions that it usually compiles to
+ * (e.g. 3 bytes for an invocation, 2 bytes for the load of a local variable), and the bodies of lambdas and local
+ * classes are counted in the enclosing method
+ */
+public final class BytecodeSize {
+
+    private static final int INVOKE = 3;
+    private static final int LOCAL_VAR = 2;
+    private static final int FIELD = 3;
+    private static final int CONSTANT = 2;
+    private static final int BRANCH = 3;
+    private static final int NEW = 7;
+    private static final int OTHER = 1;
+
+    private BytecodeSize() {
+    }
+
+    /**
+     * @return the estimated number of bytes of the bytecode of the tree, 0 if the tree is null
+     */
+    public static int estimate(JCTree tree) {
+        if (tree == null) {
+            return 0;
+        }
+        var estimator = new Estimator();
+        estimator.scan(tree);
+        return estimator.size;
+    }
+
+    private static final class Estimator extends TreeScanner {
+        private int size = 0;
+        // number of the exits (returns, breaks, continues) of the try blocks being scanned, that duplicate finalizers
+        private int tryExits = 0;
+
+        @Override
+        public void visitApply(JCMethodInvocation tree) {
+            size += INVOKE;
+            // selecting the method is not an instruction, but selecting its receiver is
+            if (tree.meth instanceof JCFieldAccess fieldAccess) {
+                scan(fieldAccess.selected);
+            }
+            scan(tree.args);
+        }
+
+        @Override
+        public void visitIdent(JCIdent tree) {
+            size += (tree.sym != null && tree.sym.kind == Kinds.Kind.VAR && tree.sym.owner.kind == Kinds.Kind.TYP) ?
+                    FIELD : LOCAL_VAR;
+        }
+
+        @Override
+        public void visitSelect(JCFieldAccess tree) {
+            size += FIELD;
+            super.visitSelect(tree);
+        }
+
+        @Override
+        public void visitLiteral(JCLiteral tree) {
+            size += CONSTANT;
+        }
+
+        @Override
+        public void visitVarDef(JCVariableDecl tree) {
+            if (tree.init != null) {
+                size += LOCAL_VAR;
+                scan(tree.init);
+            }
+        }
+
+        @Override
+        public void visitAssign(JCAssign tree) {
+            size += LOCAL_VAR;
+            super.visitAssign(tree);
+        }
+
+        @Override
+        public void visitAssignop(JCAssignOp tree) {
+            size += LOCAL_VAR + OTHER;
+            super.visitAssignop(tree);
+        }
+
+        @Override
+        public void visitUnary(JCUnary tree) {
+            size += OTHER;
+            super.visitUnary(tree);
+        }
+
+        @Override
+        public void visitBinary(JCBinary tree) {
+            size += (tree.hasTag(JCTree.Tag.AND) || tree.hasTag(JCTree.Tag.OR)) ? BRANCH : OTHER;
+            super.visitBinary(tree);
+        }
+
+        @Override
+        public void visitConditional(JCConditional tree) {
+            size += 2 * BRANCH;
+            super.visitConditional(tree);
+        }
+
+        @Override
+        public void visitIf(JCIf tree) {
+            size += (tree.elsepart == null) ? BRANCH : 2 * BRANCH;
+            super.visitIf(tree);
+        }
+
+        @Override
+        public void visitWhileLoop(JCWhileLoop tree) {
+            size += 2 * BRANCH;
+            super.visitWhileLoop(tree);
+        }
+
+        @Override
+        public void visitDoLoop(JCDoWhileLoop tree) {
+            size += BRANCH;
+            super.visitDoLoop(tree);
+        }
+
+        @Override
+        public void visitForLoop(JCForLoop tree) {
+            size += 2 * BRANCH;
+            super.visitForLoop(tree);
+        }
+
+        @Override
+        public void visitForeachLoop(JCEnhancedForLoop tree) {
+            // iterator() (or array length and index), hasNext() and next()
+            size += 3 * INVOKE + 2 * BRANCH + 2 * LOCAL_VAR;
+            super.visitForeachLoop(tree);
+        }
+
+        @Override
+        public void visitSwitch(JCSwitch tree) {
+            size += 4 * BRANCH;
+            super.visitSwitch(tree);
+        }
+
+        @Override
+        public void visitCase(JCCase tree) {
+            size += 2 * BRANCH;
+            super.visitCase(tree);
+        }
+
+        @Override
+        public void visitTry(JCTry tree) {
+            var outerTryExits = tryExits;
+            tryExits = 0;
+            scan(tree.resources);
+            scan(tree.body);
+            scan(tree.catchers);
+            var exits = tryExits;
+            tryExits = outerTryExits + exits;
+            size += BRANCH + tree.catchers.size() * (LOCAL_VAR + BRANCH);
+            if (tree.finalizer != null) {
+                // the finalizer is copied at the end of the body and of each catcher, at each exit, and in the handler
+                // of the exceptions
+                var finalizerSize = estimate(tree.finalizer);
+                size += finalizerSize * (exits + tree.catchers.size() + 2) + 2 * LOCAL_VAR + OTHER;
+            }
+        }
+
+        @Override
+        public void visitReturn(JCReturn tree) {
+            size += OTHER;
+            tryExits += 1;
+            super.visitReturn(tree);
+        }
+
+        @Override
+        public void visitBreak(JCBreak tree) {
+            size += BRANCH;
+            tryExits += 1;
+        }
+
+        @Override
+        public void visitContinue(JCContinue tree) {
+            size += BRANCH;
+            tryExits += 1;
+        }
+
+        @Override
+        public void visitThrow(JCThrow tree) {
+            size += OTHER;
+            super.visitThrow(tree);
+        }
+
+        @Override
+        public void visitNewClass(JCNewClass tree) {
+            size += NEW;
+            scan(tree.args);
+            scan(tree.def);
+        }
+
+        @Override
+        public void visitNewArray(JCNewArray tree) {
+            size += NEW;
+            if (tree.elems != null) {
+                // dup, index and store for each element
+                size += tree.elems.size() * (CONSTANT + 2 * OTHER);
+            }
+            scan(tree.dims);
+            scan(tree.elems);
+        }
+
+        @Override
+        public void visitTypeCast(JCTypeCast tree) {
+            size += INVOKE;
+            scan(tree.expr);
+        }
+
+        @Override
+        public void visitTypeTest(JCInstanceOf tree) {
+            size += INVOKE;
+            scan(tree.expr);
+        }
+
+        @Override
+        public void visitIndexed(JCArrayAccess tree) {
+            size += OTHER;
+            super.visitIndexed(tree);
+        }
+
+        @Override
+        public void visitExec(JCExpressionStatement tree) {
+            // pop of the value of the expression, if any
+            size += (tree.expr.type != null && !tree.expr.type.hasTag(TypeTag.VOID)) ? OTHER : 0;
+            super.visitExec(tree);
+        }
+
+        @Override
+        public void visitLetExpr(LetExpr tree) {
+            scan(tree.defs);
+            scan(tree.expr);
+        }
+
+        @Override
+        public void visitTree(JCTree tree) {
+            size += OTHER;
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Groups of events that can be instrumented independently of each other (see PluginOptions)
+ * <p>
+ * Families are named in lower case in the options of the plugin, with dashes instead of underscores (e.g.
+ * control-flow)
+ */
+public enum EventFamily {
+
+    /**
+     * Method enters and exits, and return statements
+     */
+    METHODS,
+
+    /**
+     * Method and constructor calls, and the values they return
+     */
+    CALLS,
+
+    /**
+     * Declarations of variables, and assignments and updates of variables, fields and array elements
+     */
+    WRITES,
+
+    /**
+     * Reads of variables, fields and array elements
+     */
+    READS,
+
+    /**
+     * Unary and binary operators, casts and type tests
+     */
+    OPERATORS,
+
+    /**
+     * Conditions, loops, switches and jumps (break, continue and yield)
+     */
+    CONTROL_FLOW,
+
+    /**
+     * Throw statements, caught exceptions and assertions
+     */
+    EXCEPTIONS,
+
+    /**
+     * Execution of expression statements
+     */
+    STATEMENTS;
+
+    public static final String DEFAULT_PROFILE = "full";
+
+    private static final Map<String, Set<EventFamily>> PROFILES = Map.of(
+            "calls", EnumSet.of(METHODS, CALLS),
+            "control-flow", EnumSet.of(METHODS, CALLS, CONTROL_FLOW, EXCEPTIONS),
+            "writes", EnumSet.of(METHODS, CALLS, WRITES, EXCEPTIONS),
+            DEFAULT_PROFILE, EnumSet.allOf(EventFamily.class)
+    );
+
+    /**
+     * @return the name of the family in the options of the plugin
+     */
+    public String optionName() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no family with this name
+     */
+    public static EventFamily fromOptionName(String optionName) {
+        for (var family : values()) {
+            if (family.optionName().equals(optionName)) {
+                return family;
+            }
+        }
+        throw new IllegalArgumentException("unknown event family: " + optionName);
+    }
+
+    /**
+     * @return a new set containing the families of the profile
+     * @throws IllegalArgumentException if there is no profile with this name
+     */
+    public static EnumSet<EventFamily> profile(String profileName) {
+        var families = PROFILES.get(profileName);
+        if (families == null) {
+            throw new IllegalArgumentException("unknown profile: " + profileName + " (expected one of " +
+                    new TreeSet<>(PROFILES.keySet()) + ")");
+        }
+        return EnumSet.copyOf(families);
+    }
+
+}
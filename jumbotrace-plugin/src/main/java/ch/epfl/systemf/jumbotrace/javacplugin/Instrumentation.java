@@ -4,11 +4,30 @@ import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symtab;
 import com.sun.tools.javac.code.Type;
+import com.sun.tools.javac.code.TypeTag;
+import com.sun.tools.javac.jvm.ByteCodes;
+import com.sun.tools.javac.jvm.PoolConstant;
+import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.tree.TreeTranslator;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Names;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
 
 import static com.sun.tools.javac.tree.JCTree.JCExpression;
+import static com.sun.tools.javac.tree.JCTree.JCStatement;
 
 /**
  * Maker for calls to logging method calls in ___JumboTrace___
@@ -19,20 +38,138 @@ public final class Instrumentation {
 
     public static final String JUMBOTRACE_CLASS_NAME = "___JumboTrace___";
 
+    private static final int NO_POS = -1;
+
+    /**
+     * Index of the returned argument of the logging methods that do not return one of their arguments
+     */
+    private static final int NO_VALUE = -1;
+
+    /**
+     * Bootstrap method of the dynamically linked logging calls, in ___JumboTrace___
+     */
+    private static final String LINKER_NAME = "linkLogger";
+
+    /**
+     * Logging methods that must be called by the frame whose enter they log
+     */
+    private static final Set<String> ENTER_LOGGERS = Set.of("methodEnter", "guardedMethodEnter", "lambdaEnter");
+
+    /**
+     * Suffix of the names of the switches of the event families in ___JumboTrace___ (e.g. READS_ENABLED)
+     */
+    private static final String SWITCH_SUFFIX = "_ENABLED";
+
+    /**
+     * Family of the events logged by each logging method of ___JumboTrace___, i.e. switch that guards its calls when
+     * sites are guarded (methodCallArg and methodCallEnd are only called after the start of a call has been logged)
+     */
+    private static final Map<String, EventFamily> LOGGER_FAMILIES = Map.ofEntries(
+            Map.entry("methodEnter", EventFamily.METHODS),
+            Map.entry("guardedMethodEnter", EventFamily.METHODS),
+            Map.entry("lambdaEnter", EventFamily.METHODS),
+            Map.entry("methodExit", EventFamily.METHODS),
+            Map.entry("returnStat", EventFamily.METHODS),
+            Map.entry("implicitReturn", EventFamily.METHODS),
+            Map.entry("staticMethodCall", EventFamily.CALLS),
+            Map.entry("nonStaticMethodCall", EventFamily.CALLS),
+            Map.entry("methodRet", EventFamily.CALLS),
+            Map.entry("methodRetVoid", EventFamily.CALLS),
+            Map.entry("variableDeclared", EventFamily.WRITES),
+            Map.entry("initializedFieldDeclared", EventFamily.WRITES),
+            Map.entry("localVarAssignment", EventFamily.WRITES),
+            Map.entry("localVarAssignOp", EventFamily.WRITES),
+            Map.entry("localVarIncDecOp", EventFamily.WRITES),
+            Map.entry("staticFieldAssignment", EventFamily.WRITES),
+            Map.entry("staticFieldAssignOp", EventFamily.WRITES),
+            Map.entry("staticFieldIncDecOp", EventFamily.WRITES),
+            Map.entry("instanceFieldAssignment", EventFamily.WRITES),
+            Map.entry("instanceFieldAssignOp", EventFamily.WRITES),
+            Map.entry("instanceFieldIncDecOp", EventFamily.WRITES),
+            Map.entry("arrayElemSet", EventFamily.WRITES),
+            Map.entry("arrayElemAssignOp", EventFamily.WRITES),
+            Map.entry("arrayElemIncDecOp", EventFamily.WRITES),
+            Map.entry("localVarRead", EventFamily.READS),
+            Map.entry("staticFieldRead", EventFamily.READS),
+            Map.entry("instanceFieldRead", EventFamily.READS),
+            Map.entry("arrayAccess", EventFamily.READS),
+            Map.entry("unaryOp", EventFamily.OPERATORS),
+            Map.entry("binaryOperator", EventFamily.OPERATORS),
+            Map.entry("numericOperator", EventFamily.OPERATORS),
+            Map.entry("numericComparison", EventFamily.OPERATORS),
+            Map.entry("shiftOperator", EventFamily.OPERATORS),
+            Map.entry("constantValue", EventFamily.OPERATORS),
+            Map.entry("castAttempt", EventFamily.OPERATORS),
+            Map.entry("typeTest", EventFamily.OPERATORS),
+            Map.entry("breakStat", EventFamily.CONTROL_FLOW),
+            Map.entry("continueStat", EventFamily.CONTROL_FLOW),
+            Map.entry("yieldStat", EventFamily.CONTROL_FLOW),
+            Map.entry("loopEnter", EventFamily.CONTROL_FLOW),
+            Map.entry("loopExit", EventFamily.CONTROL_FLOW),
+            Map.entry("loopCond", EventFamily.CONTROL_FLOW),
+            Map.entry("foreachLoopNextIter", EventFamily.CONTROL_FLOW),
+            Map.entry("ifCond", EventFamily.CONTROL_FLOW),
+            Map.entry("ternaryCondition", EventFamily.CONTROL_FLOW),
+            Map.entry("switchConstruct", EventFamily.CONTROL_FLOW),
+            Map.entry("caught", EventFamily.EXCEPTIONS),
+            Map.entry("throwStat", EventFamily.EXCEPTIONS),
+            Map.entry("assertionStat", EventFamily.EXCEPTIONS),
+            Map.entry("exec", EventFamily.STATEMENTS)
+    );
+
     //</editor-fold>
 
     //<editor-fold desc="Fields and constructors">
 
     private final TreeMakingContainer m;
 
+    private final boolean guardSites;
+    private final boolean linkDynamically;
+    private final boolean dualVersions;
+    private final @Nullable SiteProfile siteProfile;
+    private final PluginOptions.HotSitesMode hotSitesMode;
+    private final boolean outlining;
+
     private final Symbol.ClassSymbol jumbotraceClassSymbol;
+    private final Symbol.OperatorSymbol intAdditionOperator;
+    private final Symbol.MethodHandleSymbol linkerHandle;
+
+    private final Deque<ClassSites> classesStack = new LinkedList<>();
+
+    // ids of the sites selected as hot by the profile (see makeSiteArgsList)
+    private final Set<JCExpression> hotSiteIds = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    // the events being fused, if any (see startFusion)
+    private @Nullable Fusion fusion = null;
+
+    // the path of the method being instrumented, null if conditions are logged as separate events (see startBranchPath)
+    private @Nullable BranchPath branchPath = null;
 
-    public Instrumentation(TreeMakingContainer m) {
+    /**
+     * @param guardSites whether the logging code of each site is guarded by the switch of its event family in
+     *                   ___JumboTrace___ (see PluginOptions)
+     * @param linkDynamically whether the logging calls are invokedynamic instructions, linked by ___JumboTrace___ to
+     *                        the logging methods or to no-ops (see PluginOptions)
+     * @param dualVersions whether the methods in scope have a pristine version (see MethodVersions)
+     * @param siteProfile the profile that selects the hot sites, or null if there is none
+     * @param hotSitesMode the treatment of the hot sites
+     * @param outlining whether the logging code may be outlined into helper methods (see outline)
+     */
+    public Instrumentation(TreeMakingContainer m, boolean guardSites, boolean linkDynamically, boolean dualVersions,
+                           @Nullable SiteProfile siteProfile, PluginOptions.HotSitesMode hotSitesMode, boolean outlining) {
         this.m = m;
+        this.guardSites = guardSites;
+        this.linkDynamically = linkDynamically;
+        this.dualVersions = dualVersions;
+        this.siteProfile = siteProfile;
+        this.hotSitesMode = hotSitesMode;
+        this.outlining = outlining;
         var jumbotracePackage = m.makeCompositePackageSymbol(st().rootPackage, "ch", "epfl", "systemf", "jumbotrace", "injected", "processed");
         st().defineClass(n().fromString(JUMBOTRACE_CLASS_NAME), jumbotracePackage);
         jumbotraceClassSymbol = new Symbol.ClassSymbol(0, n().fromString(JUMBOTRACE_CLASS_NAME), Type.noType, jumbotracePackage);
         jumbotraceClassSymbol.type = new Type.ClassType(Type.noType, List.nil(), jumbotraceClassSymbol);
+        intAdditionOperator = makeIntAdditionOperator();
+        linkerHandle = makeLinkerHandle();
     }
 
     //</editor-fold>
@@ -53,66 +190,230 @@ public final class Instrumentation {
 
     //</editor-fold>
 
+    //<editor-fold desc="Sites tables">
+
+    /**
+     * Must be called before instrumenting the body of a class. Logging calls made until the corresponding call to
+     * exitClass register their site in the table of this class
+     */
+    public void enterClass(Symbol.ClassSymbol classSymbol, String filename) {
+        var flags = Flags.STATIC | Flags.FINAL | Flags.SYNTHETIC;
+        flags |= classSymbol.isInterface() ? Flags.PUBLIC : Flags.PRIVATE;
+        var siteBaseSymbol = new Symbol.VarSymbol(flags, m.nextId("siteBase"), st().intType, classSymbol);
+        // the compiler only requires the owner of a local variable to be a method of the class that declares it
+        var localsOwner = new Symbol.MethodSymbol(
+                Flags.PRIVATE | Flags.SYNTHETIC,
+                n().fromString("<logging>"),
+                new Type.MethodType(List.nil(), st().voidType, List.nil(), st().methodClass),
+                classSymbol
+        );
+        var tracedFlagsSymbol = dualVersions ?
+                new Symbol.VarSymbol(flags, m.nextId("traced"), new Type.ArrayType(st().booleanType, st().arrayClass), classSymbol) :
+                null;
+        classesStack.addFirst(new ClassSites(new SiteTable(filename), siteBaseSymbol, localsOwner, tracedFlagsSymbol,
+                new ArrayList<>(), new IdentityHashMap<>(), new HashMap<>(), new ArrayList<>(), new HashMap<>()));
+    }
+
+    /**
+     * Must be called when the instrumentation of a class is complete
+     *
+     * @return the declarations of the fields that register the sites table of the class and hold the id of its first
+     * site, and that register its methods that have a pristine version (see makeVersionDispatch) and hold their flags.
+     * There are no such fields if nothing has been registered (e.g. if the class is out of scope). They must be
+     * initialized before any other static member of the class. They are followed by the helper methods that the
+     * logging code has been outlined into (see outline)
+     */
+    public List<JCTree> exitClass() {
+        var classSites = classesStack.removeFirst();
+        var decls = List.<JCTree>nil();
+        var stringArrayType = new Type.ArrayType(st().stringType, st().arrayClass);
+        if (classSites.table.size() > 0) {
+            var chunks = List.<JCExpression>nil();
+            for (var chunk : classSites.table.chunks()) {
+                chunks = chunks.append(mk().Literal(chunk));
+            }
+            var registration = makeLogMethodCall(
+                    "registerSites",
+                    List.of(
+                            new Argument(st().intType, mk().Literal(classSites.table.size())),
+                            new Argument(stringArrayType, mk().NewArray(mk().Type(st().stringType), List.nil(), chunks).setType(stringArrayType))
+                    ),
+                    st().intType
+            );
+            var siteBaseSymbol = classSites.siteBaseSymbol;
+            siteBaseSymbol.owner.members().enter(siteBaseSymbol);
+            decls = decls.append(mk().VarDef(siteBaseSymbol, registration));
+        }
+        if (!classSites.versionedMethods.isEmpty()) {
+            var methodNames = List.<JCExpression>nil();
+            for (var methodName : classSites.versionedMethods) {
+                methodNames = methodNames.append(mk().Literal(methodName));
+            }
+            var tracedFlagsSymbol = Objects.requireNonNull(classSites.tracedFlagsSymbol);
+            var registration = makeLogMethodCall(
+                    "registerMethodVersions",
+                    List.of(
+                            new Argument(st().stringType, mk().Literal(tracedFlagsSymbol.owner.flatName().toString())),
+                            new Argument(stringArrayType, mk().NewArray(mk().Type(st().stringType), List.nil(), methodNames).setType(stringArrayType))
+                    ),
+                    tracedFlagsSymbol.type
+            );
+            tracedFlagsSymbol.owner.members().enter(tracedFlagsSymbol);
+            decls = decls.append(mk().VarDef(tracedFlagsSymbol, registration));
+        }
+        return decls.appendList(List.from(classSites.helperDecls));
+    }
+
+    /**
+     * @param localsOwner       owner of the local variables created by the instrumentation (e.g. in makeValueLogMethodCall)
+     * @param tracedFlagsSymbol field holding the flags of the methods that have a pristine version (null if methods do
+     *                          not have pristine versions)
+     * @param versionedMethods  names of the methods that have a pristine version, in the order of their flags
+     * @param outlinables       logging code that can be outlined, if outlining is enabled (see outline)
+     * @param helpers           helper methods of the class, by key of the logging code that they run
+     * @param helperDecls       declarations of the helper methods
+     * @param inputSites        sites of the calls that read inputs, by position and key (see redirectInput)
+     */
+    private record ClassSites(SiteTable table, Symbol.VarSymbol siteBaseSymbol, Symbol.MethodSymbol localsOwner,
+                              @Nullable Symbol.VarSymbol tracedFlagsSymbol, ArrayList<String> versionedMethods,
+                              IdentityHashMap<JCTree, Outlinable> outlinables, HashMap<String, Symbol.MethodSymbol> helpers,
+                              ArrayList<JCTree.JCMethodDecl> helperDecls, HashMap<String, Integer> inputSites) {
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Method versions">
+
+    /**
+     * Makes the body of a method that has a pristine version (see MethodVersions): the instrumented body runs if tracing
+     * is switched on for the method, and the pristine body runs otherwise. The flag of the method is in an array
+     * registered by the class (see exitClass), so that the flags can be set at runtime by ___JumboTrace___
+     */
+    public JCTree.JCBlock makeVersionDispatch(JCTree.JCMethodDecl method, JCTree.JCBlock pristineBody) {
+        var classSites = classesStack.getFirst();
+        var flagIdx = classSites.versionedMethods.size();
+        classSites.versionedMethods.add(method.name.toString());
+        var tracedFlagsSymbol = Objects.requireNonNull(classSites.tracedFlagsSymbol);
+        var tracedFlag = mk().Indexed(mk().Ident(tracedFlagsSymbol), mk().Literal(flagIdx)).setType(st().booleanType);
+        return mk().Block(0, List.of(mk().If(tracedFlag, method.body, pristineBody)));
+    }
+
+    //</editor-fold>
+
     //<editor-fold desc="Method calls and enters">
 
-    public JCExpression logStaticMethodCall(
-            String className, String methodName, Type.MethodType methodSig, List<JCExpression> args,
-            String filename, int startLine, int startCol, int endLine, int endCol
+    /**
+     * @param calledFromLambda whether the call is in the body of a lambda whose enter is not logged (i.e. not made by
+     *                         the frame of the enclosing method or lambda)
+     * @param calleeExcluded   whether the called method is out of the scope of the instrumentation (see ScopeFilter),
+     *                         i.e. whether the call crosses the boundary of the instrumented code
+     */
+    public JCStatement logStaticMethodCall(
+            String className, String methodName, Type.MethodType methodSig, boolean calledFromLambda, boolean calleeExcluded,
+            List<JCExpression> args,
+            int startLine, int startCol, int endLine, int endCol
     ) {
-        return makeLogMethodCall(
-                "staticMethodCall",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(methodName)),
-                        new Argument(st().stringType, mk().Literal(methodSig.toString())),
-                        new Argument(
-                                methodCallLoggerArgsArrayType(),
-                                mk().NewArray(mk().Type(st().objectType), List.nil(), args).setType(methodCallLoggerArgsArrayType())
-                        )
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
-        );
+        var siteIdx = registerSite("staticMethodCall", startLine, startCol, endLine, endCol, className, methodName,
+                methodSig.toString(), calledFromLambda, calleeExcluded);
+        var callArgs = List.<Argument>nil();
+        for (var arg : args) {
+            callArgs = callArgs.append(new Argument(topmostTypeFor(arg.type), arg));
+        }
+        callArgs = callArgs.append(new Argument(st().intType, makeSiteId(siteIdx)));
+        var logging = makeCallLogging(false, callArgs);
+        registerOutlinable(logging, "staticMethodCall", callArgs, st().voidType,
+                helperArgs -> makeCallLogging(false, helperArgs));
+        return logging;
     }
 
-    public JCExpression logNonStaticMethodCall(
-            String className, String methodName, Type.MethodType methodSig, JCExpression receiver, List<JCExpression> args,
-            String filename, int startLine, int startCol, int endLine, int endCol
+    /**
+     * @param calledFromLambda whether the call is in the body of a lambda whose enter is not logged (i.e. not made by
+     *                         the frame of the enclosing method or lambda)
+     * @param calleeExcluded   whether the called method is out of the scope of the instrumentation (see ScopeFilter),
+     *                         i.e. whether the call crosses the boundary of the instrumented code
+     */
+    public JCStatement logNonStaticMethodCall(
+            String className, String methodName, Type.MethodType methodSig, boolean calledFromLambda, boolean calleeExcluded,
+            JCExpression receiver, List<JCExpression> args,
+            int startLine, int startCol, int endLine, int endCol
     ) {
-        return makeLogMethodCall(
-                "nonStaticMethodCall",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(methodName)),
-                        new Argument(st().stringType, mk().Literal(methodSig.toString())),
-                        new Argument(st().objectType, receiver),
-                        new Argument(
-                                methodCallLoggerArgsArrayType(),
-                                mk().NewArray(mk().Type(st().objectType), List.nil(), args).setType(methodCallLoggerArgsArrayType())
-                        )
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+        var siteIdx = registerSite("nonStaticMethodCall", startLine, startCol, endLine, endCol, className, methodName,
+                methodSig.toString(), calledFromLambda, calleeExcluded);
+        var callArgs = List.of(new Argument(st().objectType, receiver));
+        for (var arg : args) {
+            callArgs = callArgs.append(new Argument(topmostTypeFor(arg.type), arg));
+        }
+        callArgs = callArgs.append(new Argument(st().intType, makeSiteId(siteIdx)));
+        var logging = makeCallLogging(true, callArgs);
+        registerOutlinable(logging, "nonStaticMethodCall", callArgs, st().voidType,
+                helperArgs -> makeCallLogging(true, helperArgs));
+        return logging;
+    }
+
+    /**
+     * Logs the arguments one by one, each with the logger specialized for its type, if the start of the call is logged
+     * (see ___JumboTrace___.staticMethodCall)
+     *
+     * @param args the receiver (if the call is not static), the arguments of the call and the site id. The site id
+     *             must be side-effect free, as it is evaluated twice
+     */
+    private JCStatement makeCallLogging(boolean hasReceiver, List<Argument> args) {
+        var siteArg = args.last();
+        var receiverArgs = hasReceiver ? List.of(args.head) : List.<Argument>nil();
+        var callArgs = hasReceiver ? args.tail : args;
+        var callStart = makeLogMethodCall(
+                hasReceiver ? "nonStaticMethodCall" : "staticMethodCall",
+                receiverArgs.appendList(List.of(
+                        new Argument(st().intType, mk().Literal(callArgs.length() - 1)),
+                        siteArg
+                )),
+                st().booleanType
+        );
+        var stats = List.<JCStatement>nil();
+        for (var arg = callArgs; arg.tail.nonEmpty(); arg = arg.tail) {
+            var argLogging = makeLogMethodCall("methodCallArg", List.of(arg.head), st().voidType);
+            stats = stats.append(mk().Exec(argLogging));
+        }
+        var callEnd = makeLogMethodCall(
+                "methodCallEnd",
+                List.of(new Argument(st().intType, copySiteId(siteArg.expr()))),
                 st().voidType
         );
+        stats = stats.append(mk().Exec(callEnd));
+        return guard(EventFamily.CALLS, mk().If(callStart, mk().Block(0, stats), null));
     }
 
-    public JCExpression logMethodEnter(String className, String methodName, Type.MethodType methodSig,
-                                       String filename, int line, int col) {
-        return makeLogMethodCall(
-                "methodEnter",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(methodName)),
-                        new Argument(st().stringType, mk().Literal(methodSig.toString()))
-                ).appendList(makeSinglePositionArgsList(filename, line, col)),
-                st().voidType
+    public JCStatement logMethodEnter(String className, String methodName, Type.MethodType methodSig,
+                                       int line, int col) {
+        var siteArgs = makeSiteArgsList("methodEnter", line, col, NO_POS, NO_POS, className, methodName, methodSig.toString());
+        if (guardSites) {
+            // the call must remain the first statement of constructors, hence the switch is tested by the logging method
+            return mk().Exec(makeLogMethodCall("guardedMethodEnter", siteArgs, st().voidType));
+        }
+        return makeLoggingStat("methodEnter", siteArgs);
+    }
+
+    /**
+     * The exit of the lambda is logged by logMethodExit, like the one of a method
+     *
+     * @param interfaceName       the functional interface implemented by the lambda
+     * @param methodName          the method of the functional interface
+     * @param methodSig           the signature of the method, as instantiated by the target type of the lambda
+     * @param enclosingMethodName the method in which the lambda is defined
+     */
+    public JCStatement logLambdaEnter(String interfaceName, String methodName, Type.MethodType methodSig,
+                                      String enclosingMethodName, int line, int col) {
+        return makeLoggingStat(
+                "lambdaEnter",
+                makeSiteArgsList("lambdaEnter", line, col, NO_POS, NO_POS, interfaceName, methodName, methodSig.toString(),
+                        enclosingMethodName)
         );
     }
 
-    public JCExpression logMethodExit(String methodName, String filename, int line, int col) {
-        return makeLogMethodCall(
+    public JCStatement logMethodExit(String methodName, int line, int col) {
+        return makeLoggingStat(
                 "methodExit",
-                List.of(new Argument(st().stringType, mk().Literal(methodName)))
-                        .appendList(makeSinglePositionArgsList(filename, line, col)),
-                st().voidType
+                makeSiteArgsList("methodExit", line, col, NO_POS, NO_POS, methodName)
         );
     }
 
@@ -121,50 +422,39 @@ public final class Instrumentation {
     //<editor-fold desc="Method returns">
 
     public JCExpression logMethodReturnValue(String className, String methodName, JCExpression returnValue,
-                                             String filename, int startLine, int startCol, int endLine, int endCol) {
+                                             int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(returnValue.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "methodRet",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(methodName)),
                         new Argument(higherType, returnValue)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("methodRet", startLine, startCol, endLine, endCol, className, methodName)),
+                0,
                 higherType
         );
         return castIfNeeded(returnValue.type, apply);
     }
 
-    public JCExpression logMethodReturnVoid(String className, String methodName, String filename, int startLine,
+    public JCStatement logMethodReturnVoid(String className, String methodName, int startLine,
                                             int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "methodRetVoid",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(methodName))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("methodRetVoid", startLine, startCol, endLine, endCol, className, methodName)
         );
     }
 
-    public JCExpression logReturnStat(String methodName, String filename, int startLine,
+    public JCStatement logReturnStat(String methodName, int startLine,
                                       int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "returnStat",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(methodName))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("returnStat", startLine, startCol, endLine, endCol, methodName)
         );
     }
 
-    public JCExpression logImplicitReturn(String methodName, String filename, int line, int col) {
-        return makeLogMethodCall(
+    public JCStatement logImplicitReturn(String methodName, int line, int col) {
+        return makeLoggingStat(
                 "implicitReturn",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(methodName))
-                ).appendList(makeSinglePositionArgsList(filename, line, col)),
-                st().voidType
+                makeSiteArgsList("implicitReturn", line, col, NO_POS, NO_POS, methodName)
         );
     }
 
@@ -172,231 +462,200 @@ public final class Instrumentation {
 
     //<editor-fold desc="Assignments, variable declaration, field declaration">
 
-    public JCExpression logVariableDeclaration(String varName, String typeDescr,
-                                               String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logVariableDeclaration(String varName, String typeDescr,
+                                               int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "variableDeclared",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(varName)),
-                        new Argument(st().stringType, mk().Literal(typeDescr))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("variableDeclared", startLine, startCol, endLine, endCol, varName, typeDescr)
         );
     }
 
     public JCExpression logInitializedFieldDeclaration(String className, String fieldName, String typeDescr, JCExpression value,
-                                                       String filename, int startLine, int startCol, int endLine, int endCol) {
+                                                       int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(value.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "initializedFieldDeclared",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
-                        new Argument(st().stringType, mk().Literal(typeDescr)),
                         new Argument(higherType, value)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("initializedFieldDeclared", startLine, startCol, endLine, endCol, className, fieldName, typeDescr)),
+                0,
                 higherType
         );
         return castIfNeeded(value.type, apply);
     }
 
     public JCExpression logLocalVarAssignment(String varName, JCExpression rhs, Type varType,
-                                              String filename, int startLine, int startCol, int endLine, int endCol) {
+                                              int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(varType);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "localVarAssignment",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(varName)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("localVarAssignment", startLine, startCol, endLine, endCol, varName)),
+                0,
                 higherType
         );
         return castIfNeeded(varType, apply);
     }
 
-    public JCExpression logLocalVarAssignOp(String varName, JCExpression newValue, Type varType,
+    public JCStatement logLocalVarAssignOp(String varName, JCExpression newValue, Type varType,
                                             JCExpression oldValue, String operator, JCExpression rhs,
-                                            String filename, int startLine, int startCol, int endLine, int endCol) {
+                                            int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(varType);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "localVarAssignOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(varName)),
                         new Argument(higherType, newValue),
                         new Argument(higherType, oldValue),
-                        new Argument(st().stringType, mk().Literal(operator)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("localVarAssignOp", startLine, startCol, endLine, endCol, varName, operator))
         );
     }
 
     public JCExpression logLocalVarIncDecOp(String varName, JCExpression result,
                                             boolean isPrefixOp, boolean isIncOp,
-                                            String filename, int startLine, int startCol, int endLine, int endCol) {
+                                            int startLine, int startCol, int endLine, int endCol) {
         var type = result.type;   // no need to call topmostTypeFor as this method only handles numeric types
-        return makeLogMethodCall(
+        return makeValueLogMethodCall(
                 "localVarIncDecOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(varName)),
-                        new Argument(type, result),
-                        new Argument(st().booleanType, mk().Literal(isPrefixOp)),
-                        new Argument(st().booleanType, mk().Literal(isIncOp))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(type, result)
+                ).appendList(makeSiteArgsList("localVarIncDecOp", startLine, startCol, endLine, endCol, varName, isPrefixOp, isIncOp)),
+                0,
                 type
         );
     }
 
     public JCExpression logStaticFieldAssignment(String className, String fieldName, JCExpression rhs, Type fieldType,
-                                                 String filename, int startLine, int startCol, int endLine, int endCol) {
+                                                 int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(fieldType);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "staticFieldAssignment",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("staticFieldAssignment", startLine, startCol, endLine, endCol, className, fieldName)),
+                0,
                 higherType
         );
         return castIfNeeded(fieldType, apply);
     }
 
-    public JCExpression logStaticFieldAssignOp(String className, String fieldName, JCExpression newValue, Type fieldType,
+    public JCStatement logStaticFieldAssignOp(String className, String fieldName, JCExpression newValue, Type fieldType,
                                                JCExpression oldValue, String operator, JCExpression rhs,
-                                               String filename, int startLine, int startCol, int endLine, int endCol) {
+                                               int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(fieldType);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "staticFieldAssignOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
                         new Argument(higherType, newValue),
                         new Argument(higherType, oldValue),
-                        new Argument(st().stringType, mk().Literal(operator)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("staticFieldAssignOp", startLine, startCol, endLine, endCol, className, fieldName, operator))
         );
     }
 
     public JCExpression logStaticFieldIncDecOp(String className, String fieldName, JCExpression result,
                                                boolean isPrefixOp, boolean isIncOp,
-                                               String filename, int startLine, int startCol, int endLine, int endCol) {
+                                               int startLine, int startCol, int endLine, int endCol) {
         var type = result.type;   // no need to call topmostTypeFor as this method only handles numeric types
-        return makeLogMethodCall(
+        return makeValueLogMethodCall(
                 "staticFieldIncDecOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
-                        new Argument(type, result),
-                        new Argument(st().booleanType, mk().Literal(isPrefixOp)),
-                        new Argument(st().booleanType, mk().Literal(isIncOp))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(type, result)
+                ).appendList(makeSiteArgsList("staticFieldIncDecOp", startLine, startCol, endLine, endCol, className, fieldName, isPrefixOp, isIncOp)),
+                0,
                 type
         );
     }
 
     public JCExpression logInstanceFieldAssignment(String className, JCExpression selected, String fieldName, JCExpression rhs, Type fieldType,
-                                                   String filename, int startLine, int startCol, int endLine, int endCol) {
+                                                   int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(fieldType);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "instanceFieldAssignment",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
                         new Argument(st().objectType, selected),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("instanceFieldAssignment", startLine, startCol, endLine, endCol, className, fieldName)),
+                1,
                 higherType
         );
         return castIfNeeded(fieldType, apply);
     }
 
-    public JCExpression logInstanceFieldAssignOp(String className, JCExpression instance, String fieldName, JCExpression newValue,
+    public JCStatement logInstanceFieldAssignOp(String className, JCExpression instance, String fieldName, JCExpression newValue,
                                                  JCExpression oldValue, String operator, JCExpression rhs, Type fieldType,
-                                                 String filename, int startLine, int startCol, int endLine, int endCol) {
+                                                 int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(fieldType);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "instanceFieldAssignOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
                         new Argument(st().objectType, instance),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
                         new Argument(higherType, newValue),
                         new Argument(higherType, oldValue),
-                        new Argument(st().stringType, mk().Literal(operator)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("instanceFieldAssignOp", startLine, startCol, endLine, endCol, className, fieldName, operator))
         );
     }
 
     public JCExpression logInstanceFieldIncDecOp(String className, JCExpression instance, String fieldName, JCExpression result,
                                                  boolean isPrefixOp, boolean isIncOp,
-                                                 String filename, int startLine, int startCol, int endLine, int endCol) {
+                                                 int startLine, int startCol, int endLine, int endCol) {
         var type = result.type;   // no need to call topmostTypeFor as this method only handles numeric types
-        return makeLogMethodCall(
+        return makeValueLogMethodCall(
                 "instanceFieldIncDecOp",
                 List.of(
-                        new Argument(st().stringType, mk().Literal(className)),
                         new Argument(st().objectType, instance),
-                        new Argument(st().stringType, mk().Literal(fieldName)),
-                        new Argument(type, result),
-                        new Argument(st().booleanType, mk().Literal(isPrefixOp)),
-                        new Argument(st().booleanType, mk().Literal(isIncOp))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(type, result)
+                ).appendList(makeSiteArgsList("instanceFieldIncDecOp", startLine, startCol, endLine, endCol, className, fieldName, isPrefixOp, isIncOp)),
+                1,
                 type
         );
     }
 
-    public JCExpression logArrayElemSet(JCExpression array, JCExpression index, JCExpression rhs,
-                                        String filename, int startLine, int startCol, int endLine, int endCol) {
+    public JCStatement logArrayElemSet(JCExpression array, JCExpression index, JCExpression rhs,
+                                        int startLine, int startCol, int endLine, int endCol) {
         var elemType = ((Type.ArrayType) array.type).getComponentType();
         var higherType = topmostTypeFor(elemType);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "arrayElemSet",
                 List.of(
                         new Argument(st().objectType, array),
                         new Argument(st().intType, index),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("arrayElemSet", startLine, startCol, endLine, endCol))
         );
     }
 
-    public JCExpression logArrayElemAssignOp(JCExpression array, JCExpression index, JCExpression newValue,
+    public JCStatement logArrayElemAssignOp(JCExpression array, JCExpression index, JCExpression newValue,
                                              JCExpression oldValue, String operator, JCExpression rhs,
-                                             String filename, int startLine, int startCol, int endLine, int endCol) {
+                                             int startLine, int startCol, int endLine, int endCol) {
         var elemType = ((Type.ArrayType) array.type).getComponentType();
         var higherType = topmostTypeFor(elemType);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "arrayElemAssignOp",
                 List.of(
                         new Argument(st().objectType, array),
                         new Argument(st().intType, index),
                         new Argument(higherType, newValue),
                         new Argument(higherType, oldValue),
-                        new Argument(st().stringType, mk().Literal(operator)),
                         new Argument(higherType, rhs)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("arrayElemAssignOp", startLine, startCol, endLine, endCol, operator))
         );
     }
 
     public JCExpression logArrayIncDecOp(JCExpression array, JCExpression index, JCExpression result,
                                          boolean isPrefixOp, boolean isIncOp,
-                                         String filename, int startLine, int startCol, int endLine, int endCol) {
+                                         int startLine, int startCol, int endLine, int endCol) {
         var type = result.type;   // no need to call topmostTypeFor as this method only handles numeric types
-        return makeLogMethodCall(
+        return makeValueLogMethodCall(
                 "arrayElemIncDecOp",
                 List.of(
                         new Argument(st().objectType, array),
                         new Argument(st().intType, index),
-                        new Argument(type, result),
-                        new Argument(st().booleanType, mk().Literal(isPrefixOp)),
-                        new Argument(st().booleanType, mk().Literal(isIncOp))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(type, result)
+                ).appendList(makeSiteArgsList("arrayElemIncDecOp", startLine, startCol, endLine, endCol, isPrefixOp, isIncOp)),
+                2,
                 type
         );
     }
@@ -405,143 +664,157 @@ public final class Instrumentation {
 
     //<editor-fold desc="Expressions and exec">
 
-    public JCExpression logExec(String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logExec(int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "exec",
-                makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol),
-                st().voidType
+                makeSiteArgsList("exec", startLine, startCol, endLine, endCol)
         );
     }
 
-    public JCExpression logLocalRead(JCExpression value, String varName, String filename, int startLine, int startCol, int endLine, int endCol) {
+    public JCExpression logLocalRead(JCExpression value, String varName, int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(value.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "localVarRead",
                 List.of(
-                        new Argument(higherType, value),
-                        new Argument(st().stringType, mk().Literal(varName))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(higherType, value)
+                ).appendList(makeSiteArgsList("localVarRead", startLine, startCol, endLine, endCol, varName)),
+                0,
                 higherType
         );
         return castIfNeeded(value.type, apply);
     }
 
     public JCExpression logStaticFieldRead(JCExpression value, String className, String fieldName,
-                                           String filename, int startLine, int startCol, int endLine, int endCol) {
+                                           int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(value.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "staticFieldRead",
                 List.of(
-                        new Argument(higherType, value),
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(higherType, value)
+                ).appendList(makeSiteArgsList("staticFieldRead", startLine, startCol, endLine, endCol, className, fieldName)),
+                0,
                 higherType
         );
         return castIfNeeded(value.type, apply);
     }
 
     public JCExpression logInstanceFieldRead(JCExpression value, JCExpression owner, String className, String fieldName,
-                                             String filename, int startLine, int startCol, int endLine, int endCol) {
+                                             int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(value.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "instanceFieldRead",
                 List.of(
                         new Argument(higherType, value),
-                        new Argument(st().objectType, owner),
-                        new Argument(st().stringType, mk().Literal(className)),
-                        new Argument(st().stringType, mk().Literal(fieldName))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(st().objectType, owner)
+                ).appendList(makeSiteArgsList("instanceFieldRead", startLine, startCol, endLine, endCol, className, fieldName)),
+                0,
                 higherType
         );
         return castIfNeeded(value.type, apply);
     }
 
     public JCExpression logArrayAccess(JCExpression value, JCExpression array, JCExpression index,
-                                       String filename, int startLine, int startCol, int endLine, int endCol) {
+                                       int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(value.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "arrayAccess",
                 List.of(
                         new Argument(higherType, value),
                         new Argument(st().objectType, array),
                         new Argument(st().intType, index)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("arrayAccess", startLine, startCol, endLine, endCol)),
+                0,
                 higherType
         );
         return castIfNeeded(value.type, apply);
     }
 
     public JCExpression logUnaryOp(JCExpression resultExpr, JCExpression argExpr, String operator,
-                                   String filename, int startLine, int startCol, int endLine, int endCol) {
+                                   int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(resultExpr.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "unaryOp",
                 List.of(
                         new Argument(higherType, resultExpr),
-                        new Argument(higherType, argExpr),
-                        new Argument(st().stringType, mk().Literal(operator))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(higherType, argExpr)
+                ).appendList(makeSiteArgsList("unaryOp", startLine, startCol, endLine, endCol, operator)),
+                0,
                 higherType
         );
         return castIfNeeded(resultExpr.type, apply);
     }
 
-    public JCExpression logBinaryOp(JCExpression lhs, JCExpression rhs, String operator, JCExpression result,
-                                    String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
-                "binaryOperator",
+    public JCStatement logBinaryOp(JCExpression lhs, JCExpression rhs, String operator, JCExpression result,
+                                    int startLine, int startCol, int endLine, int endCol) {
+        // operands are passed with their own type (i.e. before numeric promotion), so that their values are logged as is
+        var lhsType = topmostTypeFor(lhs.type);
+        var rhsType = topmostTypeFor(rhs.type);
+        var resType = topmostTypeFor(result.type);
+        var isNumericOp = isNumericType(lhsType) && isNumericType(rhsType);
+        var isBooleanOp = lhsType.hasTag(TypeTag.BOOLEAN) && rhsType.hasTag(TypeTag.BOOLEAN) && resType.hasTag(TypeTag.BOOLEAN);
+        if (!isNumericOp && !isBooleanOp) {
+            // e.g. string concatenation, or boxed operands
+            lhsType = rhsType = resType = st().objectType;
+        }
+        // the loggers of numeric operators derive the type of the result from the types of the operands
+        var logger = !isNumericOp ? "binaryOperator" : switch (operator) {
+            case "<", "<=", ">", ">=", "==", "!=" -> "numericComparison";
+            case "<<", ">>", ">>>" -> "shiftOperator";
+            default -> "numericOperator";
+        };
+        return makeLoggingStat(
+                logger,
                 List.of(
-                        new Argument(st().objectType, lhs),
-                        new Argument(st().objectType, rhs),
-                        new Argument(st().stringType, mk().Literal(operator)),
-                        new Argument(st().objectType, result)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                        new Argument(lhsType, lhs),
+                        new Argument(rhsType, rhs),
+                        new Argument(resType, result)
+                ).appendList(makeSiteArgsList("binaryOperator", startLine, startCol, endLine, endCol, operator))
         );
     }
 
+    public JCExpression logConstant(JCExpression constantExpr, String exprDescr,
+                                    int startLine, int startCol, int endLine, int endCol) {
+        // the logging call must not have a constant type, otherwise the code generator would replace it by the constant
+        var type = constantExpr.type.baseType();
+        var higherType = topmostTypeFor(type);
+        var apply = makeValueLogMethodCall(
+                "constantValue",
+                List.of(
+                        new Argument(higherType, constantExpr)
+                ).appendList(makeSiteArgsList("constantValue", startLine, startCol, endLine, endCol, exprDescr)),
+                0,
+                higherType
+        );
+        return castIfNeeded(type, apply);
+    }
+
     //</editor-fold>
 
     //<editor-fold desc="Jumps: break, continue, yield">
 
-    public JCExpression logBreak(String targetDescr, int targetLine, int targetCol,
-                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logBreak(String targetDescr, int targetLine, int targetCol,
+                                 int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "breakStat",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(targetDescr)),
-                        new Argument(st().intType, mk().Literal(targetLine)),
-                        new Argument(st().intType, mk().Literal(targetCol))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("breakStat", startLine, startCol, endLine, endCol, targetDescr, targetLine, targetCol)
         );
     }
 
-    public JCExpression logContinue(String targetDescr, int targetLine, int targetCol,
-                                    String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logContinue(String targetDescr, int targetLine, int targetCol,
+                                    int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "continueStat",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(targetDescr)),
-                        new Argument(st().intType, mk().Literal(targetLine)),
-                        new Argument(st().intType, mk().Literal(targetCol))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("continueStat", startLine, startCol, endLine, endCol, targetDescr, targetLine, targetCol)
         );
     }
 
-    public JCExpression logYield(JCExpression yieldedVal, String targetDescr, int targetLine, int targetCol,
-                                 String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logYield(JCExpression yieldedVal, String targetDescr, int targetLine, int targetCol,
+                                 int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "yieldStat",
                 List.of(
-                        new Argument(st().objectType, yieldedVal),
-                        new Argument(st().stringType, mk().Literal(targetDescr)),
-                        new Argument(st().intType, mk().Literal(targetLine)),
-                        new Argument(st().intType, mk().Literal(targetCol))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                        new Argument(st().objectType, yieldedVal)
+                ).appendList(makeSiteArgsList("yieldStat", startLine, startCol, endLine, endCol, targetDescr, targetLine, targetCol))
         );
     }
 
@@ -549,63 +822,63 @@ public final class Instrumentation {
 
     //<editor-fold desc="Exceptions, casts, assertions, type tests">
 
-    public JCExpression logCaught(JCExpression exprYieldingThrowable,
-                                  String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logCaught(JCExpression exprYieldingThrowable,
+                                  int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "caught",
                 List.of(
                         new Argument(st().throwableType, exprYieldingThrowable)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("caught", startLine, startCol, endLine, endCol))
         );
     }
 
     public JCExpression logCastAttempt(JCExpression castedExpr, String targetTypeDescr, JCExpression successExpr,
-                                       String filename, int startLine, int startCol, int endLine, int endCol) {
+                                       int startLine, int startCol, int endLine, int endCol) {
         var highestType = topmostTypeFor(castedExpr.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "castAttempt",
                 List.of(
                         new Argument(highestType, castedExpr),
-                        new Argument(st().stringType, mk().Literal(targetTypeDescr)),
                         new Argument(st().booleanType, successExpr)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("castAttempt", startLine, startCol, endLine, endCol, targetTypeDescr)),
+                0,
                 highestType
         );
         return mk().TypeCast(castedExpr.type, apply);
     }
 
-    public JCExpression logThrowStat(JCExpression throwable, String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCExpression logThrowStat(JCExpression throwable, int startLine, int startCol, int endLine, int endCol) {
+        return makeValueLogMethodCall(
                 "throwStat",
                 List.of(
                         new Argument(st().throwableType, throwable)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                ).appendList(makeSiteArgsList("throwStat", startLine, startCol, endLine, endCol)),
+                0,
                 st().throwableType
         );
     }
 
     public JCExpression logAssertion(JCExpression asserted, String assertedDescr,
-                                     String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+                                     int startLine, int startCol, int endLine, int endCol) {
+        return makeValueLogMethodCall(
                 "assertionStat",
                 List.of(
-                        new Argument(st().booleanType, asserted),
-                        new Argument(st().stringType, mk().Literal(assertedDescr))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(st().booleanType, asserted)
+                ).appendList(makeSiteArgsList("assertionStat", startLine, startCol, endLine, endCol, assertedDescr)),
+                0,
                 st().booleanType
         );
     }
 
     public JCExpression logTypeTest(JCExpression cond, JCExpression testedObj, String targetType,
-                                    String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+                                    int startLine, int startCol, int endLine, int endCol) {
+        return makeValueLogMethodCall(
                 "typeTest",
                 List.of(
                         new Argument(st().booleanType, cond),
-                        new Argument(st().objectType, testedObj),
-                        new Argument(st().stringType, mk().Literal(targetType))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(st().objectType, testedObj)
+                ).appendList(makeSiteArgsList("typeTest", startLine, startCol, endLine, endCol, targetType)),
+                0,
                 st().booleanType
         );
     }
@@ -614,46 +887,36 @@ public final class Instrumentation {
 
     //<editor-fold desc="Loops">
 
-    public JCExpression logLoopEnter(String loopType, String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logLoopEnter(String loopType, int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "loopEnter",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(loopType))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("loopEnter", startLine, startCol, endLine, endCol, loopType)
         );
     }
 
-    public JCExpression logLoopExit(String loopType, String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCStatement logLoopExit(String loopType, int startLine, int startCol, int endLine, int endCol) {
+        return makeLoggingStat(
                 "loopExit",
-                List.of(
-                        new Argument(st().stringType, mk().Literal(loopType))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                makeSiteArgsList("loopExit", startLine, startCol, endLine, endCol, loopType)
         );
     }
 
     public JCExpression logLoopCondition(JCExpression loopCond, String loopType,
-                                         String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+                                         int startLine, int startCol, int endLine, int endCol) {
+        return makeConditionLogging(
                 "loopCond",
-                List.of(
-                        new Argument(st().booleanType, loopCond),
-                        new Argument(st().stringType, mk().Literal(loopType))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().booleanType
+                loopCond,
+                makeSiteArgsList("loopCond", startLine, startCol, endLine, endCol, loopType)
         );
     }
 
-    public JCExpression logForeachNextIter(JCExpression elem, String filename, int startLine, int startCol, int endLine, int endCol) {
+    public JCStatement logForeachNextIter(JCExpression elem, int startLine, int startCol, int endLine, int endCol) {
         var specializedType = topmostTypeFor(elem.type);
-        return makeLogMethodCall(
+        return makeLoggingStat(
                 "foreachLoopNextIter",
                 List.of(
                         new Argument(specializedType, elem)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().voidType
+                ).appendList(makeSiteArgsList("foreachLoopNextIter", startLine, startCol, endLine, endCol))
         );
     }
 
@@ -661,34 +924,31 @@ public final class Instrumentation {
 
     //<editor-fold desc="if and switch">
 
-    public JCExpression logIfCond(JCExpression loopCond, String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCExpression logIfCond(JCExpression loopCond, int startLine, int startCol, int endLine, int endCol) {
+        return makeConditionLogging(
                 "ifCond",
-                List.of(
-                        new Argument(st().booleanType, loopCond)
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().booleanType
+                loopCond,
+                makeSiteArgsList("ifCond", startLine, startCol, endLine, endCol)
         );
     }
 
-    public JCExpression logTernaryCond(JCExpression condition, String filename, int startLine, int startCol, int endLine, int endCol) {
-        return makeLogMethodCall(
+    public JCExpression logTernaryCond(JCExpression condition, int startLine, int startCol, int endLine, int endCol) {
+        return makeConditionLogging(
                 "ternaryCondition",
-                List.of(new Argument(st().booleanType, condition))
-                        .appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
-                st().booleanType
+                condition,
+                makeSiteArgsList("ternaryCondition", startLine, startCol, endLine, endCol)
         );
     }
 
     public JCExpression logSwitchConstruct(JCExpression selector, boolean isSwitchExpr,
-                                           String filename, int startLine, int startCol, int endLine, int endCol) {
+                                           int startLine, int startCol, int endLine, int endCol) {
         var higherType = topmostTypeFor(selector.type);
-        var apply = makeLogMethodCall(
+        var apply = makeValueLogMethodCall(
                 "switchConstruct",
                 List.of(
-                        new Argument(higherType, selector),
-                        new Argument(st().booleanType, mk().Literal(isSwitchExpr))
-                ).appendList(makePositionIntervalArgsList(filename, startLine, startCol, endLine, endCol)),
+                        new Argument(higherType, selector)
+                ).appendList(makeSiteArgsList("switchConstruct", startLine, startCol, endLine, endCol, isSwitchExpr)),
+                0,
                 higherType
         );
         return castIfNeeded(selector.type, apply);
@@ -696,31 +956,637 @@ public final class Instrumentation {
 
     //</editor-fold>
 
-    //<editor-fold desc="Utils">
+    //<editor-fold desc="Branch paths">
+
+    /**
+     * Must match ___JumboTrace___.EMPTY_BRANCH_PATH
+     */
+    private static final long EMPTY_BRANCH_PATH = 1;
+
+    /**
+     * Path of a method, i.e. sequence of the outcomes of the conditions evaluated by one of its executions (see
+     * startBranchPath)
+     */
+    private static final class BranchPath {
+        private final Symbol.VarSymbol pathVar;
+        private final String methodName;
+        private final int line;
+        private final int col;
+        // the indices of the sites of the conditions of the method, in the order in which they have been instrumented
+        private final ArrayList<Integer> branchSiteIdxs = new ArrayList<>();
+        // the literals that must hold the number of branches and the site of the path once all the conditions of the
+        // method are known
+        private final ArrayList<JCTree.JCLiteral> nBranchesLiterals = new ArrayList<>();
+        private final ArrayList<JCTree.JCLiteral> siteIdLiterals = new ArrayList<>();
+
+        BranchPath(Symbol.VarSymbol pathVar, String methodName, int line, int col) {
+            this.pathVar = pathVar;
+            this.methodName = methodName;
+            this.line = line;
+            this.col = col;
+        }
+    }
 
-    private List<Argument> makePositionIntervalArgsList(String filename, int startLine, int startCol, int endLine, int endCol) {
+    /**
+     * Starts recording the path of a method: until the call to endBranchPath, the outcomes of the conditions are not
+     * logged as separate events, but accumulated in a local variable, which is logged when the method exits (see
+     * ___JumboTrace___.branchPath)
+     * <p>
+     * Each condition of the method is a branch, numbered from 0 in the order in which the conditions are instrumented.
+     * The site of the path is registered once all of them are known, and its attributes are the name of the method
+     * followed by the offsets of the sites of the branches from the site of the path. The variable holds the outcomes as
+     * the digits of a number in base 2 * nBranches, after a leading 1 (EMPTY_BRANCH_PATH), so that EventDecoder recovers
+     * the sites and outcomes of the conditions from the variable and the site of the path only. When the next digit would overflow the variable, the path recorded so
+     * far is logged and the variable starts over (see ___JumboTrace___.extendBranchPath). The path is also logged each
+     * time a loop starts a new iteration (see ___JumboTrace___.extendLoopBranchPath), so that a method that does not
+     * return (e.g. because the program exits or is killed while it runs) only loses the outcomes of its current iteration
+     * <p>
+     * The variable must only be accessed by the frame of the method, hence the path must be suspended in lambdas and
+     * classes (see suspendBranchPath)
+     *
+     * @return the path that was being recorded before this one, to be passed to endBranchPath
+     */
+    public @Nullable Object startBranchPath(String methodName, int line, int col) {
+        var outerPath = branchPath;
+        var pathVar = new Symbol.VarSymbol(0, m.nextId("path"), st().longType, classesStack.getFirst().localsOwner);
+        branchPath = new BranchPath(pathVar, methodName, line, col);
+        return outerPath;
+    }
+
+    /**
+     * Stops recording the path of a method, and resumes the recording of the given path
+     *
+     * @param stats the instrumented statements of the body of the method
+     * @return the statements, preceded by the declaration of the variable of the path and in a try-finally that logs
+     * the path, or the statements themselves if the method has no condition
+     */
+    public List<JCStatement> endBranchPath(List<JCStatement> stats, @Nullable Object outerPath) {
+        var endedPath = Objects.requireNonNull(branchPath);
+        branchPath = (BranchPath) outerPath;
+        var nBranches = endedPath.branchSiteIdxs.size();
+        if (nBranches == 0) {
+            return stats;
+        }
+        var attrs = new ArrayList<Object>();
+        attrs.add(endedPath.methodName);
+        var siteIdx = classesStack.getFirst().table.size();
+        for (var branchSiteIdx : endedPath.branchSiteIdxs) {
+            attrs.add(branchSiteIdx - siteIdx);
+        }
+        registerSite("branchPath", endedPath.line, endedPath.col, NO_POS, NO_POS, attrs.toArray());
+        for (var literal : endedPath.nBranchesLiterals) {
+            setIntLiteral(literal, nBranches);
+        }
+        for (var literal : endedPath.siteIdLiterals) {
+            setIntLiteral(literal, siteIdx + SITE_ID_BIAS);
+        }
+        var logging = mk().Exec(makeLogMethodCall(
+                "branchPath",
+                List.of(
+                        new Argument(st().longType, mk().Ident(endedPath.pathVar)),
+                        new Argument(st().intType, mk().Literal(nBranches)),
+                        new Argument(st().intType, makeSiteId(siteIdx))
+                ),
+                st().voidType
+        ));
         return List.of(
-                new Argument(st().stringType, mk().Literal(filename)),
-                new Argument(st().intType, mk().Literal(startLine)),
-                new Argument(st().intType, mk().Literal(startCol)),
-                new Argument(st().intType, mk().Literal(endLine)),
-                new Argument(st().intType, mk().Literal(endCol))
+                mk().VarDef(endedPath.pathVar, mk().Literal(EMPTY_BRANCH_PATH)),
+                mk().Try(mk().Block(0, stats), List.nil(), mk().Block(0, List.of(logging)))
         );
     }
 
-    private List<Argument> makeSinglePositionArgsList(String filename, int line, int col) {
-        return List.of(
-                new Argument(st().stringType, mk().Literal(filename)),
-                new Argument(st().intType, mk().Literal(line)),
-                new Argument(st().intType, mk().Literal(col))
+    /**
+     * Suspends the recording of the current path, if any, e.g. while instrumenting a lambda (whose body is executed by
+     * another frame). Conditions are logged as separate events until the path is resumed
+     *
+     * @return the suspended path, to be passed to resumeBranchPath
+     */
+    public @Nullable Object suspendBranchPath() {
+        var suspendedPath = branchPath;
+        branchPath = null;
+        return suspendedPath;
+    }
+
+    public void resumeBranchPath(@Nullable Object suspendedPath) {
+        branchPath = (BranchPath) suspendedPath;
+    }
+
+    /**
+     * @return an expression computing the id of the site of the current path, which is only registered once all its
+     * branches are known (see endBranchPath)
+     */
+    private JCExpression makeBranchPathSiteId() {
+        var siteId = (JCTree.JCBinary) makeSiteId(0);
+        Objects.requireNonNull(branchPath).siteIdLiterals.add((JCTree.JCLiteral) siteId.rhs);
+        return siteId;
+    }
+
+    private void setIntLiteral(JCTree.JCLiteral literal, int value) {
+        // the code generator reads the value of a literal from its (constant) type
+        literal.value = value;
+        literal.setType(st().intType.constType(value));
+    }
+
+    /**
+     * Makes the logging of the outcome of a condition: a call to its logging method, or an extension of the path of
+     * the method if it is being recorded (except at hot sites, see makeSiteArgsList)
+     */
+    private JCExpression makeConditionLogging(String methodName, JCExpression cond, List<Argument> siteArgs) {
+        var siteId = siteArgs.last().expr();
+        if (branchPath == null || hotSiteIds.contains(siteId)) {
+            return makeValueLogMethodCall(
+                    methodName,
+                    List.of(new Argument(st().booleanType, cond)).appendList(siteArgs),
+                    0,
+                    st().booleanType
+            );
+        }
+        var branch = branchPath.branchSiteIdxs.size();
+        branchPath.branchSiteIdxs.add(siteIdxOf(siteId));
+        var nBranchesLiteral = mk().Literal(0);
+        branchPath.nBranchesLiterals.add(nBranchesLiteral);
+        var condVar = new Symbol.VarSymbol(0, m.nextId("cond"), st().booleanType, classesStack.getFirst().localsOwner);
+        var extension = makeLogMethodCall(
+                methodName.equals("loopCond") ? "extendLoopBranchPath" : "extendBranchPath",
+                List.of(
+                        new Argument(st().longType, mk().Ident(branchPath.pathVar)),
+                        new Argument(st().booleanType, mk().Ident(condVar)),
+                        new Argument(st().intType, mk().Literal(branch)),
+                        new Argument(st().intType, nBranchesLiteral),
+                        new Argument(st().intType, makeBranchPathSiteId())
+                ),
+                st().longType
+        );
+        return mk().LetExpr(
+                List.of(
+                        mk().VarDef(condVar, cond),
+                        mk().Exec(mk().Assign(mk().Ident(branchPath.pathVar), extension).setType(st().longType))
+                ),
+                mk().Ident(condVar)
+        ).setType(st().booleanType);
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Fusion">
+
+    /**
+     * Events of a sequence of statements that are logged by a single call (see startFusion)
+     *
+     * @param events the captures that replace the logging calls, i.e. the assignments of their arguments to variables,
+     *               and the site index and variables of each of them
+     */
+    private record Fusion(IdentityHashMap<JCTree, FusedEvent> events, ArrayList<Symbol.VarSymbol> capturedVars) {
+    }
+
+    private record FusedEvent(int siteIdx, List<Symbol.VarSymbol> values) {
+    }
+
+    /**
+     * Starts fusing events: until the call to endFusion, the logging calls are replaced by assignments of their
+     * arguments to fresh variables, and the events are logged by a single call at the end of the statements
+     * <p>
+     * Events can only be fused if they are all logged iff the last of the statements completes, hence the statements
+     * must contain neither branches nor code that may throw an exception or log events (e.g. method calls). The values
+     * of the events must be primitive, so that they can be packed into an array of longs
+     */
+    public void startFusion() {
+        Assertions.checkPrecondition(fusion == null, "events are already being fused");
+        fusion = new Fusion(new IdentityHashMap<>(), new ArrayList<>());
+    }
+
+    /**
+     * Stops fusing events
+     *
+     * @param stats the instrumented statements whose events are fused
+     * @return the statements, preceded by the declarations of the variables that hold the values of their events and
+     * followed by the copy of these values into the buffer of the thread and the call logging the events (see
+     * ___JumboTrace___.fusedValues and ___JumboTrace___.fusedEvents)
+     */
+    public List<JCStatement> endFusion(List<JCStatement> stats, int startLine, int startCol, int endLine, int endCol) {
+        var endedFusion = Objects.requireNonNull(fusion);
+        fusion = null;
+        // the arguments of a logging call are evaluated before the call, hence the events are in post-order
+        var events = new ArrayList<FusedEvent>();
+        new TreeScanner() {
+            @Override
+            public void scan(JCTree tree) {
+                super.scan(tree);
+                var event = (tree == null) ? null : endedFusion.events.get(tree);
+                if (event != null) {
+                    events.add(event);
+                }
+            }
+        }.scan(stats);
+        if (events.isEmpty()) {
+            return stats;
+        }
+        // each event is described by the index of its site and the types of its values
+        var attrs = new ArrayList<String>();
+        var longArrayType = new Type.ArrayType(st().longType, st().arrayClass);
+        var packedVar = new Symbol.VarSymbol(0, m.nextId("packed"), longArrayType, classesStack.getFirst().localsOwner);
+        var packing = List.<JCStatement>nil();
+        for (var event : events) {
+            var valueTypes = new StringBuilder();
+            for (var value : event.values) {
+                valueTypes.append(descriptorOf(value.type));
+                var slot = mk().Indexed(mk().Ident(packedVar), mk().Literal(packing.size())).setType(st().longType);
+                packing = packing.append(mk().Exec(mk().Assign(slot, makePackedValue(value)).setType(st().longType)));
+            }
+            attrs.add(String.valueOf(event.siteIdx));
+            attrs.add(valueTypes.toString());
+        }
+        // the buffer is reused by all the runs of the thread, which is fine as the values are consumed right away
+        var buffer = makeLogMethodCall(
+                "fusedValues",
+                List.of(new Argument(st().intType, mk().Literal(packing.size()))),
+                longArrayType
         );
+        var logging = mk().Exec(makeLogMethodCall(
+                "fusedEvents",
+                List.of(new Argument(longArrayType, mk().Ident(packedVar)))
+                        .appendList(makeSiteArgsList("fusedEvents", startLine, startCol, endLine, endCol, attrs.toArray())),
+                st().voidType
+        ));
+        var decls = List.<JCStatement>nil();
+        for (var capturedVar : endedFusion.capturedVars) {
+            decls = decls.prepend(mk().VarDef(capturedVar, null));
+        }
+        return decls.reverse()
+                .appendList(stats)
+                .append(mk().VarDef(packedVar, buffer))
+                .appendList(packing)
+                .append(logging);
+    }
+
+    /**
+     * @return the code that replaces a logging call while events are fused: a block (if the logging method returns
+     * void) or let-expression (if it returns one of its arguments) that assigns the arguments to fresh variables
+     */
+    private JCTree capture(Fusion fusion, List<Argument> args, int valueIdx, Type retType) {
+        var assignments = List.<JCStatement>nil();
+        var values = List.<Symbol.VarSymbol>nil();
+        for (var arg = args; arg.tail.nonEmpty(); arg = arg.tail) {
+            var type = capturedTypeOf(arg.head);
+            var capturedVar = new Symbol.VarSymbol(0, m.nextId("captured"), type, classesStack.getFirst().localsOwner);
+            assignments = assignments.append(mk().Exec(
+                    mk().Assign(mk().Ident(capturedVar), arg.head.expr()).setType(type)
+            ));
+            values = values.append(capturedVar);
+        }
+        var capture = (valueIdx == NO_VALUE) ?
+                mk().Block(0, assignments) :
+                mk().LetExpr(assignments, mk().Ident(values.get(valueIdx))).setType(retType);
+        fusion.events.put(capture, new FusedEvent(siteIdxOf(args.last().expr()), values));
+        fusion.capturedVars.addAll(values);
+        return capture;
+    }
+
+    /**
+     * @return the type of the parameter of the logging method, or the primitive type of the value if it is passed as an
+     * Object (e.g. the operands of binaryOperator that are chars)
+     */
+    private static Type capturedTypeOf(Argument arg) {
+        var type = arg.type();
+        if (!type.isPrimitive() && arg.expr().type != null) {
+            type = arg.expr().type.baseType();
+        }
+        Assertions.checkAssertion(type.isPrimitive(), "only primitive values can be fused");
+        return type;
+    }
+
+    private static char descriptorOf(Type type) {
+        return switch (type.getTag()) {
+            case BOOLEAN -> 'Z';
+            case BYTE -> 'B';
+            case CHAR -> 'C';
+            case SHORT -> 'S';
+            case INT -> 'I';
+            case LONG -> 'J';
+            case FLOAT -> 'F';
+            case DOUBLE -> 'D';
+            default -> throw new AssertionError("unexpected type of fused value: " + type);
+        };
+    }
+
+    /**
+     * @return the bits of the value of the variable, as a long (the inverse conversion is performed by
+     * ___JumboTrace___.fusedEvents)
+     */
+    private JCExpression makePackedValue(Symbol.VarSymbol capturedVar) {
+        var value = mk().Ident(capturedVar);
+        return switch (capturedVar.type.getTag()) {
+            case BOOLEAN -> mk().Conditional(value, mk().Literal(1L), mk().Literal(0L)).setType(st().longType);
+            case LONG -> value;
+            case FLOAT -> mk().TypeCast(st().longType, makeBitsConversion(st().floatType, "floatToRawIntBits", value));
+            case DOUBLE -> makeBitsConversion(st().doubleType, "doubleToRawLongBits", value);
+            default -> mk().TypeCast(st().longType, value);
+        };
+    }
+
+    /**
+     * @return a call to the static method of the box class of the type that converts a value to its bits
+     */
+    private JCExpression makeBitsConversion(Type type, String methodName, JCExpression value) {
+        var boxClass = m.types().boxedClass(type);
+        var method = (Symbol.MethodSymbol) boxClass.members().findFirst(n().fromString(methodName));
+        var select = mk().Select(mk().Ident(boxClass), method);
+        return mk().Apply(List.nil(), select, List.of(value)).setType(method.type.getReturnType());
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Inputs">
+
+    /*
+     * When the program is compiled with replay=on, the calls that read nondeterministic inputs are redirected to methods
+     * of ___JumboTrace___ that read the same inputs, and record them or replay them from a previous run (see
+     * ReplayDriver). The redirection happens after the instrumentation, so that the events still show the original calls
+     */
+
+    /**
+     * Methods and constructors that read nondeterministic inputs, identified by their owner, name and erased parameter
+     * types (see inputReaderKey), and the methods of ___JumboTrace___ that read the same inputs. These take the same
+     * arguments as the method or constructor, followed by the flat name of the class of the call and the index of its
+     * site in the table of the class, which identify the call in the recorded inputs (see InputSite)
+     */
+    // TODO also redirect Instant.now, UUID.randomUUID, Files.lines, Scanner(File), RandomAccessFile and sockets
+    private static final Map<String, String> INPUT_READERS = Map.ofEntries(
+            Map.entry("java.lang.System.nanoTime()", "nanoTime"),
+            Map.entry("java.lang.System.currentTimeMillis()", "currentTimeMillis"),
+            Map.entry("java.lang.System.getenv(java.lang.String)", "getenv"),
+            Map.entry("java.lang.System.getenv()", "getenv"),
+            Map.entry("java.lang.Math.random()", "mathRandom"),
+            Map.entry("java.lang.StrictMath.random()", "mathRandom"),
+            Map.entry("java.util.Random.<init>()", "newRandom"),
+            Map.entry("java.nio.file.Files.readAllBytes(java.nio.file.Path)", "readAllBytes"),
+            Map.entry("java.nio.file.Files.readString(java.nio.file.Path)", "readString"),
+            Map.entry("java.nio.file.Files.readString(java.nio.file.Path,java.nio.charset.Charset)", "readString"),
+            Map.entry("java.nio.file.Files.readAllLines(java.nio.file.Path)", "readAllLines"),
+            Map.entry("java.nio.file.Files.readAllLines(java.nio.file.Path,java.nio.charset.Charset)", "readAllLines"),
+            Map.entry("java.io.FileInputStream.<init>(java.lang.String)", "newFileInputStream"),
+            Map.entry("java.io.FileInputStream.<init>(java.io.File)", "newFileInputStream"),
+            Map.entry("java.io.FileReader.<init>(java.lang.String)", "newFileReader"),
+            Map.entry("java.io.FileReader.<init>(java.io.File)", "newFileReader")
+    );
+
+    /**
+     * @param method the method or constructor that is called
+     * @param args   the arguments of the call
+     * @param type   the type of the call
+     * @return a call to the method of ___JumboTrace___ that reads the same input as the given call, or null if the
+     * called method does not read a nondeterministic input
+     */
+    public @Nullable JCExpression redirectInput(Symbol.MethodSymbol method, List<JCExpression> args, Type type,
+                                                int line, int col) {
+        var key = inputReaderKey(method);
+        var reader = INPUT_READERS.get(key);
+        if (reader == null) {
+            return null;
+        }
+        var readerArgs = List.<Argument>nil();
+        var paramTypes = method.type.getParameterTypes();
+        for (var remArgs = args; remArgs.nonEmpty(); remArgs = remArgs.tail, paramTypes = paramTypes.tail) {
+            readerArgs = readerArgs.append(new Argument(m.types().erasure(paramTypes.head), remArgs.head));
+        }
+        // the copies of a call in both versions of its method share its site, so that a replay may run either version
+        var siteIdx = classesStack.getFirst().inputSites.computeIfAbsent(line + ":" + col + ":" + key,
+                posAndKey -> registerSite("input", line, col, NO_POS, NO_POS, key));
+        var className = classesStack.getFirst().siteBaseSymbol.owner.flatName().toString();
+        readerArgs = readerArgs
+                .append(new Argument(st().stringType, mk().Literal(className)))
+                .append(new Argument(st().intType, mk().Literal(siteIdx)));
+        // the reader is declared with the erased type, but the call keeps the type of the redirected call
+        return makeLogMethodCall(reader, readerArgs, m.types().erasure(type)).setType(type);
+    }
+
+    private String inputReaderKey(Symbol.MethodSymbol method) {
+        var key = new StringBuilder();
+        key.append(method.owner.getQualifiedName()).append(".").append(method.name).append("(");
+        var sep = "";
+        for (var paramType : method.type.getParameterTypes()) {
+            key.append(sep).append(m.types().erasure(paramType));
+            sep = ",";
+        }
+        return key.append(")").toString();
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Outlining">
+
+    /**
+     * Logging code that can be replaced by a call to a helper method of the class, that runs the same code with the
+     * dynamic arguments of the logging code and the index of its site as parameters
+     *
+     * @param key        identifies the logging code up to its arguments (e.g. the logging method and the types of its
+     *                   arguments), hence the helper method
+     * @param args       the arguments of the logging code, the site id last
+     * @param bodyMaker  makes the logging code from the given arguments (the parameters of the helper method)
+     */
+    private record Outlinable(String key, List<Argument> args, Type retType,
+                              Function<List<Argument>, JCTree> bodyMaker) {
+    }
+
+    /**
+     * Records that the given logging code can be outlined (see outline)
+     *
+     * @param args the arguments of the logging code, the site id last, which must be of the form siteBase + literal
+     *             (see makeSiteId)
+     */
+    private void registerOutlinable(JCTree logging, String loggerKey, List<Argument> args, Type retType,
+                                    Function<List<Argument>, JCTree> bodyMaker) {
+        if (!outlining) {
+            return;
+        }
+        var key = new StringBuilder(loggerKey).append("(");
+        for (var arg = args; arg.tail.nonEmpty(); arg = arg.tail) {
+            key.append(arg.head.type().tsym.flatName()).append(";");
+        }
+        key.append(")").append(retType.tsym.flatName());
+        classesStack.getFirst().outlinables.put(logging, new Outlinable(key.toString(), args, retType, bodyMaker));
+    }
+
+    /**
+     * Outlines the logging code of a method of the current class: each logging sequence (e.g. a guarded logging call,
+     * or the logging of a call with its arguments) is replaced by a call to a private static synthetic helper method
+     * of the class, shared by all the sequences that only differ by their arguments and site. This shrinks the
+     * bytecode of the method, so that it stays below the size limits of the JIT compiler (hence compiled and inlined),
+     * while the helper methods are small enough to be inlined into it
+     * <p>
+     * The enters of methods and lambdas are not outlined, as their logging methods walk the stack
+     */
+    public JCTree.JCBlock outline(JCTree.JCBlock body) {
+        var classSites = classesStack.getFirst();
+        return new TreeTranslator() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T extends JCTree> T translate(T tree) {
+                var outlinable = (tree == null) ? null : classSites.outlinables.remove(tree);
+                if (outlinable == null) {
+                    return super.translate(tree);
+                }
+                var helper = helperFor(classSites, outlinable);
+                var helperArgs = List.<JCExpression>nil();
+                for (var arg = outlinable.args; arg.tail.nonEmpty(); arg = arg.tail) {
+                    helperArgs = helperArgs.append(translate(arg.head.expr()));
+                }
+                // the call takes the position of the logging code, which is the one of the logged tree
+                mk().at(tree.pos);
+                helperArgs = helperArgs.append(mk().Literal(siteIdxOf(outlinable.args.last().expr()) + SITE_ID_BIAS));
+                var call = mk().Apply(List.nil(), mk().Ident(helper), helperArgs).setType(outlinable.retType);
+                return (T) ((tree instanceof JCStatement) ? mk().Exec(call) : call);
+            }
+
+            @Override
+            public void visitClassDef(JCTree.JCClassDecl classDecl) {
+                // the logging code of nested classes refers to their own sites
+                this.result = classDecl;
+            }
+
+        }.translate(body);
+    }
+
+    /**
+     * @return the helper method that runs the logging code, created on its first use
+     */
+    private Symbol.MethodSymbol helperFor(ClassSites classSites, Outlinable outlinable) {
+        var helper = classSites.helpers.get(outlinable.key);
+        if (helper != null) {
+            return helper;
+        }
+        var classSymbol = classSites.siteBaseSymbol.owner;
+        var paramTypes = List.<Type>nil();
+        for (var arg = outlinable.args; arg.tail.nonEmpty(); arg = arg.tail) {
+            paramTypes = paramTypes.append(arg.head.type());
+        }
+        paramTypes = paramTypes.append(st().intType);
+        helper = new Symbol.MethodSymbol(
+                Flags.PRIVATE | Flags.STATIC | Flags.SYNTHETIC,
+                m.nextId("log"),
+                new Type.MethodType(paramTypes, outlinable.retType, List.nil(), st().methodClass),
+                classSymbol
+        );
+        var decl = mk().MethodDef(helper, null);
+        var helperArgs = List.<Argument>nil();
+        var params = List.<Symbol.VarSymbol>nil();
+        for (var param : decl.params) {
+            params = params.append(param.sym);
+            helperArgs = helperArgs.append(new Argument(param.sym.type, mk().Ident(param.sym)));
+        }
+        helper.params = params;
+        // the last parameter is the index of the site in the table of the class, biased like in makeSiteId
+        var siteId = mk().Binary(JCTree.Tag.PLUS, mk().Ident(classSites.siteBaseSymbol), helperArgs.last().expr());
+        siteId.operator = intAdditionOperator;
+        siteId.setType(st().intType);
+        var body = outlinable.bodyMaker.apply(replaceLast(helperArgs, new Argument(st().intType, siteId)));
+        decl.body = mk().Block(0, List.of(body instanceof JCExpression bodyExpr ? mk().Return(bodyExpr) : (JCStatement) body));
+        classSymbol.members().enter(helper);
+        classSites.helpers.put(outlinable.key, helper);
+        classSites.helperDecls.add(decl);
+        return helper;
+    }
+
+    /**
+     * @return the index of the site whose id is computed by the given expression (see makeSiteId)
+     */
+    private static int siteIdxOf(JCExpression siteId) {
+        return (Integer) ((JCTree.JCLiteral) ((JCTree.JCBinary) siteId).rhs).value - SITE_ID_BIAS;
+    }
+
+    private static List<Argument> replaceLast(List<Argument> args, Argument arg) {
+        return withArg(args, args.length() - 1, arg);
+    }
+
+    //</editor-fold>
+
+    //<editor-fold desc="Utils">
+
+    /**
+     * Registers a site in the table of the current class
+     *
+     * @return the arguments list containing the id of the site (to be passed last to the logging method)
+     */
+    private List<Argument> makeSiteArgsList(String kind, int startLine, int startCol, int endLine, int endCol, Object... attrs) {
+        var idx = registerSite(kind, startLine, startCol, endLine, endCol, attrs);
+        var siteId = makeSiteId(idx);
+        if (siteProfile != null && isDroppable(kind) && siteProfile.isHot(kind,
+                classesStack.getFirst().table.filename(), startLine, startCol, endLine, endCol)) {
+            // the logging methods of hot sites are replaced in makeLoggingStat and makeValueLogMethodCall
+            hotSiteIds.add(siteId);
+        }
+        return List.of(new Argument(st().intType, siteId));
     }
 
-    private Type methodCallLoggerArgsArrayType() {
-        return new Type.ArrayType(st().objectType, st().arrayClass);
+    /**
+     * @return true iff the events of the sites of this kind can be left out of the trace, i.e. iff no other event refers
+     * to them (method enters are referred to by exits, and calls are matched with the enters of the callees)
+     */
+    public static boolean isDroppable(String siteKind) {
+        var family = LOGGER_FAMILIES.get(siteKind);
+        return family != null && family != EventFamily.METHODS && family != EventFamily.CALLS;
+    }
+
+    /**
+     * Registers a site in the table of the current class
+     *
+     * @return the index of the site in the table
+     */
+    private int registerSite(String kind, int startLine, int startCol, int endLine, int endCol, Object... attrs) {
+        return classesStack.getFirst().table.add(kind, startLine, startCol, endLine, endCol, attrs);
+    }
+
+    /**
+     * Must match ___JumboTrace___.SITE_ID_BIAS: the base of the sites of a class is biased by registerSites, so that the
+     * site ids computed while the base is still 0 (i.e. before the static initializer of the class has registered its
+     * sites, if another class calls back into it during its initialization) are negative, and their events dropped
+     */
+    private static final int SITE_ID_BIAS = Integer.MIN_VALUE;
+
+    /**
+     * @return an expression computing the id of the site of the given index in the table of the current class
+     */
+    private JCExpression makeSiteId(int idx) {
+        var base = mk().Ident(classesStack.getFirst().siteBaseSymbol);
+        var binary = mk().Binary(JCTree.Tag.PLUS, base, mk().Literal(idx + SITE_ID_BIAS));
+        binary.operator = intAdditionOperator;
+        return binary.setType(st().intType);
+    }
+
+    /**
+     * @return a copy of the expression computing a site id (see makeSiteId), to use it twice
+     */
+    private JCExpression copySiteId(JCExpression siteId) {
+        if (siteId instanceof JCTree.JCBinary binary) {
+            var copy = mk().Binary(JCTree.Tag.PLUS, copySiteId(binary.lhs), copySiteId(binary.rhs));
+            copy.operator = intAdditionOperator;
+            return copy.setType(st().intType);
+        } else if (siteId instanceof JCTree.JCIdent ident) {
+            return mk().Ident(ident.sym);
+        } else {
+            return mk().Literal(((JCTree.JCLiteral) siteId).value);
+        }
+    }
+
+    private Symbol.OperatorSymbol makeIntAdditionOperator() {
+        return new Symbol.OperatorSymbol(
+                n().fromString("+"),
+                new Type.MethodType(List.of(st().intType, st().intType), st().intType, List.nil(), st().methodClass),
+                ByteCodes.iadd,
+                st().noSymbol
+        );
     }
 
     private JCExpression makeLogMethodCall(String methodName, List<Argument> args, Type retType) {
+        return makeLogMethodCall(methodName, args, NO_VALUE, retType);
+    }
+
+    /**
+     * @param valueIdx the index of the argument returned by the logging method, or NO_VALUE (only needed to link the
+     *                 call dynamically)
+     */
+    private JCExpression makeLogMethodCall(String methodName, List<Argument> args, int valueIdx, Type retType) {
         var argsExprs = List.<JCExpression>nil();
         var argTypes = List.<Type>nil();
         for (var remArgs = args; remArgs.nonEmpty(); remArgs = remArgs.tail) {
@@ -733,18 +1599,161 @@ public final class Instrumentation {
                 List.nil(),
                 jumbotraceClassSymbol
         );
-        var methodSelect = mk().Select(
-                mk().Ident(jumbotraceClassSymbol),
+        var methodSymbol = (linkDynamically && LOGGER_FAMILIES.containsKey(methodName)) ?
+                new Symbol.DynamicMethodSymbol(
+                        n().fromString(methodName),
+                        st().noSymbol,
+                        linkerHandle,
+                        methodType,
+                        new PoolConstant.LoadableConstant[]{
+                                PoolConstant.LoadableConstant.String(methodName),
+                                PoolConstant.LoadableConstant.String(familyOf(methodName).optionName()),
+                                PoolConstant.LoadableConstant.Int(valueIdx)
+                        }
+                ) :
                 new Symbol.MethodSymbol(
                         Flags.PUBLIC | Flags.STATIC,
                         n().fromString(methodName),
                         methodType,
                         jumbotraceClassSymbol
-                )
-        );
+                );
+        var methodSelect = mk().Select(mk().Ident(jumbotraceClassSymbol), methodSymbol);
         return mk().Apply(List.nil(), methodSelect, argsExprs).setType(retType);
     }
 
+    private Symbol.MethodHandleSymbol makeLinkerHandle() {
+        var callSiteType = st().enterClass(st().java_base, n().fromString("java.lang.invoke.CallSite")).type;
+        var linkerType = new Type.MethodType(
+                List.of(st().methodHandleLookupType, st().stringType, st().methodTypeType, st().stringType,
+                        st().stringType, st().intType),
+                callSiteType,
+                List.nil(),
+                st().methodClass
+        );
+        return new Symbol.MethodHandleSymbol(new Symbol.MethodSymbol(
+                Flags.PUBLIC | Flags.STATIC,
+                n().fromString(LINKER_NAME),
+                linkerType,
+                jumbotraceClassSymbol
+        ));
+    }
+
+    /**
+     * Makes a statement calling a logging method that returns void
+     */
+    private JCStatement makeLoggingStat(String methodName, List<Argument> args) {
+        var siteId = args.last().expr();
+        if (hotSiteIds.contains(siteId)) {
+            return hotSitesMode == PluginOptions.HotSitesMode.OMIT ?
+                    mk().Skip() :
+                    guard(familyOf(methodName), makeHitCount(siteId));
+        }
+        if (fusion != null) {
+            return (JCStatement) capture(fusion, args, NO_VALUE, st().voidType);
+        }
+        var logging = guard(familyOf(methodName), mk().Exec(makeLogMethodCall(methodName, args, NO_VALUE, st().voidType)));
+        // enters must be called by the entered frame, which the logger identifies by walking the stack
+        if (!ENTER_LOGGERS.contains(methodName)) {
+            registerOutlinable(logging, methodName, args, st().voidType,
+                    helperArgs -> makeLoggingStat(methodName, helperArgs));
+        }
+        return logging;
+    }
+
+    /**
+     * Makes a call to a logging method that returns one of its arguments (the logged value)
+     * <p>
+     * When sites are guarded, the value is only passed to the logging method if the switch of its family is on. The
+     * other arguments must be side-effect free (e.g. variables holding values computed before), as they are not
+     * evaluated when the switch is off, nor when the site is hot (see makeSiteArgsList)
+     *
+     * @param valueIdx the index of the logged value in args
+     */
+    private JCExpression makeValueLogMethodCall(String methodName, List<Argument> args, int valueIdx, Type retType) {
+        var siteId = args.last().expr();
+        if (hotSiteIds.contains(siteId)) {
+            var value = args.get(valueIdx).expr();
+            return hotSitesMode == PluginOptions.HotSitesMode.OMIT ?
+                    value :
+                    mk().LetExpr(List.of(guard(familyOf(methodName), makeHitCount(siteId))), value).setType(value.type);
+        }
+        if (fusion != null) {
+            return (JCExpression) capture(fusion, args, valueIdx, retType);
+        }
+        var logging = makeGuardedValueLogMethodCall(methodName, args, valueIdx, retType);
+        registerOutlinable(logging, methodName + " " + valueIdx, args, retType,
+                helperArgs -> makeGuardedValueLogMethodCall(methodName, helperArgs, valueIdx, retType));
+        return logging;
+    }
+
+    private JCExpression makeGuardedValueLogMethodCall(String methodName, List<Argument> args, int valueIdx, Type retType) {
+        if (!guardSites) {
+            return makeLogMethodCall(methodName, args, valueIdx, retType);
+        }
+        var valueArg = args.get(valueIdx);
+        var defs = List.<JCStatement>nil();
+        JCExpression valueAtom;
+        if (valueArg.expr() instanceof JCTree.JCIdent ident) {
+            valueAtom = mk().Ident(ident.sym).setType(ident.type);
+        } else {
+            var valueVarSymbol = new Symbol.VarSymbol(0, m.nextId("logged"), valueArg.type(),
+                    classesStack.getFirst().localsOwner);
+            defs = defs.append(mk().VarDef(valueVarSymbol, valueArg.expr()));
+            valueAtom = mk().Ident(valueVarSymbol).setType(valueArg.type());
+            args = withArg(args, valueIdx, new Argument(valueArg.type(), mk().Ident(valueVarSymbol).setType(valueArg.type())));
+        }
+        var guarded = mk().Conditional(
+                makeSwitchRead(familyOf(methodName)),
+                makeLogMethodCall(methodName, args, valueIdx, retType),
+                valueAtom
+        ).setType(retType);
+        return defs.isEmpty() ? guarded : mk().LetExpr(defs, guarded).setType(retType);
+    }
+
+    /**
+     * @return a statement counting a hit of a hot site, instead of logging its event
+     */
+    private JCStatement makeHitCount(JCExpression siteId) {
+        return mk().Exec(makeLogMethodCall("countHit", List.of(new Argument(st().intType, siteId)), st().voidType));
+    }
+
+    /**
+     * @return the logging statement, guarded by the switch of the family if sites are guarded
+     */
+    private JCStatement guard(EventFamily family, JCStatement logging) {
+        return guardSites ? mk().If(makeSwitchRead(family), logging, null) : logging;
+    }
+
+    /**
+     * @return an expression reading the switch of the family in ___JumboTrace___ (a static final field, hence a
+     * constant for the JIT compiler)
+     */
+    private JCExpression makeSwitchRead(EventFamily family) {
+        var switchSymbol = new Symbol.VarSymbol(
+                Flags.PUBLIC | Flags.STATIC | Flags.FINAL,
+                n().fromString(family.name() + SWITCH_SUFFIX),
+                st().booleanType,
+                jumbotraceClassSymbol
+        );
+        return mk().Select(mk().Ident(jumbotraceClassSymbol), switchSymbol);
+    }
+
+    private static EventFamily familyOf(String loggerName) {
+        var family = LOGGER_FAMILIES.get(loggerName);
+        if (family == null) {
+            throw new AssertionError("no event family for logging method " + loggerName);
+        }
+        return family;
+    }
+
+    private static List<Argument> withArg(List<Argument> args, int idx, Argument arg) {
+        var newArgs = List.<Argument>nil();
+        for (var i = 0; i < args.length(); i++) {
+            newArgs = newArgs.append(i == idx ? arg : args.get(i));
+        }
+        return newArgs;
+    }
+
     private record Argument(Type type, JCExpression expr) {
     }
 
@@ -755,6 +1764,14 @@ public final class Instrumentation {
         return rawType.isPrimitive() ? rawType : st().objectType;
     }
 
+    /**
+     * @return true iff the type is a primitive numeric type (including char), i.e. a type of the operands of numeric
+     * operators before numeric promotion
+     */
+    private static boolean isNumericType(Type type) {
+        return type.isPrimitive() && type.isNumeric();
+    }
+
     private JCExpression castIfNeeded(Type type, JCExpression expr) {
         return (type == expr.type) ? expr : mk().TypeCast(type, expr);
     }
@@ -4,11 +4,15 @@ import com.sun.source.util.JavacTask;
 import com.sun.source.util.Plugin;
 import com.sun.tools.javac.api.BasicJavacTask;
 import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Types;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Names;
 
 /**
  * The JumboTrace plugin
+ * <p>
+ * Accepts options to select the events that are instrumented and to restrict the instrumentation to some classes and
+ * methods (see PluginOptions)
  */
 public class JumboTrace implements Plugin {
 
@@ -19,14 +23,20 @@ public class JumboTrace implements Plugin {
 
     @Override
     public void init(JavacTask task, String... args) {
+        var options = PluginOptions.parse(args);
         BlackMagicReflection.openJavacUnsafe();
         var ctx = ((BasicJavacTask) task).getContext();
         var treeMaker = TreeMaker.instance(ctx);
         var names = Names.instance(ctx);
         var symtab = Symtab.instance(ctx);
-        var treeMakingContainer = new TreeMakingContainer(treeMaker, names, symtab);
-        var instrumentation = new Instrumentation(treeMakingContainer);
-        task.addTaskListener(new TransformationListener(treeMakingContainer, instrumentation));
+        var types = Types.instance(ctx);
+        var treeMakingContainer = new TreeMakingContainer(treeMaker, names, symtab, types);
+        var siteProfile = options.hitsFile() == null ? null :
+                SiteProfile.load(options.hitsFile(), options.budget(), Instrumentation::isDroppable);
+        var instrumentation = new Instrumentation(treeMakingContainer, options.guards(), options.indy(), options.dual(),
+                siteProfile, options.hotSites(), options.isOutlining());
+        var methodVersions = new MethodVersions(treeMakingContainer, options.scope());
+        task.addTaskListener(new TransformationListener(treeMakingContainer, instrumentation, methodVersions, options));
     }
 
 }
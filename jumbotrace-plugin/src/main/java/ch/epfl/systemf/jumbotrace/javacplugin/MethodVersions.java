@@ -0,0 +1,158 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.Symbol;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.JCTree.*;
+import com.sun.tools.javac.tree.TreeCopier;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.util.List;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pristine (i.e. uninstrumented) versions of the methods, when the plugin runs with dual=on (see PluginOptions)
+ * <p>
+ * When a compilation unit has been parsed, each method in scope gets a private copy, named after it with
+ * PRISTINE_SUFFIX. Copies are made before attribution, so that the compiler attributes them as any other method, and
+ * the Transformer does not instrument them. Once the method has been instrumented, the body of its copy is moved into
+ * it, and selected at entry unless tracing is switched on for the method at runtime (see
+ * Instrumentation.makeVersionDispatch). The copy is then removed, so that the stack traces of the program do not depend
+ * on the version that runs
+ * <p>
+ * Constructors, methods of local and anonymous classes, and methods that declare local or anonymous classes (that
+ * would be declared twice) only have their instrumented version
+ */
+public final class MethodVersions {
+
+    public static final String PRISTINE_SUFFIX = "$untraced";
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    private final TreeMakingContainer m;
+    private final ScopeFilter scope;
+
+    // instrumented version -> pristine version
+    private final Map<JCMethodDecl, JCMethodDecl> pristineVersions = new IdentityHashMap<>();
+    private final Set<JCMethodDecl> pristineMethods = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    public MethodVersions(TreeMakingContainer m, ScopeFilter scope) {
+        this.m = m;
+        this.scope = scope;
+    }
+
+    /**
+     * Adds the pristine versions of the methods of a compilation unit that has just been parsed
+     */
+    public void addPristineVersions(JCCompilationUnit cu) {
+        var packageName = cu.getPackageName() == null ? "" : cu.getPackageName().toString() + ".";
+        for (var def : cu.defs) {
+            if (def instanceof JCClassDecl classDecl) {
+                addPristineVersions(classDecl, java.util.List.of(packageName + classDecl.name));
+            }
+        }
+    }
+
+    /**
+     * @param classNames the flat names of the class and of its enclosing classes, innermost first
+     */
+    private void addPristineVersions(JCClassDecl classDecl, java.util.List<String> classNames) {
+        var copies = new ArrayList<JCTree>();
+        for (var def : classDecl.defs) {
+            if (def instanceof JCClassDecl nestedClass) {
+                var nestedClassNames = new ArrayList<String>();
+                nestedClassNames.add(classNames.get(0) + "$" + nestedClass.name);
+                nestedClassNames.addAll(classNames);
+                addPristineVersions(nestedClass, nestedClassNames);
+            } else if (def instanceof JCMethodDecl method && hasPristineVersion(method)
+                    && scope.isInScope(classNames, method.name.toString())) {
+                var copy = makePristineCopy(method);
+                pristineVersions.put(method, copy);
+                pristineMethods.add(copy);
+                copies.add(copy);
+            }
+        }
+        classDecl.defs = classDecl.defs.appendList(List.from(copies));
+    }
+
+    private static boolean hasPristineVersion(JCMethodDecl method) {
+        return method.body != null && !method.name.contentEquals(CONSTRUCTOR_NAME) && !declaresClasses(method.body);
+    }
+
+    private static boolean declaresClasses(JCTree tree) {
+        var scanner = new TreeScanner() {
+            boolean found = false;
+
+            @Override
+            public void visitClassDef(JCClassDecl tree) {
+                found = true;
+            }
+        };
+        scanner.scan(tree);
+        return scanner.found;
+    }
+
+    private JCMethodDecl makePristineCopy(JCMethodDecl method) {
+        var copy = new TreeCopier<Void>(m.mk()).copy(method);
+        copy.name = m.n().fromString(method.name + PRISTINE_SUFFIX);
+        // private, so that the pristine versions are never overridden and the dispatch stays in the same class
+        copy.mods.flags = (method.mods.flags & (Flags.STATIC | Flags.STRICTFP)) | Flags.PRIVATE;
+        copy.mods.annotations = List.nil();
+        return copy;
+    }
+
+    /**
+     * Removes the pristine version of the given method from its class, and returns its body, adapted to be inlined in
+     * the method: its parameters are replaced with the ones of the method, and its local variables are moved to the
+     * method. The caller must also remove the declaration of the pristine version from the class (see
+     * isPristineVersion)
+     *
+     * @return the body of the pristine version of the given method, or null if it has none
+     */
+    public @Nullable JCBlock takePristineBody(JCMethodDecl method) {
+        var pristineVersion = pristineVersions.remove(method);
+        if (pristineVersion == null) {
+            return null;
+        }
+        var pristineSymbol = pristineVersion.sym;
+        var params = new IdentityHashMap<Symbol, Symbol.VarSymbol>();
+        for (var i = 0; i < method.params.size(); i++) {
+            params.put(pristineVersion.params.get(i).sym, method.params.get(i).sym);
+        }
+        new TreeScanner() {
+
+            @Override
+            public void visitVarDef(JCVariableDecl tree) {
+                if (tree.sym.owner == pristineSymbol) {
+                    tree.sym.owner = method.sym;
+                }
+                super.visitVarDef(tree);
+            }
+
+            @Override
+            public void visitIdent(JCIdent tree) {
+                var param = params.get(tree.sym);
+                if (param != null) {
+                    tree.sym = param;
+                }
+            }
+
+        }.scan(pristineVersion.body);
+        pristineSymbol.owner.members().remove(pristineSymbol);
+        return pristineVersion.body;
+    }
+
+    /**
+     * @return true iff the given method is the pristine version of another one (and must thus neither be instrumented
+     * nor kept in its class)
+     */
+    public boolean isPristineVersion(JCMethodDecl method) {
+        return pristineMethods.contains(method);
+    }
+
+}
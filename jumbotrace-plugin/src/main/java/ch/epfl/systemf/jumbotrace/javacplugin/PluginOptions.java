@@ -0,0 +1,261 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Options of the plugin, passed as its arguments (e.g. -Xplugin:"JumboTrace profile=writes enable=reads include=com.acme.*")
+ * <ul>
+ *     <li>profile=name selects the event families that are instrumented (see EventFamily), full by default</li>
+ *     <li>enable=family,... and disable=family,... add families to the profile and remove families from it</li>
+ *     <li>include=pattern,... and exclude=pattern,... restrict the code that is instrumented (see ScopeFilter)</li>
+ *     <li>constants=instrument|keep|event selects the treatment of compile-time constant expressions (see ConstantsMode)</li>
+ *     <li>guards=on|off selects whether the logging code of each site is guarded by the switch of its event family (off
+ *     by default). The switches are static final fields of ___JumboTrace___, initialized from system properties of the
+ *     traced program, so that the JIT compiler removes the logging code of the families that are switched off</li>
+ *     <li>indy=on|off selects whether the logging calls are invokedynamic instructions (off by default). They are then
+ *     linked to the logging methods or to no-ops according to the switches, and can be relinked while the program runs
+ *     (see ___JumboTrace___.setFamilyEnabled)</li>
+ *     <li>dual=on|off selects whether the methods in scope keep an uninstrumented version (off by default), to which they
+ *     dispatch unless tracing is switched on for them while the program runs (see MethodVersions and
+ *     ___JumboTrace___.setMethodsTraced)</li>
+ *     <li>hits=file selects a profile of the numbers of hits of the sites (see SiteProfile). The hottest sites are then
+ *     left out of the trace, so that the profiled run would produce at most budget=n events (DEFAULT_BUDGET by default),
+ *     and hot=count|omit selects whether the hits of the hot sites are still counted (see HotSitesMode)</li>
+ *     <li>outline=n selects the estimated number of bytes (see BytecodeSize) by which the instrumentation may grow the
+ *     bytecode of a method before its logging code is outlined into helper methods (see Instrumentation.outline), so
+ *     that instrumented methods stay small enough to be compiled and inlined by the JIT compiler. The logging code is
+ *     never outlined by default</li>
+ *     <li>fuse=on|off selects whether the events of the sequences of consecutive statements that neither branch nor
+ *     throw (e.g. arithmetic on local variables) are logged by a single call at the end of each sequence (off by
+ *     default). Events are not fused when guards or indy are on, as they may belong to several families</li>
+ *     <li>paths=on|off selects whether the outcomes of the conditions of ifs, loops and ternary operators are
+ *     accumulated in a local variable of their method, and logged together when the method exits (see
+ *     Instrumentation.startBranchPath), instead of being logged as separate events (off by default). Not available
+ *     when guards or indy are on</li>
+ *     <li>replay=on|off selects whether the calls that read nondeterministic inputs (e.g. System.nanoTime, new Random(),
+ *     System.getenv, Files.readString) are redirected to ___JumboTrace___ (off by default), so that the inputs of a run
+ *     can be recorded and the run replayed later (see Instrumentation.redirectInput and ReplayDriver)</li>
+ * </ul>
+ * Options can be repeated, and are applied in order (except the profile, which is applied first)
+ *
+ * @param families  the event families that are instrumented
+ * @param scope     the code that is instrumented
+ * @param constants the treatment of compile-time constant expressions
+ * @param guards    whether the logging code of the sites is guarded by the switches of their event families
+ * @param indy      whether the logging calls are linked dynamically
+ * @param dual      whether the methods in scope keep an uninstrumented version
+ * @param hitsFile  the profile of the numbers of hits of the sites, or null if there is none
+ * @param budget    the number of events that the profiled run would produce with the sites that remain instrumented
+ * @param hotSites  the treatment of the hot sites
+ * @param outline   the growth of the bytecode of a method above which its logging code is outlined, or NO_OUTLINING
+ * @param fuse      whether the events of straight-line sequences of statements are fused
+ * @param paths     whether the outcomes of the conditions are logged as the paths of their methods
+ * @param replay    whether the calls that read nondeterministic inputs are redirected to ___JumboTrace___
+ */
+public record PluginOptions(Set<EventFamily> families, ScopeFilter scope, ConstantsMode constants, boolean guards,
+                            boolean indy, boolean dual, @Nullable String hitsFile, long budget, HotSitesMode hotSites,
+                            long outline, boolean fuse, boolean paths,
+                            boolean replay) {
+
+    public static final long DEFAULT_BUDGET = 1_000_000;
+    public static final long NO_OUTLINING = -1;
+
+    private static final String PROFILE_OPTION = "profile";
+    private static final String ENABLE_OPTION = "enable";
+    private static final String DISABLE_OPTION = "disable";
+    private static final String INCLUDE_OPTION = "include";
+    private static final String EXCLUDE_OPTION = "exclude";
+    private static final String CONSTANTS_OPTION = "constants";
+    private static final String GUARDS_OPTION = "guards";
+    private static final String INDY_OPTION = "indy";
+    private static final String DUAL_OPTION = "dual";
+    private static final String HITS_OPTION = "hits";
+    private static final String BUDGET_OPTION = "budget";
+    private static final String HOT_OPTION = "hot";
+    private static final String OUTLINE_OPTION = "outline";
+    private static final String FUSE_OPTION = "fuse";
+    private static final String PATHS_OPTION = "paths";
+    private static final String REPLAY_OPTION = "replay";
+
+    /**
+     * Treatment of compile-time constant expressions (e.g. N * 4, where N is a final int variable initialized with a
+     * literal), which javac folds into their value
+     */
+    public enum ConstantsMode {
+
+        /**
+         * Constant folding is undone, so that the reads and operators of constant expressions are logged like the
+         * ones of other expressions
+         */
+        INSTRUMENT,
+
+        /**
+         * Constant expressions stay folded and are not logged
+         */
+        KEEP,
+
+        /**
+         * Constant expressions stay folded, and each evaluation of one of them is logged as a single event (literals
+         * are not logged)
+         */
+        EVENT;
+
+        /**
+         * @throws IllegalArgumentException if there is no mode with this name
+         */
+        public static ConstantsMode fromOptionName(String optionName) {
+            for (var mode : values()) {
+                if (mode.name().toLowerCase(Locale.ROOT).equals(optionName)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("unknown treatment of constants: " + optionName);
+        }
+
+    }
+
+    /**
+     * Treatment of the sites whose events are left out of the trace, according to the profile of the hits of the sites
+     */
+    public enum HotSitesMode {
+
+        /**
+         * The events of the site are replaced by a counter of its hits, which is saved when the thread terminates (and
+         * displayed by the frontend after the events, like the hits of throttled sites)
+         */
+        COUNT,
+
+        /**
+         * The site is not instrumented at all
+         */
+        OMIT;
+
+        /**
+         * @throws IllegalArgumentException if there is no mode with this name
+         */
+        public static HotSitesMode fromOptionName(String optionName) {
+            for (var mode : values()) {
+                if (mode.name().toLowerCase(Locale.ROOT).equals(optionName)) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("unknown treatment of hot sites: " + optionName);
+        }
+
+    }
+
+    /**
+     * @param args the arguments of the plugin
+     * @throws IllegalArgumentException if an argument is not a valid option
+     */
+    public static PluginOptions parse(String... args) {
+        var profile = EventFamily.DEFAULT_PROFILE;
+        // families enabled (true) or disabled (false) by the options, in order
+        var toggles = new ArrayList<Map.Entry<EventFamily, Boolean>>();
+        var includes = new ArrayList<String>();
+        var excludes = new ArrayList<String>();
+        var constants = ConstantsMode.INSTRUMENT;
+        var guards = false;
+        var indy = false;
+        var dual = false;
+        String hitsFile = null;
+        var budget = DEFAULT_BUDGET;
+        var hotSites = HotSitesMode.COUNT;
+        var outline = NO_OUTLINING;
+        var fuse = false;
+        var paths = false;
+        var replay = false;
+        for (var arg : args) {
+            if (arg.isBlank()) {
+                continue;
+            }
+            var sep = arg.indexOf('=');
+            if (sep == -1) {
+                throw new IllegalArgumentException("malformed JumboTrace option: " + arg + " (expected <option>=<value>)");
+            }
+            var value = arg.substring(sep + 1);
+            switch (arg.substring(0, sep)) {
+                case PROFILE_OPTION -> profile = value;
+                case ENABLE_OPTION -> splitList(value).forEach(name -> toggles.add(Map.entry(EventFamily.fromOptionName(name), true)));
+                case DISABLE_OPTION -> splitList(value).forEach(name -> toggles.add(Map.entry(EventFamily.fromOptionName(name), false)));
+                case INCLUDE_OPTION -> includes.addAll(splitList(value));
+                case EXCLUDE_OPTION -> excludes.addAll(splitList(value));
+                case CONSTANTS_OPTION -> constants = ConstantsMode.fromOptionName(value);
+                case GUARDS_OPTION -> guards = parseSwitch(arg, value);
+                case INDY_OPTION -> indy = parseSwitch(arg, value);
+                case DUAL_OPTION -> dual = parseSwitch(arg, value);
+                case HITS_OPTION -> hitsFile = value;
+                case BUDGET_OPTION -> budget = parseCount(arg, value, "events");
+                case HOT_OPTION -> hotSites = HotSitesMode.fromOptionName(value);
+                case OUTLINE_OPTION -> outline = parseCount(arg, value, "bytes");
+                case FUSE_OPTION -> fuse = parseSwitch(arg, value);
+                case PATHS_OPTION -> paths = parseSwitch(arg, value);
+                case REPLAY_OPTION -> replay = parseSwitch(arg, value);
+                default -> throw new IllegalArgumentException("unknown JumboTrace option: " + arg);
+            }
+        }
+        var families = EventFamily.profile(profile);
+        for (var toggle : toggles) {
+            if (toggle.getValue()) {
+                families.add(toggle.getKey());
+            } else {
+                families.remove(toggle.getKey());
+            }
+        }
+        return new PluginOptions(families, new ScopeFilter(includes, excludes), constants, guards, indy, dual,
+                hitsFile, budget, hotSites, outline, fuse, paths, replay);
+    }
+
+    public boolean isEnabled(EventFamily family) {
+        return families.contains(family);
+    }
+
+    public boolean isOutlining() {
+        return outline != NO_OUTLINING;
+    }
+
+    public boolean isFusing() {
+        return fuse && !guards && !indy;
+    }
+
+    public boolean isRecordingPaths() {
+        return paths && !guards && !indy;
+    }
+
+    private static boolean parseSwitch(String arg, String value) {
+        return switch (value) {
+            case "on" -> true;
+            case "off" -> false;
+            default -> throw new IllegalArgumentException("malformed JumboTrace option: " + arg + " (expected on or off)");
+        };
+    }
+
+    private static long parseCount(String arg, String value, String unit) {
+        try {
+            var count = Long.parseLong(value);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("malformed JumboTrace option: " + arg + " (expected a number of " + unit + ")");
+    }
+
+    private static List<String> splitList(String list) {
+        var elems = new ArrayList<String>();
+        for (var elem : list.split(",")) {
+            if (!elem.isBlank()) {
+                elems.add(elem.strip());
+            }
+        }
+        return elems;
+    }
+
+}
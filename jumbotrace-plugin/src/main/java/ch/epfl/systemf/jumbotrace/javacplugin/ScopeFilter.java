@@ -0,0 +1,89 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import com.sun.tools.javac.code.Symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides which classes and methods are instrumented, according to the include and exclude options of the plugin (see
+ * PluginOptions)
+ * <p>
+ * Patterns are matched against the flat names of classes (e.g. com.acme.Outer$Inner) and against the names of methods
+ * prefixed with the flat name of their class (e.g. com.acme.Outer.toString). In patterns, '*' stands for any sequence of
+ * characters and '?' for any character. A class matches a pattern if it or one of its enclosing classes does, and a
+ * method matches a pattern if it or its class does.
+ * <p>
+ * A method is in scope if it matches no exclude pattern, and matches an include pattern (or there are no include
+ * patterns). Code that is not in scope is not instrumented at all
+ */
+public final class ScopeFilter {
+
+    private final List<Pattern> includes;
+    private final List<Pattern> excludes;
+
+    /**
+     * @param includeGlobs the include patterns (if empty, all code that is not excluded is in scope)
+     * @param excludeGlobs the exclude patterns
+     */
+    public ScopeFilter(List<String> includeGlobs, List<String> excludeGlobs) {
+        this.includes = includeGlobs.stream().map(ScopeFilter::globToRegex).toList();
+        this.excludes = excludeGlobs.stream().map(ScopeFilter::globToRegex).toList();
+    }
+
+    /**
+     * @return true iff the code of the class that is not in a method (field initializers, static initializers) is in scope
+     */
+    public boolean isInScope(Symbol.ClassSymbol classSymbol) {
+        return isInScope(classSymbol, null);
+    }
+
+    /**
+     * @return true iff the given method of the class is in scope
+     */
+    public boolean isInScope(Symbol.ClassSymbol classSymbol, String methodName) {
+        var classNames = new ArrayList<String>();
+        for (var cls = classSymbol; cls != null; cls = cls.owner.enclClass()) {
+            classNames.add(cls.flatName().toString());
+        }
+        return isInScope(classNames, methodName);
+    }
+
+    /**
+     * Same as isInScope(ClassSymbol, String), for code that has not been attributed yet
+     *
+     * @param classNames the flat names of the class and of its enclosing classes, innermost first
+     */
+    public boolean isInScope(List<String> classNames, String methodName) {
+        return (includes.isEmpty() || matchesAny(includes, classNames, methodName))
+                && !matchesAny(excludes, classNames, methodName);
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, List<String> classNames, String methodName) {
+        for (var pattern : patterns) {
+            if (methodName != null && pattern.matcher(classNames.get(0) + "." + methodName).matches()) {
+                return true;
+            }
+            for (var className : classNames) {
+                if (pattern.matcher(className).matches()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Pattern globToRegex(String glob) {
+        var regex = new StringBuilder();
+        for (var c : glob.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '?' -> regex.append('.');
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+}
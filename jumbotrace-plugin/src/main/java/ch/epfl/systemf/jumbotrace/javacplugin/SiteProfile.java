@@ -0,0 +1,82 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Numbers of hits of the sites during a representative run of the program, used to select the hot sites whose events
+ * are left out of the trace (see PluginOptions)
+ * <p>
+ * The profile is written by an instrumented program run with the jumbotrace.profileFile property. Each line describes a
+ * site, as tab-separated fields: number of hits, kind, file, start line, start column, end line, end column. Sites are
+ * identified by these fields, so the program must be recompiled from the same files, at the same location
+ */
+public final class SiteProfile {
+
+    private final Set<SiteKey> hotSites;
+
+    private SiteProfile(Set<SiteKey> hotSites) {
+        this.hotSites = hotSites;
+    }
+
+    private record SiteKey(String kind, String filename, int startLine, int startCol, int endLine, int endCol) {
+    }
+
+    /**
+     * Reads a profile and selects the hot sites: the sites with the most hits are selected first, until the remaining
+     * sites do not produce more than budget events
+     *
+     * @param isDroppable tells whether the events of a kind of sites can be left out of the trace (events that other
+     *                    events refer to, like method enters, cannot)
+     */
+    public static SiteProfile load(String file, long budget, Predicate<String> isDroppable) {
+        var hits = new HashMap<SiteKey, Long>();
+        try {
+            for (var line : Files.readAllLines(Path.of(file))) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                var fields = line.split("\t");
+                if (fields.length != 7) {
+                    throw new IllegalArgumentException("malformed line in site profile " + file + ": " + line);
+                }
+                var key = new SiteKey(fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                        Integer.parseInt(fields[5]), Integer.parseInt(fields[6]));
+                hits.merge(key, Long.parseLong(fields[0]), Long::sum);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        var nEvents = hits.values().stream().mapToLong(Long::longValue).sum();
+        var candidates = new ArrayList<Map.Entry<SiteKey, Long>>();
+        for (var entry : hits.entrySet()) {
+            if (isDroppable.test(entry.getKey().kind)) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Map.Entry.<SiteKey, Long>comparingByValue().reversed());
+        var hotSites = new HashSet<SiteKey>();
+        for (var iter = candidates.iterator(); nEvents > budget && iter.hasNext(); ) {
+            var candidate = iter.next();
+            hotSites.add(candidate.getKey());
+            nEvents -= candidate.getValue();
+        }
+        return new SiteProfile(hotSites);
+    }
+
+    /**
+     * @return true iff the events of the site must be left out of the trace
+     */
+    public boolean isHot(String kind, String filename, int startLine, int startCol, int endLine, int endCol) {
+        return hotSites.contains(new SiteKey(kind, filename, startLine, startCol, endLine, endCol));
+    }
+
+}
@@ -0,0 +1,79 @@
+package ch.epfl.systemf.jumbotrace.javacplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table of the sites of an instrumented class, built during the transformation of the class
+ * <p>
+ * The format of the table must match the one expected by Site.parseTable in jumbotrace-injected
+ */
+final class SiteTable {
+
+    /**
+     * Maximal length of the chunks of the table, so that each of them fits in the constant pool
+     * (a constant string may not take more than 65535 bytes once encoded)
+     */
+    private static final int MAX_CHUNK_LENGTH = 16384;
+
+    private final String filename;
+    private final StringBuilder table = new StringBuilder();
+    private int size = 0;
+
+    SiteTable(String filename) {
+        this.filename = filename;
+        appendField(filename);
+    }
+
+    String filename() {
+        return filename;
+    }
+
+    /**
+     * Adds a site to the table
+     *
+     * @param kind  the name of the logging method called at this site
+     * @param attrs the static information of the site (their string representation is saved)
+     * @return the index of the new site in the table
+     */
+    int add(String kind, int startLine, int startCol, int endLine, int endCol, Object... attrs) {
+        appendField(kind);
+        appendField(startLine);
+        appendField(startCol);
+        appendField(endLine);
+        appendField(endCol);
+        appendField(attrs.length);
+        for (var attr : attrs) {
+            appendField(attr);
+        }
+        return size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the table, split into chunks of at most MAX_CHUNK_LENGTH characters
+     */
+    List<String> chunks() {
+        var chunks = new ArrayList<String>();
+        var start = 0;
+        while (start < table.length()) {
+            var end = Math.min(start + MAX_CHUNK_LENGTH, table.length());
+            // do not split surrogate pairs
+            if (end < table.length() && Character.isHighSurrogate(table.charAt(end - 1))) {
+                end -= 1;
+            }
+            chunks.add(table.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private void appendField(Object field) {
+        var str = String.valueOf(field);
+        table.append(str.length()).append(':').append(str);
+    }
+
+}
@@ -10,22 +10,31 @@ import java.io.StringWriter;
 public final class TransformationListener implements TaskListener {
     private final TreeMakingContainer treeMakingContainer;
     private final Instrumentation instrumentation;
+    private final MethodVersions methodVersions;
+    private final PluginOptions options;
 
-    public TransformationListener(TreeMakingContainer treeMakingContainer, Instrumentation instrumentation) {
+    public TransformationListener(TreeMakingContainer treeMakingContainer, Instrumentation instrumentation,
+                                  MethodVersions methodVersions, PluginOptions options) {
         this.treeMakingContainer = treeMakingContainer;
         this.instrumentation = instrumentation;
+        this.methodVersions = methodVersions;
+        this.options = options;
     }
 
     @Override
     public void finished(TaskEvent e) {
-        if (e.getKind() == TaskEvent.Kind.ANALYZE) {
+        if (e.getKind() == TaskEvent.Kind.PARSE && options.dual()) {
+            methodVersions.addPristineVersions((JCTree.JCCompilationUnit) e.getCompilationUnit());
+        } else if (e.getKind() == TaskEvent.Kind.ANALYZE) {
             var cu = (JCTree.JCCompilationUnit) e.getCompilationUnit();
             var endPosTable = cu.endPositions;
             var transformer = new Transformer(
                     cu,
                     treeMakingContainer,
                     instrumentation,
-                    endPosTable
+                    methodVersions,
+                    endPosTable,
+                    options
             );
             transformer.translate(cu);
             // BEGIN debug zone
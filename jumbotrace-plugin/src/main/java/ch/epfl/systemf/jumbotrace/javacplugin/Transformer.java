@@ -4,7 +4,9 @@ import com.sun.tools.javac.code.*;
 import com.sun.tools.javac.tree.EndPosTable;
 import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.JCTree.*;
+import com.sun.tools.javac.tree.TreeInfo;
 import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
 import com.sun.tools.javac.tree.TreeTranslator;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.Name;
@@ -13,6 +15,7 @@ import com.sun.tools.javac.util.Position;
 import org.jetbrains.annotations.Nullable;
 
 import javax.lang.model.element.ElementKind;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.Objects;
@@ -32,6 +35,8 @@ public final class Transformer extends TreeTranslator {
 
     private static final String CONSTRUCTOR_NAME = "<init>";
     private static final String CLS_INIT_NAME = "<clinit>";
+    // name of the method in the exit and return events of lambdas
+    private static final String LAMBDA_NAME = "<lambda>";
 
     //</editor-fold>
 
@@ -40,16 +45,23 @@ public final class Transformer extends TreeTranslator {
     private final JCCompilationUnit cu;
     private final TreeMakingContainer m;
     private final Instrumentation instrumentation;
+    private final MethodVersions methodVersions;
     private final EndPosTable endPosTable;
+    private final PluginOptions options;
 
     private final Deque<Symbol.ClassSymbol> classesStack;
     private final Deque<Symbol.MethodSymbol> methodsStack;
+    // number of lambdas enclosing the current position, inside the current method
+    private int lambdasNesting = 0;
 
-    public Transformer(JCCompilationUnit cu, TreeMakingContainer m, Instrumentation instrumentation, EndPosTable endPosTable) {
+    public Transformer(JCCompilationUnit cu, TreeMakingContainer m, Instrumentation instrumentation,
+                       MethodVersions methodVersions, EndPosTable endPosTable, PluginOptions options) {
         this.cu = cu;
         this.m = m;
         this.instrumentation = instrumentation;
+        this.methodVersions = methodVersions;
         this.endPosTable = endPosTable;
+        this.options = options;
         classesStack = new LinkedList<>();
         methodsStack = new LinkedList<>();
     }
@@ -70,6 +82,10 @@ public final class Transformer extends TreeTranslator {
         return m.st();
     }
 
+    private Types types() {
+        return m.types();
+    }
+
     //</editor-fold>
 
     //<editor-fold desc="Context accessors">
@@ -102,6 +118,38 @@ public final class Transformer extends TreeTranslator {
                 );
     }
 
+    /**
+     * @return true iff the transformer is currently working inside the body of a lambda (the code of which is executed
+     * in a frame that is not the one of the enclosing method)
+     */
+    private boolean isInsideLambda() {
+        return lambdasNesting > 0;
+    }
+
+    /**
+     * @return true iff the transformer is currently working inside the body of a lambda whose enter is not logged, so
+     * that the frame that runs the code is not on the stack maintained by the tracer
+     */
+    private boolean isInsideUntracedLambda() {
+        return isInsideLambda() && !isEnabled(EventFamily.METHODS);
+    }
+
+    /**
+     * @return true iff the events of the family are instrumented
+     */
+    private boolean isEnabled(EventFamily family) {
+        return options.isEnabled(family);
+    }
+
+    /**
+     * @return true iff the given method is out of the scope of the instrumentation (including methods of libraries
+     * when the scope is restricted by include patterns)
+     */
+    private boolean isOutOfScope(@Nullable Symbol methodSymbol) {
+        return methodSymbol != null && methodSymbol.owner instanceof Symbol.ClassSymbol owner
+                && !options.scope().isInScope(owner, methodSymbol.name.toString());
+    }
+
     /**
      * @return true iff the transformer is currently working inside a method (i.e. if a call to `currentMethod`
      * would return something else than a default value)
@@ -114,52 +162,60 @@ public final class Transformer extends TreeTranslator {
 
     //<editor-fold desc="Visitor implementation">
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends JCTree> T translate(T tree) {
+        if (options.constants() != PluginOptions.ConstantsMode.INSTRUMENT && tree instanceof JCExpression expr
+                && expr.type != null && expr.type.constValue() != null) {
+            // all the subexpressions of a constant expression are constant, so there is nothing to instrument inside it
+            return (T) translateConstant(expr);
+        }
+        return super.translate(tree);
+    }
+
+    @Override
+    public void visitAnnotation(JCAnnotation annotation) {
+        // annotations are not evaluated at runtime, and their arguments must remain constant
+        this.result = annotation;
+    }
+
     @Override
     public void visitClassDef(JCClassDecl classDecl) {
         classesStack.addFirst(classDecl.sym);
-        super.visitClassDef(classDecl);
-        classDecl.defs = classDecl.defs.prepend(
-                mk().Block(Flags.STATIC, List.of(mk().Exec(instrumentation.logMethodEnter(
-                        classDecl.name.toString(),
-                        CLS_INIT_NAME,
-                        new Type.MethodType(List.nil(), st().voidType, List.nil(), classDecl.sym),
-                        currentFilename(),
-                        getStartLine(classDecl),
-                        getStartCol(classDecl)
-                ))))
-        ).append(
-                mk().Block(Flags.STATIC, List.of(mk().Exec(instrumentation.logMethodExit(
-                        CLS_INIT_NAME,
-                        currentFilename(),
-                        safeGetEndLine(classDecl),
-                        safeGetEndCol(classDecl)
-                ))))
-        );
-        for (var rem = classDecl.defs; rem.nonEmpty(); rem = rem.tail) {
-            var currDef = rem.head;
-            if (currDef instanceof JCBlock staticInitBlock) {
-                // catch exceptions in static initialization blocks and call methodExit if such an exception happens
-                var throwableVarSymbol = new Symbol.VarSymbol(0, m.nextId("throwable"), st().throwableType, currentMethod());
-                staticInitBlock.stats = List.of(
-                        mk().Try(
-                                mk().Block(0, staticInitBlock.stats),
-                                List.of(mk().Catch(
-                                        mk().VarDef(throwableVarSymbol, null),
-                                        mk().Block(0, List.of(
-                                                mk().Exec(instrumentation.logMethodExit(
-                                                        CLS_INIT_NAME,
-                                                        currentFilename(),
-                                                        safeGetEndLine(classDecl),
-                                                        safeGetEndCol(classDecl)
-                                                )),
-                                                mk().Throw(mk().Ident(throwableVarSymbol).setType(st().throwableType))
-                                        ))
-                                )),
-                                null
-                        )
-                );
+        instrumentation.enterClass(classDecl.sym, currentFilename());
+        // the members of the class are not executed by the frame of the enclosing method, if any
+        var outerBranchPath = instrumentation.suspendBranchPath();
+        var outerLambdasNesting = lambdasNesting;
+        lambdasNesting = 0;
+        if (options.scope().isInScope(classDecl.sym)) {
+            super.visitClassDef(classDecl);
+            if (isEnabled(EventFamily.METHODS)) {
+                logClassInitialization(classDecl);
             }
+        } else {
+            // only the methods and nested classes that are in scope are instrumented (see visitMethodDef)
+            for (var rem = classDecl.defs; rem.nonEmpty(); rem = rem.tail) {
+                if (rem.head instanceof JCMethodDecl || rem.head instanceof JCClassDecl) {
+                    rem.head = translate(rem.head);
+                }
+            }
+            this.result = classDecl;
+        }
+        lambdasNesting = outerLambdasNesting;
+        // the bodies of the pristine versions have been moved into the corresponding methods (see visitMethodDef)
+        var defs = List.<JCTree>nil();
+        for (var def : classDecl.defs) {
+            if (!(def instanceof JCMethodDecl methodDecl && methodVersions.isPristineVersion(methodDecl))) {
+                defs = defs.prepend(def);
+            }
+        }
+        classDecl.defs = defs.reverse();
+        if (options.replay()) {
+            redirectInputs(classDecl);
         }
+        // must come first, so that the sites are registered before any other static initializer runs
+        classDecl.defs = classDecl.defs.prependList(instrumentation.exitClass());
+        instrumentation.resumeBranchPath(outerBranchPath);
         classesStack.removeFirst();
     }
 
@@ -174,13 +230,13 @@ public final class Transformer extends TreeTranslator {
             this.result = varDecl;
         } else {
             super.visitVarDef(varDecl);
-            if (varDecl.sym.owner instanceof Symbol.ClassSymbol classSymbol && varDecl.init != null) {
+            if (varDecl.sym.owner instanceof Symbol.ClassSymbol classSymbol && varDecl.init != null
+                    && isEnabled(EventFamily.WRITES)) {
                 varDecl.init = instrumentation.logInitializedFieldDeclaration(
                         classSymbol.name.toString(),
                         varDecl.name.toString(),
                         varDecl.vartype.toString(),
                         varDecl.init,
-                        currentFilename(),
                         getStartLine(varDecl),
                         getStartCol(varDecl),
                         safeGetEndLine(varDecl),
@@ -192,38 +248,120 @@ public final class Transformer extends TreeTranslator {
 
     @Override
     public void visitBlock(JCBlock block) {
-        super.visitBlock(block);
-        var newStats = List.<JCStatement>nil();
-        // iterating in reverse order to keep complexity linear
-        for (var remStats = block.stats.reverse(); remStats.nonEmpty(); remStats = remStats.tail) {
+        var newStats = new ArrayList<JCStatement>();
+        // the statements of the current sequence whose events are fused (see isFusible)
+        var fusedStats = new ArrayList<JCStatement>();
+        JCStatement firstFusedStat = null;
+        for (var remStats = block.stats; remStats.nonEmpty(); remStats = remStats.tail) {
             var currStat = remStats.head;
+            var isLastFused = remStats.tail.isEmpty() || !isFusible(remStats.tail.head);
+            var isFused = options.isFusing() && isFusible(currStat) && (firstFusedStat != null || !isLastFused);
+            if (isFused && firstFusedStat == null) {
+                instrumentation.startFusion();
+                firstFusedStat = currStat;
+            }
+            translateBlockStat(currStat, isFused ? fusedStats : newStats);
+            if (isFused && isLastFused) {
+                mk().at(firstFusedStat.pos);
+                newStats.addAll(instrumentation.endFusion(
+                        List.from(fusedStats),
+                        getStartLine(firstFusedStat),
+                        getStartCol(firstFusedStat),
+                        safeGetEndLine(currStat),
+                        safeGetEndCol(currStat)
+                ));
+                fusedStats.clear();
+                firstFusedStat = null;
+            }
+        }
+        block.stats = List.from(newStats);
+        this.result = block;
+    }
+
+    /**
+     * Translates a statement of a block and appends it to stats, preceded by the logging of its declaration if it
+     * declares a variable
+     */
+    private void translateBlockStat(JCStatement stat, ArrayList<JCStatement> stats) {
+        var currStat = translate(stat);
+        if (isEnabled(EventFamily.WRITES)) {
             mk().at(currStat.pos);
             if (currStat instanceof JCVariableDecl variableDecl && variableDecl.init != null) {
                 variableDecl.init = instrumentation.logLocalVarAssignment(
                         variableDecl.name.toString(),
                         variableDecl.init,
                         variableDecl.type,
-                        currentFilename(),
                         getStartLine(variableDecl),
                         getStartCol(variableDecl),
                         safeGetEndLine(variableDecl),
                         safeGetEndCol(variableDecl)
                 );
             }
-            newStats = newStats.prepend(currStat);
             if (currStat instanceof JCVariableDecl variableDecl) {
-                newStats = newStats.prepend(mk().Exec(instrumentation.logVariableDeclaration(
+                stats.add(instrumentation.logVariableDeclaration(
                         variableDecl.name.toString(),
                         variableDecl.vartype.toString(),
-                        currentFilename(),
                         getStartLine(variableDecl),
                         getStartCol(variableDecl),
                         safeGetEndLine(variableDecl),
                         safeGetEndCol(variableDecl)
-                )));
+                ));
             }
         }
-        block.stats = newStats;
+        stats.add(currStat);
+    }
+
+    /**
+     * @return true iff the events of the statement can be fused with the ones of the neighbouring statements (see
+     * Instrumentation.startFusion), i.e. iff the statement only declares, reads and writes local variables of
+     * primitive types, with operators that neither branch nor throw
+     */
+    private boolean isFusible(JCStatement stat) {
+        if (stat instanceof JCVariableDecl varDecl) {
+            return varDecl.sym.type.isPrimitive() && (varDecl.init == null || isFusible(varDecl.init));
+        } else if (stat instanceof JCExpressionStatement exprStat) {
+            return (exprStat.expr instanceof JCAssign || exprStat.expr instanceof JCAssignOp
+                    || exprStat.expr instanceof JCUnary) && isFusible(exprStat.expr);
+        } else {
+            return false;
+        }
+    }
+
+    private boolean isFusible(JCExpression expr) {
+        if (expr.type == null || !expr.type.isPrimitive()) {
+            return false;
+        } else if (expr instanceof JCLiteral) {
+            return true;
+        } else if (expr instanceof JCIdent) {
+            return isPrimitiveLocalVar(expr);
+        } else if (expr instanceof JCParens parens) {
+            return isFusible(parens.expr);
+        } else if (expr instanceof JCUnary unary) {
+            return unary.getTag().isIncOrDecUnaryOp() ? isPrimitiveLocalVar(unary.arg) : isFusible(unary.arg);
+        } else if (expr instanceof JCBinary binary) {
+            return !binary.hasTag(Tag.AND) && !binary.hasTag(Tag.OR) && !isIntegerDivision(binary.getTag(), binary.operator)
+                    && isFusible(binary.lhs) && isFusible(binary.rhs);
+        } else if (expr instanceof JCAssign assign) {
+            return isPrimitiveLocalVar(assign.lhs) && isFusible(assign.rhs);
+        } else if (expr instanceof JCAssignOp assignOp) {
+            return !isIntegerDivision(assignOp.getTag().noAssignOp(), assignOp.operator)
+                    && isPrimitiveLocalVar(assignOp.lhs) && isFusible(assignOp.rhs);
+        } else {
+            return false;
+        }
+    }
+
+    private boolean isPrimitiveLocalVar(JCExpression expr) {
+        return withoutParentheses(expr) instanceof JCIdent ident && ident.sym != null && isLocalOrParameter(ident.sym)
+                && ident.type.isPrimitive();
+    }
+
+    /**
+     * @return true iff the operator is an integer division or remainder, which throws on a division by zero
+     */
+    private static boolean isIntegerDivision(Tag opTag, Symbol.OperatorSymbol operator) {
+        var resultTag = operator.type.getReturnType().getTag();
+        return (opTag == Tag.DIV || opTag == Tag.MOD) && (resultTag == TypeTag.INT || resultTag == TypeTag.LONG);
     }
 
     @Override
@@ -232,27 +370,40 @@ public final class Transformer extends TreeTranslator {
          * (java.lang.Enum), which confuses the tracing system */
         // TODO fix this problem (possibly by converting enums to regular classes)
         var isEnumInit = method.name.contentEquals(CONSTRUCTOR_NAME) && Flags.isEnum(method.sym.owner);
-        if (isEnumInit) {
+        if (isEnumInit || methodVersions.isPristineVersion(method)
+                || !options.scope().isInScope(currentClass(), method.name.toString())) {
             this.result = method;
             return;
         }
         methodsStack.addFirst(method.sym);
+        var outerLambdasNesting = lambdasNesting;
+        lambdasNesting = 0;
+        var sizeBefore = options.isOutlining() ? BytecodeSize.estimate(method.body) : 0;
+        var recordsPath = options.isRecordingPaths() && method.body != null;
+        var outerBranchPath = recordsPath ?
+                instrumentation.startBranchPath(method.name.toString(), getStartLine(method), getStartCol(method)) :
+                null;
         super.visitMethodDef(method);
+        lambdasNesting = outerLambdasNesting;
         var body = method.getBody();
-        if (body != null) {
+        if (recordsPath) {
+            mk().at(body.pos);
+            // the call to the superclass constructor must remain the first statement (see visitExec)
+            var isConstructor = method.sym.getKind().equals(ElementKind.CONSTRUCTOR) && body.stats.nonEmpty();
+            var pathStats = instrumentation.endBranchPath(isConstructor ? body.stats.tail : body.stats, outerBranchPath);
+            body.stats = isConstructor ? pathStats.prepend(body.stats.head) : pathStats;
+        }
+        if (body != null && isEnabled(EventFamily.METHODS)) {
             var statsOuter = List.<JCStatement>nil();
             mk().at(body.pos);
-            statsOuter = statsOuter.append(mk().Exec(
-                    instrumentation.logMethodEnter(
-                            method.sym.owner.name.toString(),
-                            method.name.toString(),
-                            // FIXME method.type is null in some cases
-                            // (apparently when there is a second class on the same file)
-                            method.type.asMethodType(),
-                            currentFilename(),
-                            getStartLine(method),
-                            getStartCol(method)
-                    )
+            statsOuter = statsOuter.append(instrumentation.logMethodEnter(
+                    method.sym.owner.name.toString(),
+                    method.name.toString(),
+                    // FIXME method.type is null in some cases
+                    // (apparently when there is a second class on the same file)
+                    method.type.asMethodType(),
+                    getStartLine(method),
+                    getStartCol(method)
             ));
             List<JCStatement> statsInner;
             if (method.sym.getKind().equals(ElementKind.CONSTRUCTOR)) {
@@ -264,27 +415,31 @@ public final class Transformer extends TreeTranslator {
             }
             if (method.type.asMethodType().getReturnType().getTag() == TypeTag.VOID) {
                 mk().at(body.stats.isEmpty() ? body.pos : body.stats.last().pos);
-                statsInner = statsInner.append(mk().Exec(
-                        instrumentation.logImplicitReturn(
-                                method.name.toString(),
-                                currentFilename(),
-                                safeGetEndLine(method),
-                                safeGetEndCol(method)
-                        )
+                statsInner = statsInner.append(instrumentation.logImplicitReturn(
+                        method.name.toString(),
+                        safeGetEndLine(method),
+                        safeGetEndCol(method)
                 ));
             }
             statsOuter = statsOuter.append(mk().Try(
                     mk().Block(0, statsInner),
                     List.nil(),
-                    mk().Block(0, List.of(mk().Exec(instrumentation.logMethodExit(
+                    mk().Block(0, List.of(instrumentation.logMethodExit(
                             method.name.toString(),
-                            currentFilename(),
                             getStartLine(method),
                             getStartCol(method)
-                    ))))
+                    )))
             ));
             body.stats = statsOuter;
         }
+        if (options.isOutlining() && BytecodeSize.estimate(method.body) - sizeBefore > options.outline()) {
+            method.body = instrumentation.outline(method.body);
+        }
+        var pristineBody = methodVersions.takePristineBody(method);
+        if (pristineBody != null) {
+            mk().at(method.body.pos);
+            method.body = instrumentation.makeVersionDispatch(method, pristineBody);
+        }
         methodsStack.removeFirst();
     }
 
@@ -297,6 +452,9 @@ public final class Transformer extends TreeTranslator {
          * to violate the obligation for this call to be the first instruction executed by the constructor on its
          * receiver
          */
+        // the path of a constructor is only recorded after the call to the underlying constructor (see visitMethodDef)
+        var isSelfCall = TreeInfo.isSelfCall(exprStat);
+        var outerBranchPath = isSelfCall ? instrumentation.suspendBranchPath() : null;
         JCStatement transformedStat;
         if (exprStat.expr instanceof JCMethodInvocation invocation
                 && currentMethod().name.contentEquals(CONSTRUCTOR_NAME)
@@ -304,12 +462,13 @@ public final class Transformer extends TreeTranslator {
             invocation.args = translate(invocation.args);
             mk().at(invocation.pos);
             transformedStat = exprStat;
-        } else if (exprStat.expr instanceof JCNewClass newClass) {
+        } else if (exprStat.expr instanceof JCNewClass newClass && isEnabled(EventFamily.CALLS)) {
             newClass.args = translate(newClass.args);
             mk().at(newClass.pos);
             var instrPieces = makeConstructorCallInstrumentationPieces(newClass);
             transformedStat = makeBlock(newClass, newClass.clazz.toString(), CONSTRUCTOR_NAME, instrPieces);
-        } else if (exprStat.expr instanceof JCMethodInvocation invocation && invocation.meth.type.getReturnType().getTag() == TypeTag.VOID) {
+        } else if (exprStat.expr instanceof JCMethodInvocation invocation && invocation.meth.type.getReturnType().getTag() == TypeTag.VOID
+                && isEnabled(EventFamily.CALLS)) {
             invocation.args = translate(invocation.args);
             mk().at(invocation.pos);
             var instrPieces = makeMethodCallInstrumentationPieces(invocation);
@@ -318,25 +477,91 @@ public final class Transformer extends TreeTranslator {
             super.visitExec(exprStat);
             transformedStat = exprStat;
         }
+        if (isSelfCall) {
+            instrumentation.resumeBranchPath(outerBranchPath);
+        }
+        if (!isEnabled(EventFamily.STATEMENTS)) {
+            this.result = transformedStat;
+            return;
+        }
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logExec(
-                        currentFilename(),
+                instrumentation.logExec(
                         getStartLine(exprStat),
                         getStartCol(exprStat),
                         safeGetEndLine(exprStat),
                         safeGetEndCol(exprStat)
-                )),
+                ),
                 transformedStat
         ));
     }
 
     @Override
     public void visitLambda(JCLambda lambda) {
-        // TODO log lambdas
         if (lambda.body instanceof JCExpression bodyExpr && lambda.body.type.getTag() == TypeTag.VOID) {
             lambda.body = mk().at(lambda.pos).Exec(bodyExpr);
         }
+        lambdasNesting += 1;
+        // the body of the lambda is executed by another frame, which does not see the path of the enclosing method
+        var outerBranchPath = instrumentation.suspendBranchPath();
         super.visitLambda(lambda);
+        instrumentation.resumeBranchPath(outerBranchPath);
+        lambdasNesting -= 1;
+        if (!isEnabled(EventFamily.METHODS)) {
+            return;
+        }
+        /* The body is logged like the one of a method. The logging code only refers to static fields, so that lambdas
+         * that do not capture anything keep not capturing anything, and are still allocated only once */
+        var interfaceMethod = types().findDescriptorSymbol(lambda.type.tsym);
+        var methodSig = types().findDescriptorType(lambda.type).asMethodType();
+        var isVoid = methodSig.getReturnType().getTag() == TypeTag.VOID;
+        var line = getStartLine(lambda);
+        var col = getStartCol(lambda);
+        List<JCStatement> stats;
+        if (lambda.body instanceof JCBlock block) {
+            stats = block.stats;
+        } else if (lambda.body instanceof JCExpression bodyExpr && !isVoid) {
+            mk().at(bodyExpr.pos);
+            stats = List.of(
+                    instrumentation.logReturnStat(
+                            LAMBDA_NAME,
+                            getStartLine(bodyExpr),
+                            getStartCol(bodyExpr),
+                            safeGetEndLine(bodyExpr),
+                            safeGetEndCol(bodyExpr)
+                    ),
+                    mk().Return(bodyExpr)
+            );
+            lambda.canCompleteNormally = false;
+        } else {
+            // the value of the expression (if any) is discarded
+            stats = List.of(lambda.body instanceof JCExpression bodyExpr ?
+                    mk().at(bodyExpr.pos).Exec(bodyExpr) :
+                    (JCStatement) lambda.body);
+        }
+        if (isVoid) {
+            mk().at(stats.isEmpty() ? lambda.body.pos : stats.last().pos);
+            stats = stats.append(instrumentation.logImplicitReturn(
+                    LAMBDA_NAME,
+                    safeGetEndLine(lambda),
+                    safeGetEndCol(lambda)
+            ));
+        }
+        mk().at(lambda.pos);
+        lambda.body = mk().Block(0, List.of(
+                instrumentation.logLambdaEnter(
+                        interfaceMethod.owner.getQualifiedName().toString(),
+                        interfaceMethod.name.toString(),
+                        methodSig,
+                        currentMethod().name.toString(),
+                        line,
+                        col
+                ),
+                mk().Try(
+                        mk().Block(0, stats),
+                        List.nil(),
+                        mk().Block(0, List.of(instrumentation.logMethodExit(LAMBDA_NAME, line, col)))
+                )
+        ));
     }
 
     @Override
@@ -347,6 +572,10 @@ public final class Transformer extends TreeTranslator {
         invocation.args = translate(invocation.args);
         mk().at(invocation.pos);
         deleteConstantFolding(invocation);
+        if (!isEnabled(EventFamily.CALLS)) {
+            this.result = invocation;
+            return;
+        }
         if (invocation.type.getTag() == TypeTag.VOID) {
             throw new IllegalArgumentException("unexpected VOID tag for invocation at " + invocation.pos());
         }
@@ -359,6 +588,9 @@ public final class Transformer extends TreeTranslator {
         super.visitNewClass(newClass);
         mk().at(newClass.pos);
         deleteConstantFolding(newClass);
+        if (!isEnabled(EventFamily.CALLS)) {
+            return;
+        }
         var instrPieces = makeConstructorCallInstrumentationPieces(newClass);
         this.result = makeLet(newClass, newClass.clazz.toString(), CONSTRUCTOR_NAME, instrPieces);
     }
@@ -367,12 +599,13 @@ public final class Transformer extends TreeTranslator {
     public void visitDoLoop(JCDoWhileLoop doWhileLoop) {
         final var loopType = "do-while";
         super.visitDoLoop(doWhileLoop);
-        var filename = currentFilename();
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         mk().at(doWhileLoop.cond.pos);
         doWhileLoop.cond = instrumentation.logLoopCondition(
                 doWhileLoop.cond,
                 loopType,
-                filename,
                 getStartLine(doWhileLoop.cond),
                 getStartCol(doWhileLoop.cond),
                 safeGetEndLine(doWhileLoop.cond),
@@ -384,23 +617,21 @@ public final class Transformer extends TreeTranslator {
         var loopEndCol = safeGetEndCol(doWhileLoop);
         mk().at(doWhileLoop.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logLoopEnter(
+                instrumentation.logLoopEnter(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                )),
+                ),
                 doWhileLoop,
-                mk().Exec(instrumentation.logLoopExit(
+                instrumentation.logLoopExit(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                ))
+                )
         ));
     }
 
@@ -408,12 +639,13 @@ public final class Transformer extends TreeTranslator {
     public void visitWhileLoop(JCWhileLoop whileLoop) {
         final var loopType = "while";
         super.visitWhileLoop(whileLoop);
-        var filename = currentFilename();
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         mk().at(whileLoop.cond.pos);
         whileLoop.cond = instrumentation.logLoopCondition(
                 whileLoop.cond,
                 loopType,
-                filename,
                 getStartLine(whileLoop.cond),
                 getStartCol(whileLoop.cond),
                 safeGetEndLine(whileLoop.cond),
@@ -425,23 +657,21 @@ public final class Transformer extends TreeTranslator {
         var loopEndCol = safeGetEndCol(whileLoop);
         mk().at(whileLoop.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logLoopEnter(
+                instrumentation.logLoopEnter(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                )),
+                ),
                 whileLoop,
-                mk().Exec(instrumentation.logLoopExit(
+                instrumentation.logLoopExit(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                ))
+                )
         ));
     }
 
@@ -449,7 +679,9 @@ public final class Transformer extends TreeTranslator {
     public void visitForLoop(JCForLoop forLoop) {
         final var loopType = "for";
         super.visitForLoop(forLoop);
-        var filename = currentFilename();
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         var loopStartLine = getStartLine(forLoop);
         var loopStartCol = getStartCol(forLoop);
         var loopEndLine = safeGetEndLine(forLoop);
@@ -458,7 +690,6 @@ public final class Transformer extends TreeTranslator {
         forLoop.cond = instrumentation.logLoopCondition(
                 forLoop.cond,
                 loopType,
-                filename,
                 getStartLine(forLoop.cond),
                 getStartCol(forLoop.cond),
                 safeGetEndLine(forLoop.cond),
@@ -466,23 +697,21 @@ public final class Transformer extends TreeTranslator {
         );
         mk().at(forLoop.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logLoopEnter(
+                instrumentation.logLoopEnter(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                )),
+                ),
                 forLoop,
-                mk().Exec(instrumentation.logLoopExit(
+                instrumentation.logLoopExit(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                ))
+                )
         ));
     }
 
@@ -490,51 +719,52 @@ public final class Transformer extends TreeTranslator {
     public void visitForeachLoop(JCEnhancedForLoop foreachLoop) {
         final var loopType = "for-each";
         super.visitForeachLoop(foreachLoop);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         mk().at(foreachLoop.pos);
-        var filename = currentFilename();
         var loopStartLine = getStartLine(foreachLoop);
         var loopStartCol = getStartCol(foreachLoop);
         var loopEndLine = safeGetEndLine(foreachLoop);
         var loopEndCol = safeGetEndCol(foreachLoop);
         var loopBody = makeBlock(foreachLoop.body);
-        loopBody.stats = loopBody.stats.prepend(mk().Exec(instrumentation.logForeachNextIter(
+        loopBody.stats = loopBody.stats.prepend(instrumentation.logForeachNextIter(
                 mk().Ident(foreachLoop.var.sym).setType(foreachLoop.var.vartype.type),
-                filename,
                 loopStartLine,
                 loopStartCol,
                 loopEndLine,
                 loopEndCol
-        )));
+        ));
         mk().at(foreachLoop.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logLoopEnter(
+                instrumentation.logLoopEnter(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                )),
+                ),
                 foreachLoop,
-                mk().Exec(instrumentation.logLoopExit(
+                instrumentation.logLoopExit(
                         loopType,
-                        filename,
                         loopStartLine,
                         loopStartCol,
                         loopEndLine,
                         loopEndCol
-                ))
+                )
         ));
     }
 
     @Override
     public void visitSwitch(JCSwitch switchStat) {
         super.visitSwitch(switchStat);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         mk().at(switchStat.pos);
         switchStat.selector = instrumentation.logSwitchConstruct(
                 switchStat.selector,
                 false,
-                currentFilename(),
                 getStartLine(switchStat),
                 getStartCol(switchStat),
                 safeGetEndLine(switchStat),
@@ -555,10 +785,12 @@ public final class Transformer extends TreeTranslator {
         super.visitSwitchExpression(switchExpr);
         mk().at(switchExpr.pos);
         deleteConstantFolding(switchExpr);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         switchExpr.selector = instrumentation.logSwitchConstruct(
                 switchExpr.selector,
                 true,
-                currentFilename(),
                 getStartLine(switchExpr),
                 getStartCol(switchExpr),
                 safeGetEndLine(switchExpr),
@@ -569,16 +801,18 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitCatch(JCCatch catchClause) {
         super.visitCatch(catchClause);
+        if (!isEnabled(EventFamily.EXCEPTIONS)) {
+            return;
+        }
         var body = catchClause.body;
         mk().at(body.pos);
-        body.stats = body.stats.prepend(mk().Exec(instrumentation.logCaught(
+        body.stats = body.stats.prepend(instrumentation.logCaught(
                 mk().Ident(catchClause.param.sym),
-                currentFilename(),
                 getStartLine(catchClause),
                 getStartCol(catchClause),
                 safeGetEndLine(catchClause),
                 safeGetEndCol(catchClause)
-        )));
+        ));
     }
 
     @Override
@@ -586,9 +820,11 @@ public final class Transformer extends TreeTranslator {
         super.visitConditional(conditional);
         mk().at(conditional.pos);
         deleteConstantFolding(conditional);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         conditional.cond = instrumentation.logTernaryCond(
                 conditional.cond,
-                currentFilename(),
                 getStartLine(conditional),
                 getStartCol(conditional),
                 safeGetEndLine(conditional),
@@ -599,10 +835,12 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitIf(JCIf ifStat) {
         super.visitIf(ifStat);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         mk().at(ifStat.cond.pos);
         ifStat.cond = instrumentation.logIfCond(
                 ifStat.cond,
-                currentFilename(),
                 getStartLine(ifStat.cond),
                 getStartCol(ifStat.cond),
                 safeGetEndLine(ifStat.cond),
@@ -613,20 +851,22 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitBreak(JCBreak breakStat) {
         super.visitBreak(breakStat);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         var target = resolveJumpTarget(breakStat.target);
         var targetDescr = target.getTag().toString().toLowerCase();
         mk().at(breakStat.pos);
         this.result = mk().Block(0, List.of(
-                        mk().Exec(instrumentation.logBreak(
+                        instrumentation.logBreak(
                                 targetDescr,
                                 getStartLine(target),
                                 getStartCol(target),
-                                currentFilename(),
                                 getStartLine(breakStat),
                                 getStartCol(breakStat),
                                 safeGetEndLine(breakStat),
                                 safeGetEndCol(breakStat)
-                        )),
+                        ),
                         breakStat
                 )
         );
@@ -635,6 +875,9 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitYield(JCYield yieldStat) {
         super.visitYield(yieldStat);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         var target = yieldStat.target;
         var targetDescr = target.getTag().toString().toLowerCase();
         mk().at(yieldStat.pos);
@@ -643,17 +886,16 @@ public final class Transformer extends TreeTranslator {
                     yieldStat.value = valueAtom;
                     return mk().Block(0, List.of(
                             valueVarDecl,
-                            mk().Exec(instrumentation.logYield(
+                            instrumentation.logYield(
                                     valueAtom,
                                     targetDescr,
                                     getStartLine(target),
                                     getStartCol(target),
-                                    currentFilename(),
                                     getStartLine(yieldStat),
                                     getStartCol(yieldStat),
                                     safeGetEndLine(yieldStat),
                                     safeGetEndCol(yieldStat)
-                            )),
+                            ),
                             yieldStat
                     ));
                 });
@@ -662,20 +904,22 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitContinue(JCContinue continueStat) {
         super.visitContinue(continueStat);
+        if (!isEnabled(EventFamily.CONTROL_FLOW)) {
+            return;
+        }
         var target = resolveJumpTarget(continueStat.target);
         var targetDescr = target.getTag().toString().toLowerCase();
         mk().at(continueStat.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logContinue(
+                instrumentation.logContinue(
                         targetDescr,
                         getStartLine(target),
                         getStartCol(target),
-                        currentFilename(),
                         getStartLine(continueStat),
                         getStartCol(continueStat),
                         safeGetEndLine(continueStat),
                         safeGetEndCol(continueStat)
-                )),
+                ),
                 continueStat
         ));
     }
@@ -683,16 +927,18 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitReturn(JCReturn returnStat) {
         super.visitReturn(returnStat);
+        if (!isEnabled(EventFamily.METHODS)) {
+            return;
+        }
         mk().at(returnStat.pos);
         this.result = mk().Block(0, List.of(
-                mk().Exec(instrumentation.logReturnStat(
-                        currentMethod().name.toString(),
-                        currentFilename(),
+                instrumentation.logReturnStat(
+                        isInsideLambda() ? LAMBDA_NAME : currentMethod().name.toString(),
                         getStartLine(returnStat),
                         getStartCol(returnStat),
                         safeGetEndLine(returnStat),
                         safeGetEndCol(returnStat)
-                )),
+                ),
                 returnStat
         ));
     }
@@ -700,10 +946,12 @@ public final class Transformer extends TreeTranslator {
     @Override
     public void visitThrow(JCThrow throwStat) {
         super.visitThrow(throwStat);
+        if (!isEnabled(EventFamily.EXCEPTIONS)) {
+            return;
+        }
         mk().at(throwStat.pos);
         this.result = mk().Throw(instrumentation.logThrowStat(
                 throwStat.expr,
-                currentFilename(),
                 getStartLine(throwStat),
                 getStartCol(throwStat),
                 safeGetEndLine(throwStat),
@@ -715,6 +963,9 @@ public final class Transformer extends TreeTranslator {
     public void visitAssert(JCAssert assertStat) {
         var assertionDescr = assertStat.toString(); // save this BEFORE transforming the subtrees
         super.visitAssert(assertStat);
+        if (!isEnabled(EventFamily.EXCEPTIONS)) {
+            return;
+        }
         mk().at(assertStat.pos);
         this.result = withNewLocal("asserted", assertStat.cond, (assertedVarAtom, assertedVarDecl) -> {
             assertStat.cond = assertedVarAtom;
@@ -723,7 +974,6 @@ public final class Transformer extends TreeTranslator {
                     mk().Exec(instrumentation.logAssertion(
                             assertedVarAtom,
                             assertionDescr,
-                            currentFilename(),
                             getStartLine(assertStat),
                             getStartCol(assertStat),
                             safeGetEndLine(assertStat),
@@ -746,6 +996,14 @@ public final class Transformer extends TreeTranslator {
         /* Do not call super.visitAssign. One needs to be careful when recursing on the LHS: a
          * naive implementation would treat them as reads */
         var effectiveLhs = withoutParentheses(assignment.lhs);
+        if (!isEnabled(EventFamily.WRITES)) {
+            if (isWriteTarget(effectiveLhs)) {
+                translateWriteTarget(effectiveLhs);
+                assignment.rhs = translate(assignment.rhs);
+            }
+            this.result = assignment;
+            return;
+        }
         if (effectiveLhs instanceof JCIdent ident && isLocalVar(ident)) {
             assignment.rhs = translate(assignment.rhs);
             mk().at(assignment.pos);
@@ -785,6 +1043,12 @@ public final class Transformer extends TreeTranslator {
         /* Do not call super.visitAssign. One needs to be careful when recursing on the LHS: a
          * naive implementation would treat them as reads */
         var effectiveLhs = withoutParentheses(assignOp.lhs);
+        if (!isEnabled(EventFamily.WRITES)) {
+            translateWriteTarget(effectiveLhs);
+            assignOp.rhs = translate(assignOp.rhs);
+            this.result = assignOp;
+            return;
+        }
         if (effectiveLhs instanceof JCIdent ident && isLocalVar(ident)) {
             assignOp.rhs = translate(assignOp.rhs);
             mk().at(assignOp.pos);
@@ -824,7 +1088,10 @@ public final class Transformer extends TreeTranslator {
         var isPrefixOp = unary.hasTag(Tag.PREINC) || unary.hasTag(Tag.PREDEC);
         var isPostfixOp = unary.hasTag(Tag.POSTINC) || unary.hasTag(Tag.POSTDEC);
         var isIncOp = unary.hasTag(Tag.PREINC) || unary.hasTag(Tag.POSTINC);
-        if (isPrefixOp || isPostfixOp) {
+        if ((isPrefixOp || isPostfixOp) && !isEnabled(EventFamily.WRITES)) {
+            translateWriteTarget(withoutParentheses(unary.arg));
+            this.result = unary;
+        } else if (isPrefixOp || isPostfixOp) {
             var effectiveArg = withoutParentheses(unary.arg);
             if (effectiveArg instanceof JCIdent ident && isLocalVar(ident)) {
                 mk().at(unary.pos);
@@ -853,15 +1120,17 @@ public final class Transformer extends TreeTranslator {
         } else {
             super.visitUnary(unary);
             mk().at(unary.pos);
-            this.result = withNewLocal("unoparg", unary.arg, (argAtom, argVarDecl) -> {
+            if (!isEnabled(EventFamily.OPERATORS)) {
+                return;
+            }
+            this.result = withAtomOrNewLocal("unoparg", unary.arg, unary.arg.type, List.nil(), (argAtom, argVarDecl) -> {
                 unary.arg = argAtom;
                 return mk().LetExpr(
-                        List.of(argVarDecl),
+                        declarationsOf(argVarDecl),
                         instrumentation.logUnaryOp(
                                 unary,
                                 argAtom,
                                 unary.operator.name.toString(),
-                                currentFilename(),
                                 getStartLine(unary),
                                 getStartCol(unary),
                                 safeGetEndLine(unary),
@@ -877,29 +1146,30 @@ public final class Transformer extends TreeTranslator {
         super.visitBinary(binary);
         mk().at(binary.pos);
         deleteConstantFolding(binary);
+        if (!isEnabled(EventFamily.OPERATORS)) {
+            return;
+        }
+        // FIXME the rhs of && and || is evaluated even when the lhs determines the result
         this.result =
-                withNewLocalForceType("lhs", binary.lhs, makeNonNullType(binary.lhs.type), (lhsAtom, lhsVarDef) ->
-                        withNewLocalForceType("rhs", binary.rhs, makeNonNullType(binary.rhs.type), (rhsAtom, rhsVarDef) -> {
+                withAtomOrNewLocal("lhs", binary.lhs, makeNonNullType(binary.lhs.type), List.of(binary.rhs), (lhsAtom, lhsVarDef) ->
+                        withAtomOrNewLocal("rhs", binary.rhs, makeNonNullType(binary.rhs.type), List.nil(), (rhsAtom, rhsVarDef) -> {
                             binary.lhs = lhsAtom;
                             binary.rhs = rhsAtom;
                             return withNewLocal("binopres", binary, (resAtom, resVarDecl) ->
                                     mk().LetExpr(
-                                            List.of(
-                                                    lhsVarDef,
-                                                    rhsVarDef,
+                                            declarationsOf(lhsVarDef, rhsVarDef).appendList(List.of(
                                                     resVarDecl,
-                                                    mk().Exec(instrumentation.logBinaryOp(
+                                                    instrumentation.logBinaryOp(
                                                             lhsAtom,
                                                             rhsAtom,
                                                             binary.operator.name.toString(),
                                                             resAtom,
-                                                            currentFilename(),
                                                             getStartLine(binary),
                                                             getStartCol(binary),
                                                             safeGetEndLine(binary),
                                                             safeGetEndCol(binary)
-                                                    ))
-                                            ),
+                                                    )
+                                            )),
                                             resAtom
                                     ).setType(binary.type));
                         }));
@@ -910,6 +1180,9 @@ public final class Transformer extends TreeTranslator {
         super.visitTypeCast(typeCast);
         mk().at(typeCast.pos);
         deleteConstantFolding(typeCast);
+        if (!isEnabled(EventFamily.OPERATORS)) {
+            return;
+        }
         if (!typeCast.clazz.type.isPrimitive()) {
             this.result =
                     withNewLocal("casted", typeCast.expr, (castedVarAtom, castedVarDef) -> {
@@ -923,7 +1196,6 @@ public final class Transformer extends TreeTranslator {
                                                         castedVarAtom,
                                                         typeCast.clazz.toString(),
                                                         successVarAtom,
-                                                        currentFilename(),
                                                         getStartLine(typeCast),
                                                         getStartCol(typeCast),
                                                         safeGetEndLine(typeCast),
@@ -941,6 +1213,9 @@ public final class Transformer extends TreeTranslator {
         super.visitTypeTest(instanceOf);
         mk().at(instanceOf.pos);
         deleteConstantFolding(instanceOf);
+        if (!isEnabled(EventFamily.OPERATORS)) {
+            return;
+        }
         this.result = withNewLocal("testedobj", instanceOf.expr, (testedObjAtom, testedObjVarDecl) -> {
             instanceOf.expr = testedObjAtom;
             return mk().LetExpr(
@@ -949,7 +1224,6 @@ public final class Transformer extends TreeTranslator {
                             instanceOf,
                             testedObjAtom,
                             instanceOf.type.tsym.name.toString(),
-                            currentFilename(),
                             getStartLine(instanceOf),
                             getStartCol(instanceOf),
                             safeGetEndLine(instanceOf),
@@ -970,6 +1244,9 @@ public final class Transformer extends TreeTranslator {
         super.visitIndexed(arrayAccess);
         mk().at(arrayAccess.pos);
         deleteConstantFolding(arrayAccess);
+        if (!isEnabled(EventFamily.READS)) {
+            return;
+        }
         this.result =
                 withNewLocal("array", arrayAccess.indexed, (arrayAtom, arrayVarDecl) ->
                         withNewLocal("index", arrayAccess.index, (indexAtom, indexVarDecl) -> {
@@ -984,7 +1261,6 @@ public final class Transformer extends TreeTranslator {
                                             arrayAccess,
                                             arrayAtom,
                                             indexAtom,
-                                            currentFilename(),
                                             getStartLine(arrayAccess),
                                             getStartCol(arrayAccess),
                                             safeGetEndLine(arrayAccess),
@@ -1000,6 +1276,9 @@ public final class Transformer extends TreeTranslator {
         super.visitSelect(fieldAccess);
         mk().at(fieldAccess.pos);
         deleteConstantFolding(fieldAccess);
+        if (!isEnabled(EventFamily.READS)) {
+            return;
+        }
         var isField = fieldAccess.sym != null && Objects.equals(fieldAccess.sym.owner.getKind(), ElementKind.CLASS);
         var isStaticField = isField && fieldAccess.sym.isStatic();
         if (isStaticField) {
@@ -1007,7 +1286,6 @@ public final class Transformer extends TreeTranslator {
                     fieldAccess,
                     fieldAccess.selected.toString(),
                     fieldAccess.name.toString(),
-                    currentFilename(),
                     getStartLine(fieldAccess),
                     getStartCol(fieldAccess),
                     safeGetEndLine(fieldAccess),
@@ -1023,7 +1301,6 @@ public final class Transformer extends TreeTranslator {
                                 ownerAtom,
                                 fieldAccess.sym.owner.toString(),
                                 fieldAccess.name.toString(),
-                                currentFilename(),
                                 getStartLine(fieldAccess),
                                 getStartCol(fieldAccess),
                                 safeGetEndLine(fieldAccess),
@@ -1036,7 +1313,8 @@ public final class Transformer extends TreeTranslator {
 
     @Override
     public void visitReference(JCMemberReference memberReference) {
-        // things like Foo::bar
+        /* things like Foo::bar. Unlike lambdas, they have no body to log: the referenced method logs its enter if it is
+         * instrumented (turning the reference into a lambda would change when its receiver is evaluated) */
         // TODO maybe log such values (but we need to find a way of representing lambdas/methods)
         super.visitReference(memberReference);
         mk().at(memberReference.pos);
@@ -1048,11 +1326,13 @@ public final class Transformer extends TreeTranslator {
         super.visitIdent(ident);
         mk().at(ident.pos);
         deleteConstantFolding(ident);
+        if (!isEnabled(EventFamily.READS)) {
+            return;
+        }
         if (isLocalVar(ident)) {
             this.result = instrumentation.logLocalRead(
                     ident,
                     ident.name.toString(),
-                    currentFilename(),
                     getStartLine(ident),
                     getStartCol(ident),
                     safeGetEndLine(ident),
@@ -1063,7 +1343,6 @@ public final class Transformer extends TreeTranslator {
                     ident,
                     currentClass().name.toString(),
                     ident.name.toString(),
-                    currentFilename(),
                     getStartLine(ident),
                     getStartCol(ident),
                     safeGetEndLine(ident),
@@ -1075,7 +1354,6 @@ public final class Transformer extends TreeTranslator {
                     makeThisExpr(),
                     currentClass().name.toString(),
                     ident.name.toString(),
-                    currentFilename(),
                     getStartLine(ident),
                     getStartCol(ident),
                     safeGetEndLine(ident),
@@ -1109,12 +1387,126 @@ public final class Transformer extends TreeTranslator {
 
     //<editor-fold desc="Visitor helpers">
 
+    /**
+     * Keeps a compile-time constant expression folded, logging its evaluation if required by the options
+     */
+    private JCExpression translateConstant(JCExpression constantExpr) {
+        var effectiveExpr = withoutParentheses(constantExpr);
+        var isLiteral = effectiveExpr instanceof JCLiteral
+                || (effectiveExpr instanceof JCUnary unary && unary.arg instanceof JCLiteral);
+        if (options.constants() == PluginOptions.ConstantsMode.EVENT && !isLiteral
+                && (isEnabled(EventFamily.READS) || isEnabled(EventFamily.OPERATORS))) {
+            mk().at(constantExpr.pos);
+            return instrumentation.logConstant(
+                    constantExpr,
+                    effectiveExpr.toString(),
+                    getStartLine(constantExpr),
+                    getStartCol(constantExpr),
+                    safeGetEndLine(constantExpr),
+                    safeGetEndCol(constantExpr)
+            );
+        }
+        return constantExpr;
+    }
+
+    /**
+     * Logs the enter and the exit of the static initializer of the class
+     */
+    private void logClassInitialization(JCClassDecl classDecl) {
+        classDecl.defs = classDecl.defs.prepend(
+                mk().Block(Flags.STATIC, List.of(instrumentation.logMethodEnter(
+                        classDecl.name.toString(),
+                        CLS_INIT_NAME,
+                        new Type.MethodType(List.nil(), st().voidType, List.nil(), classDecl.sym),
+                        getStartLine(classDecl),
+                        getStartCol(classDecl)
+                )))
+        ).append(
+                mk().Block(Flags.STATIC, List.of(instrumentation.logMethodExit(
+                        CLS_INIT_NAME,
+                        safeGetEndLine(classDecl),
+                        safeGetEndCol(classDecl)
+                )))
+        );
+        for (var rem = classDecl.defs; rem.nonEmpty(); rem = rem.tail) {
+            var currDef = rem.head;
+            if (currDef instanceof JCBlock staticInitBlock) {
+                // catch exceptions in static initialization blocks and call methodExit if such an exception happens
+                var throwableVarSymbol = new Symbol.VarSymbol(0, m.nextId("throwable"), st().throwableType, currentMethod());
+                staticInitBlock.stats = List.of(
+                        mk().Try(
+                                mk().Block(0, staticInitBlock.stats),
+                                List.of(mk().Catch(
+                                        mk().VarDef(throwableVarSymbol, null),
+                                        mk().Block(0, List.of(
+                                                instrumentation.logMethodExit(
+                                                        CLS_INIT_NAME,
+                                                        safeGetEndLine(classDecl),
+                                                        safeGetEndCol(classDecl)
+                                                ),
+                                                mk().Throw(mk().Ident(throwableVarSymbol).setType(st().throwableType))
+                                        ))
+                                )),
+                                null
+                        )
+                );
+            }
+        }
+    }
+
+    /**
+     * Redirects the calls of the class that read nondeterministic inputs (see Instrumentation.redirectInput), including
+     * the ones of the members that are not in scope and of the pristine versions of the methods, so that all the inputs
+     * of the program can be replayed
+     */
+    // FIXME the local classes of the methods that are not in scope are not visited, hence not redirected
+    // TODO also redirect the method references (e.g. System::nanoTime)
+    private void redirectInputs(JCClassDecl classDecl) {
+        var translator = new TreeTranslator() {
+
+            @Override
+            public void visitApply(JCMethodInvocation invocation) {
+                super.visitApply(invocation);
+                this.result = redirectedOrSelf(invocation, TreeInfo.symbol(invocation.meth), invocation.args);
+            }
+
+            @Override
+            public void visitNewClass(JCNewClass newClass) {
+                super.visitNewClass(newClass);
+                // anonymous subclasses are not redirected, as their instances must belong to them
+                this.result = (newClass.def == null && newClass.encl == null) ?
+                        redirectedOrSelf(newClass, newClass.constructor, newClass.args) :
+                        newClass;
+            }
+
+            @Override
+            public void visitClassDef(JCClassDecl nestedClassDecl) {
+                // nested classes are redirected when the transformer exits them
+                this.result = nestedClassDecl;
+            }
+
+            private JCExpression redirectedOrSelf(JCExpression call, Symbol symbol, List<JCExpression> args) {
+                if (!(symbol instanceof Symbol.MethodSymbol method)) {
+                    return call;
+                }
+                mk().at(call.pos);
+                var redirected = instrumentation.redirectInput(method, args, call.type, getStartLine(call), getStartCol(call));
+                return redirected == null ? call : redirected;
+            }
+
+        };
+        for (var rem = classDecl.defs; rem.nonEmpty(); rem = rem.tail) {
+            if (!(rem.head instanceof JCClassDecl)) {
+                rem.head = translator.translate(rem.head);
+            }
+        }
+    }
+
     private void handleLocalVarAssignment(JCAssign assignment, JCIdent ident) {
         assignment.rhs = instrumentation.logLocalVarAssignment(
                 ident.name.toString(),
                 assignment.rhs,
                 assignment.lhs.type,
-                currentFilename(),
                 getStartLine(assignment),
                 getStartCol(assignment),
                 safeGetEndLine(assignment),
@@ -1136,20 +1528,17 @@ public final class Transformer extends TreeTranslator {
                                                             oldValueDef,
                                                             rhsVarDef,
                                                             resultVarDef,
-                                                            mk().Exec(
-                                                                    instrumentation.logLocalVarAssignOp(
-                                                                            localVarIdent.name.toString(),
-                                                                            localVarIdent,
-                                                                            assignOp.lhs.type,
-                                                                            oldValueAtom,
-                                                                            assignOp.operator.name.toString(),
-                                                                            rhsVarAtom,
-                                                                            currentFilename(),
-                                                                            getStartLine(assignOp),
-                                                                            getStartCol(assignOp),
-                                                                            safeGetEndLine(assignOp),
-                                                                            safeGetEndCol(assignOp)
-                                                                    )
+                                                            instrumentation.logLocalVarAssignOp(
+                                                                    localVarIdent.name.toString(),
+                                                                    localVarIdent,
+                                                                    assignOp.lhs.type,
+                                                                    oldValueAtom,
+                                                                    assignOp.operator.name.toString(),
+                                                                    rhsVarAtom,
+                                                                    getStartLine(assignOp),
+                                                                    getStartCol(assignOp),
+                                                                    safeGetEndLine(assignOp),
+                                                                    safeGetEndCol(assignOp)
                                                             )
                                                     ),
                                                     resultVarAtom
@@ -1164,7 +1553,6 @@ public final class Transformer extends TreeTranslator {
                         unary,
                         isPrefixOp,
                         isIncOp,
-                        currentFilename(),
                         getStartLine(unary),
                         getStartCol(unary),
                         safeGetEndLine(unary),
@@ -1178,7 +1566,6 @@ public final class Transformer extends TreeTranslator {
                 fieldName,
                 assignment.rhs,
                 assignment.lhs.type,
-                currentFilename(),
                 getStartLine(assignment),
                 getStartCol(assignment),
                 safeGetEndLine(assignment),
@@ -1200,21 +1587,18 @@ public final class Transformer extends TreeTranslator {
                                                             oldValueDef,
                                                             rhsVarDef,
                                                             resultDef,
-                                                            mk().Exec(
-                                                                    instrumentation.logStaticFieldAssignOp(
-                                                                            className,
-                                                                            fieldName,
-                                                                            resultAtom,
-                                                                            assignOp.lhs.type,
-                                                                            oldValueAtom,
-                                                                            assignOp.operator.name.toString(),
-                                                                            rhsVarAtom,
-                                                                            currentFilename(),
-                                                                            getStartLine(assignOp),
-                                                                            getStartCol(assignOp),
-                                                                            safeGetEndLine(assignOp),
-                                                                            safeGetEndCol(assignOp)
-                                                                    )
+                                                            instrumentation.logStaticFieldAssignOp(
+                                                                    className,
+                                                                    fieldName,
+                                                                    resultAtom,
+                                                                    assignOp.lhs.type,
+                                                                    oldValueAtom,
+                                                                    assignOp.operator.name.toString(),
+                                                                    rhsVarAtom,
+                                                                    getStartLine(assignOp),
+                                                                    getStartCol(assignOp),
+                                                                    safeGetEndLine(assignOp),
+                                                                    safeGetEndCol(assignOp)
                                                             )
                                                     ),
                                                     resultAtom
@@ -1231,7 +1615,6 @@ public final class Transformer extends TreeTranslator {
                         unary,
                         isPrefixOp,
                         isIncOp,
-                        currentFilename(),
                         getStartLine(unary),
                         getStartCol(unary),
                         safeGetEndLine(unary),
@@ -1252,7 +1635,6 @@ public final class Transformer extends TreeTranslator {
                             fieldName.toString(),
                             assignment.rhs,
                             assignment.lhs.type,
-                            currentFilename(),
                             getStartLine(assignment),
                             getStartCol(assignment),
                             safeGetEndLine(assignment),
@@ -1285,7 +1667,7 @@ public final class Transformer extends TreeTranslator {
                                                                 oldValueVarDecl,
                                                                 rhsVarDecl,
                                                                 resultVarDecl,
-                                                                mk().Exec(instrumentation.logInstanceFieldAssignOp(
+                                                                instrumentation.logInstanceFieldAssignOp(
                                                                         className,
                                                                         receiverAtom,
                                                                         fieldName.toString(),
@@ -1294,12 +1676,11 @@ public final class Transformer extends TreeTranslator {
                                                                         assignOp.operator.name.toString(),
                                                                         rhsAtom,
                                                                         assignOp.lhs.type,
-                                                                        currentFilename(),
                                                                         getStartLine(assignOp),
                                                                         getStartCol(assignOp),
                                                                         safeGetEndLine(assignOp),
                                                                         safeGetEndCol(assignOp)
-                                                                ))
+                                                                )
                                                         ),
                                                         resultAtom
                                                 ).setType(assignOp.type));
@@ -1323,7 +1704,6 @@ public final class Transformer extends TreeTranslator {
                             unary,
                             isPrefixOp,
                             isIncOp,
-                            currentFilename(),
                             getStartLine(unary),
                             getStartCol(unary),
                             safeGetEndLine(unary),
@@ -1346,16 +1726,15 @@ public final class Transformer extends TreeTranslator {
                                                     arrayVarDef,
                                                     indexVarDef,
                                                     rhsVarDef,
-                                                    mk().Exec(instrumentation.logArrayElemSet(
+                                                    instrumentation.logArrayElemSet(
                                                             arrayAtom,
                                                             indexAtom,
                                                             rhsAtom,
-                                                            currentFilename(),
                                                             getStartLine(assignment),
                                                             getStartCol(assignment),
                                                             safeGetEndLine(assignment),
                                                             safeGetEndCol(assignment)
-                                                    ))
+                                                    )
                                             ),
                                             assignment
                                     ).setType(arrayAccess.type);
@@ -1381,19 +1760,18 @@ public final class Transformer extends TreeTranslator {
                                                                         oldValueVarDecl,
                                                                         rhsVarDecl,
                                                                         resultVarDecl,
-                                                                        mk().Exec(instrumentation.logArrayElemAssignOp(
+                                                                        instrumentation.logArrayElemAssignOp(
                                                                                 arrayAtom,
                                                                                 indexAtom,
                                                                                 resultAtom,
                                                                                 oldValueAtom,
                                                                                 assignOp.operator.name.toString(),
                                                                                 rhsAtom,
-                                                                                currentFilename(),
                                                                                 getStartLine(assignOp),
                                                                                 getStartCol(assignOp),
                                                                                 safeGetEndLine(assignOp),
                                                                                 safeGetEndCol(assignOp)
-                                                                        ))
+                                                                        )
                                                                 ),
                                                                 resultAtom
                                                         ).setType(assignOp.type));
@@ -1418,7 +1796,6 @@ public final class Transformer extends TreeTranslator {
                                             unary,
                                             isPrefixOp,
                                             isIncOp,
-                                            currentFilename(),
                                             getStartLine(unary),
                                             getStartCol(unary),
                                             safeGetEndLine(unary),
@@ -1428,6 +1805,29 @@ public final class Transformer extends TreeTranslator {
                         }));
     }
 
+    /**
+     * @return true iff the expression is the target of a write to a variable, a field or an array element (and not
+     * e.g. the name of an element of an annotation)
+     */
+    private boolean isWriteTarget(JCExpression effectiveLhs) {
+        return (effectiveLhs instanceof JCIdent ident && (isLocalVar(ident) || isField(ident)))
+                || effectiveLhs instanceof JCFieldAccess
+                || effectiveLhs instanceof JCArrayAccess;
+    }
+
+    /**
+     * Translates the subexpressions of the target of a write that is not logged, without treating the target itself
+     * as a read
+     */
+    private void translateWriteTarget(JCExpression effectiveLhs) {
+        if (effectiveLhs instanceof JCFieldAccess fieldAccess && !fieldAccess.sym.isStatic()) {
+            fieldAccess.selected = translate(fieldAccess.selected);
+        } else if (effectiveLhs instanceof JCArrayAccess arrayAccess) {
+            arrayAccess.indexed = translate(arrayAccess.indexed);
+            arrayAccess.index = translate(arrayAccess.index);
+        }
+    }
+
     // helps the expansion of assignment operators, e.g. x += 1
     private JCExpression expandAssignOp(JCAssignOp assignOp, JCExpression savedValueVar) {
         var type = assignOp.type;
@@ -1467,13 +1867,14 @@ public final class Transformer extends TreeTranslator {
         var precomputation = makeArgsPrecomputations(allArgs, allArgTypes, invocation.varargsElement);
         var argsDecls = precomputation._1;
         var argsIds = precomputation._2;
-        var logCall = (receiver == null) ?
+        var loggingStat = (receiver == null) ?
                 instrumentation.logStaticMethodCall(
                         classNameOf(invocation.meth),
                         methodNameOf(invocation.meth),
                         invocation.meth.type.asMethodType(),
+                        isInsideUntracedLambda(),
+                        isOutOfScope(TreeInfo.symbol(invocation.meth)),
                         argsIds,
-                        currentFilename(),
                         getStartLine(invocation.meth),
                         getStartCol(invocation.meth),
                         safeGetEndLine(invocation),
@@ -1483,15 +1884,15 @@ public final class Transformer extends TreeTranslator {
                         classNameOf(invocation.meth),
                         methodNameOf(invocation.meth),
                         invocation.meth.type.asMethodType(),
+                        isInsideUntracedLambda(),
+                        isOutOfScope(TreeInfo.symbol(invocation.meth)),
                         argsIds.head,
                         argsIds.tail,
-                        currentFilename(),
                         getStartLine(invocation.meth),
                         getStartCol(invocation.meth),
                         safeGetEndLine(invocation),
                         safeGetEndCol(invocation)
                 );
-        var loggingStat = mk().Exec(logCall).setType(st().voidType);
         invocation.args = (receiver == null) ? argsIds : argsIds.tail;
         if (receiver != null && invocation.meth instanceof JCIdent indent) {
             invocation.meth = mk().Select(argsIds.head, indent.sym).setType(indent.type);
@@ -1513,18 +1914,18 @@ public final class Transformer extends TreeTranslator {
         var startCol = getStartCol(newClass);
         var endLine = safeGetEndLine(newClass);
         var endCol = safeGetEndCol(newClass);
-        var logCall = instrumentation.logStaticMethodCall(
+        var loggingStat = instrumentation.logStaticMethodCall(
                 newClass.clazz.toString(),
                 CONSTRUCTOR_NAME,
                 newClass.constructorType.asMethodType(),
+                isInsideUntracedLambda(),
+                isOutOfScope(newClass.constructor),
                 argsIds,
-                currentFilename(),
                 startLine,
                 startCol,
                 endLine,
                 endCol
         );
-        var loggingStat = mk().Exec(logCall).setType(st().voidType);
         newClass.args = argsIds;
         return new CallInstrumentationPieces(argsDecls, loggingStat, newClass);
     }
@@ -1571,6 +1972,93 @@ public final class Transformer extends TreeTranslator {
         return treeProducer.apply(ident, varDecl);
     }
 
+    /**
+     * Similar to `withNewLocalForceType`, except that no variable is created if `valueExpr` is atomic (see isAtomic):
+     * `valueExpr` is then passed to `treeProducer` instead of the variable, and the declaration is null
+     * @param laterOperands - the expressions that are evaluated between `valueExpr` and the uses of the variable
+     */
+    private <T extends JCTree> T withAtomOrNewLocal(String debugHint, JCExpression valueExpr, Type type,
+                                                    List<JCExpression> laterOperands,
+                                                    BiFunction<JCExpression, JCVariableDecl, T> treeProducer) {
+        if (isAtomic(valueExpr, type, laterOperands)) {
+            return treeProducer.apply(valueExpr, null);
+        }
+        return withNewLocalForceType(debugHint, valueExpr, type, treeProducer::apply);
+    }
+
+    /**
+     * @return the given declarations, except the ones that are null (see withAtomOrNewLocal)
+     */
+    private static List<JCStatement> declarationsOf(@Nullable JCVariableDecl... varDecls) {
+        var decls = List.<JCStatement>nil();
+        for (var varDecl : varDecls) {
+            if (varDecl != null) {
+                decls = decls.append(varDecl);
+            }
+        }
+        return decls;
+    }
+
+    /**
+     * An expression is atomic if it can be used several times instead of a variable holding its value, i.e. if it has
+     * no side effect, is cheap to evaluate, and still evaluates to the same value after `laterOperands` have been
+     * evaluated: non-null literals, `this`, and local variables that are effectively final or not assigned by
+     * `laterOperands`
+     * <p>
+     * Expressions that need a conversion to `type` are not atomic, as the variable would perform the conversion
+     */
+    private boolean isAtomic(JCExpression expr, Type type, List<JCExpression> laterOperands) {
+        if (expr.type == null || !types().isSameType(expr.type.baseType(), type.baseType())) {
+            return false;
+        } else if (expr instanceof JCLiteral literal) {
+            return !literal.type.hasTag(TypeTag.BOT);
+        } else if (expr instanceof JCIdent ident && ident.name == n()._this) {
+            return true;
+        } else if (expr instanceof JCIdent ident && ident.sym != null && isLocalOrParameter(ident.sym)) {
+            return (ident.sym.flags() & (Flags.FINAL | Flags.EFFECTIVELY_FINAL)) != 0
+                    || !isAssignedIn(ident.sym, laterOperands);
+        } else {
+            return false;
+        }
+    }
+
+    private static boolean isLocalOrParameter(Symbol symbol) {
+        return switch (symbol.getKind()) {
+            case LOCAL_VARIABLE, PARAMETER, EXCEPTION_PARAMETER -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * @return true iff one of the trees may assign the variable
+     */
+    private static boolean isAssignedIn(Symbol varSymbol, List<? extends JCTree> trees) {
+        var assigned = new boolean[]{false};
+        var scanner = new TreeScanner() {
+
+            @Override
+            public void visitAssign(JCAssign assign) {
+                assigned[0] |= TreeInfo.symbol(assign.lhs) == varSymbol;
+                super.visitAssign(assign);
+            }
+
+            @Override
+            public void visitAssignop(JCAssignOp assignOp) {
+                assigned[0] |= TreeInfo.symbol(assignOp.lhs) == varSymbol;
+                super.visitAssignop(assignOp);
+            }
+
+            @Override
+            public void visitUnary(JCUnary unary) {
+                assigned[0] |= unary.getTag().isIncOrDecUnaryOp() && TreeInfo.symbol(unary.arg) == varSymbol;
+                super.visitUnary(unary);
+            }
+
+        };
+        scanner.scan(trees);
+        return assigned[0];
+    }
+
     /**
      * Makes a let-expression from a CallInstrumentationPieces
      */
@@ -1583,7 +2071,6 @@ public final class Transformer extends TreeTranslator {
                                 className,
                                 methodName,
                                 instrPieces.initialMethodInvocation,
-                                currentFilename(),
                                 getStartLine(invocation),
                                 getStartCol(invocation),
                                 safeGetEndLine(invocation),
@@ -1601,15 +2088,14 @@ public final class Transformer extends TreeTranslator {
                 instrPieces.argsLocalsDefs
                         .append(instrPieces.logMethodCall)
                         .append(mk().Exec(call))
-                        .append(mk().Exec(instrumentation.logMethodReturnVoid(
+                        .append(instrumentation.logMethodReturnVoid(
                                 className,
                                 methodName,
-                                currentFilename(),
                                 getStartLine(call),
                                 getStartCol(call),
                                 safeGetEndLine(call),
                                 safeGetEndCol(call)
-                        )))
+                        ))
         );
     }
 
@@ -1626,6 +2112,10 @@ public final class Transformer extends TreeTranslator {
         var argsDecls = List.<JCStatement>nil();
         var argsIds = List.<JCExpression>nil();
         for (; args.nonEmpty(); args = args.tail, argTypes = argTypes.tail) {
+            if (isAtomic(args.head, argTypes.head, args.tail)) {
+                argsIds = argsIds.append(args.head);
+                continue;
+            }
             var varSymbol = new Symbol.VarSymbol(0, m.nextId("arg"), argTypes.head, currentMethod());
             argsIds = argsIds.append(mk().Ident(varSymbol));
             argsDecls = argsDecls.append(mk().VarDef(varSymbol, args.head));
@@ -2,6 +2,7 @@ package ch.epfl.systemf.jumbotrace.javacplugin;
 
 import com.sun.tools.javac.code.Symbol;
 import com.sun.tools.javac.code.Symtab;
+import com.sun.tools.javac.code.Types;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.util.Name;
 import com.sun.tools.javac.util.Names;
@@ -17,13 +18,15 @@ public final class TreeMakingContainer {
 
     private final Names names;
     private final Symtab symbolTable;
+    private final Types types;
     private final AtomicLong idGenerator;
 
 
-    public TreeMakingContainer(TreeMaker treeMaker, Names names, Symtab symbolTable) {
+    public TreeMakingContainer(TreeMaker treeMaker, Names names, Symtab symbolTable, Types types) {
         this.treeMaker = treeMaker;
         this.names = names;
         this.symbolTable = symbolTable;
+        this.types = types;
         idGenerator = new AtomicLong(0);
     }
 
@@ -39,6 +42,10 @@ public final class TreeMakingContainer {
         return symbolTable;
     }
 
+    Types types(){
+        return types;
+    }
+
     public Name nextId(String debugHint) {
         return names.fromString("$" + idGenerator.incrementAndGet() + "_" + debugHint);
     }